@@ -0,0 +1,31 @@
+package ru.grouptable.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching the given patterns, or all of them, with the GC profiler
+ * for allocation rates, and writes the results to benchmark-results.json.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            options.include(BenchmarkRunner.class.getPackageName() + ".*");
+        }
+        for (String pattern : args) {
+            options.include(pattern);
+        }
+        Options built = options
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Djava.awt.headless=true")
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmark-results.json")
+                .build();
+        new Runner(built).run();
+    }
+}
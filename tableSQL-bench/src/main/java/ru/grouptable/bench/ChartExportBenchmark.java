@@ -0,0 +1,56 @@
+package ru.grouptable.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.render.ChartExporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// Headless export of a whole ancestors chart, written to a stream that discards it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ChartExportBenchmark {
+    @Param({"PNG", "SVG", "PDF"})
+    private ChartExporter.Format format;
+
+    @Param({"10"})
+    private int generations;
+
+    private TreeLayout layout;
+    private ChartExporter exporter;
+    private CountingStream out;
+
+    @Setup
+    public void setUp() {
+        layout = TreeLayout.compute(Pedigrees.ancestors(generations, 0.05, 42), false, false, 0);
+        exporter = new ChartExporter(format, 1);
+        out = new CountingStream();
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        out.count = 0;
+        exporter.export(layout, out);
+        return out.count;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
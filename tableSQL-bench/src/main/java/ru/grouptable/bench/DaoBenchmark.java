@@ -0,0 +1,102 @@
+package ru.grouptable.bench;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+import ru.grouptable.dao.PersonQuery;
+import ru.grouptable.dto.PersonRow;
+import ru.grouptable.entity.Person;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// PersonDAO queries against a generated SQLite database. The filter queries go to the query cache,
+// so each is measured twice: repeated as the table repeats them, and with the cache emptied first.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoBenchmark {
+    @Param({"10000", "100000"})
+    private int persons;
+
+    @Param({"8"})
+    private int generations;
+
+    private Path databaseFile;
+    private SessionFactory sessionFactory;
+    private PersonDAO personDAO;
+    private final LocalDate fromDate = LocalDate.of(1800, 1, 1);
+    private final LocalDate toDate = LocalDate.of(1820, 12, 31);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        databaseFile = Files.createTempFile("heritage-bench", ".db");
+        sessionFactory = SyntheticFamily.openDatabase(databaseFile);
+        new SyntheticFamily(persons, generations, 42).writeTo(sessionFactory);
+        personDAO = new PersonDAO(sessionFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sessionFactory.close();
+        Database.release(databaseFile.toString());
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Benchmark
+    public List<Person> getAllPersons() {
+        return personDAO.getAllPersons();
+    }
+
+    // Empties the query cache before every call, so the query runs in SQLite
+    @State(Scope.Thread)
+    public static class EmptyQueryCache {
+        @Setup(Level.Invocation)
+        public void evict(DaoBenchmark benchmark) {
+            benchmark.sessionFactory.getCache().evictQueryRegions();
+        }
+    }
+
+    @Benchmark
+    public List<PersonRow> findByFilters() {
+        return personDAO.findByFilters(null, fromDate, toDate);
+    }
+
+    @Benchmark
+    public List<PersonRow> findByFiltersUncached(EmptyQueryCache emptyQueryCache) {
+        return personDAO.findByFilters(null, fromDate, toDate);
+    }
+
+    @Benchmark
+    public List<PersonRow> findByNameLike() {
+        return personDAO.findByNameLike("Ива");
+    }
+
+    @Benchmark
+    public List<PersonRow> findByNameLikeUncached(EmptyQueryCache emptyQueryCache) {
+        return personDAO.findByNameLike("Ива");
+    }
+
+    @Benchmark
+    public List<PersonRow> findFirstPageByBirthDate() {
+        return personDAO.findPage(PersonQuery.all().withSort(PersonQuery.SortField.BIRTH_DATE, false), 0, 100);
+    }
+
+    @Benchmark
+    public long countFiltered() {
+        return personDAO.countPersons(PersonQuery.all().withFilters(null, fromDate, toDate));
+    }
+
+    @Benchmark
+    public long countFilteredUncached(EmptyQueryCache emptyQueryCache) {
+        return personDAO.countPersons(PersonQuery.all().withFilters(null, fromDate, toDate));
+    }
+}
@@ -0,0 +1,59 @@
+package ru.grouptable.bench;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+import ru.grouptable.dao.PersonQuery;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Opening one of a dozen family files and counting its persons, as the table does after a switch
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseSwitchBenchmark {
+    @Param({"12"})
+    private int databases;
+
+    @Param({"10000"})
+    private int persons;
+
+    private Path[] files;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        files = new Path[databases];
+        for (int i = 0; i < databases; i++) {
+            files[i] = Files.createTempFile("heritage-switch", ".db");
+            SessionFactory sessionFactory = SyntheticFamily.openDatabase(files[i]);
+            new SyntheticFamily(persons, 8, i).writeTo(sessionFactory);
+            sessionFactory.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Path file : files) {
+            Database.release(file.toString());
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public long openNext() {
+        SessionFactory sessionFactory = Database.open(files[next++ % databases].toString());
+        try {
+            return new PersonDAO(sessionFactory).countPersons(PersonQuery.all());
+        } finally {
+            sessionFactory.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.grouptable.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.entity.Person;
+import ru.grouptable.graph.KinshipGraph;
+import ru.grouptable.graph.Relationship;
+import ru.grouptable.graph.RelationshipCalculator;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Relatives of random persons, through entity collections and through KinshipGraph
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KinshipBenchmark {
+    private static final int SAMPLES = 1024;
+    private static final int SELECTION = 100;
+
+    @Param({"100000"})
+    private int persons;
+
+    @Param({"8"})
+    private int generations;
+
+    private Person[] entities;
+    private KinshipGraph graph;
+    private RelationshipCalculator relationships;
+    private long[] selection;
+    private int[] samples;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticFamily family = new SyntheticFamily(persons, generations, 42);
+        entities = family.toPersons();
+        graph = family.toKinshipGraph();
+        Random random = new Random(7);
+        samples = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = random.nextInt(persons);
+        }
+        relationships = new RelationshipCalculator(graph);
+        selection = new long[SELECTION];
+        for (int i = 0; i < SELECTION; i++) {
+            selection[i] = samples[i] + 1;
+        }
+    }
+
+    // The baseline: what Person.getSiblings did before relatives came from KinshipGraph
+    private static Set<Person> siblingsOf(Person person) {
+        Set<Person> siblings = new HashSet<>();
+        for (Person parent : person.getParents()) {
+            siblings.addAll(parent.getChildren());
+        }
+        siblings.remove(person);
+        return siblings;
+    }
+
+    private int nextSample() {
+        next = (next + 1) % SAMPLES;
+        return samples[next];
+    }
+
+    @Benchmark
+    public Set<Person> entitySiblings() {
+        return siblingsOf(entities[nextSample()]);
+    }
+
+    @Benchmark
+    public Set<Person> entityUnclesAndAunts() {
+        Set<Person> unclesAndAunts = new HashSet<>();
+        for (Person parent : entities[nextSample()].getParents()) {
+            unclesAndAunts.addAll(siblingsOf(parent));
+        }
+        return unclesAndAunts;
+    }
+
+    @Benchmark
+    public int[] graphSiblings() {
+        return graph.siblingsOf(graph.indexOf(nextSample() + 1));
+    }
+
+    @Benchmark
+    public int[] graphUnclesAndAunts() {
+        return graph.unclesAndAuntsOf(graph.indexOf(nextSample() + 1));
+    }
+
+    @Benchmark
+    public int[] graphCousins() {
+        return graph.cousinsOf(graph.indexOf(nextSample() + 1));
+    }
+
+    // Ancestor tables of the samples are cached after the first pass
+    @Benchmark
+    public Relationship relationship() {
+        return relationships.relationship(nextSample() + 1, nextSample() + 1);
+    }
+
+    @Benchmark
+    public List<Relationship> relationshipsOfSelection() {
+        return relationships.relationships(selection);
+    }
+}
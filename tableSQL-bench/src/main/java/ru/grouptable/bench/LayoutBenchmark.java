@@ -0,0 +1,60 @@
+package ru.grouptable.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.FamilyTreePanel;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.layout.TreeView;
+
+import java.awt.Dimension;
+import java.util.concurrent.TimeUnit;
+
+// Layered ancestors layout of deep pedigrees, including the crossing reduction done before it is
+// first shown, and the tidy-tree layout of large descendant trees
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LayoutBenchmark {
+    @Param({"10", "15"})
+    private int generations;
+
+    @Param({"0.0", "0.05"})
+    private double collapse;
+
+    private Person root;
+    private Person descendantsRoot;
+    private FamilyTreePanel panel;
+
+    @Setup
+    public void setUp() {
+        root = Pedigrees.ancestors(generations, collapse, 42);
+        // 74 descendants over 10 generations, 554 over 15
+        descendantsRoot = Pedigrees.descendants(generations, 3, 42);
+        // Without a kinship graph the panel caches nothing and lays out on every call
+        panel = new FamilyTreePanel();
+    }
+
+    @Benchmark
+    public TreeLayout ancestorsView() {
+        return TreeLayout.compute(root, false, false, 0);
+    }
+
+    @Benchmark
+    public TreeLayout siblingsWithUnclesView() {
+        return TreeLayout.compute(root, true, true, 0);
+    }
+
+    @Benchmark
+    public TreeLayout descendantsView() {
+        return TreeLayout.compute(descendantsRoot, TreeView.DESCENDANTS, false, false, 0);
+    }
+
+    @Benchmark
+    public Dimension panelRecalculateTree() {
+        panel.setRootPerson(root);
+        return panel.getPreferredSize();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.grouptable.bench;
+
+import ru.grouptable.entity.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Detached in-memory family trees for benchmarks that do not need a database
+public final class Pedigrees {
+    private Pedigrees() {
+    }
+
+    /**
+     * Ancestors of one person over the given number of generations. Each parent is
+     * missing with probability 0.1 and taken from the already generated parents of the
+     * same generation with probability collapse, as happens with cousin marriages.
+     */
+    public static Person ancestors(int generations, double collapse, long seed) {
+        Random random = new Random(seed);
+        long nextId = 1;
+        Person root = person(nextId++);
+        List<Person> generation = List.of(root);
+        for (int g = 1; g < generations; g++) {
+            List<Person> parents = new ArrayList<>();
+            for (Person child : generation) {
+                for (int k = 0; k < 2; k++) {
+                    if (random.nextDouble() < 0.1) {
+                        continue;
+                    }
+                    Person parent = !parents.isEmpty() && random.nextDouble() < collapse
+                        ? parents.get(random.nextInt(parents.size()))
+                        : person(nextId++);
+                    if (child.getParents().add(parent)) {
+                        parent.getChildren().add(child);
+                        if (!parents.contains(parent)) {
+                            parents.add(parent);
+                        }
+                    }
+                }
+            }
+            generation = parents;
+        }
+        return root;
+    }
+
+    /**
+     * Descendants of one person over the given number of generations, each person having
+     * zero to maxChildren children with the same probability.
+     */
+    public static Person descendants(int generations, int maxChildren, long seed) {
+        Random random = new Random(seed);
+        long nextId = 1;
+        Person root = person(nextId++);
+        List<Person> generation = List.of(root);
+        for (int g = 1; g < generations; g++) {
+            List<Person> children = new ArrayList<>();
+            for (Person parent : generation) {
+                int count = random.nextInt(maxChildren + 1);
+                for (int k = 0; k < count; k++) {
+                    Person child = person(nextId++);
+                    child.getParents().add(parent);
+                    parent.getChildren().add(child);
+                    children.add(child);
+                }
+            }
+            generation = children;
+        }
+        return root;
+    }
+
+    private static Person person(long id) {
+        Person person = new Person();
+        person.setId(id);
+        person.setFirstName("Имя" + id);
+        person.setLastName("Фамилия" + id);
+        return person;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.grouptable.bench;
+
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.render.TreeRenderer;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// One frame of a large ancestors view at several zoom levels, with no tiles cached yet;
+// the cost should follow the detail on screen, not the number of persons in the tree
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+
+    @Param({"1.0", "0.3", "0.05", "0.01"})
+    private double zoom;
+
+    private TreeLayout layout;
+    private TreeRenderer renderer;
+    private BufferedImage frame;
+    private Rectangle area;
+
+    @Setup
+    public void setUp() {
+        layout = TreeLayout.compute(Pedigrees.ancestors(15, 0.05, 42), false, false, 0);
+        renderer = new TreeRenderer();
+        frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        // Centered on the middle of the tree, where it is most crowded
+        int width = (int) Math.ceil(WIDTH / zoom);
+        int height = (int) Math.ceil(HEIGHT / zoom);
+        area = new Rectangle(layout.getWidth() / 2 - width / 2, layout.getHeight() / 2 - height / 2, width, height);
+    }
+
+    @Benchmark
+    public BufferedImage coldFrame() {
+        // Switching layouts drops the tiles
+        renderer.setLayout(null);
+        renderer.setLayout(layout);
+        Graphics2D g2d = frame.createGraphics();
+        try {
+            g2d.scale(zoom, zoom);
+            g2d.translate(-area.x, -area.y);
+            renderer.paint(g2d, area, zoom);
+        } finally {
+            g2d.dispose();
+        }
+        return frame;
+    }
+}
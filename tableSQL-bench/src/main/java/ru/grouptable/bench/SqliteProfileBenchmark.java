@@ -0,0 +1,96 @@
+package ru.grouptable.bench;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+import ru.grouptable.dao.SqliteProfile;
+import ru.grouptable.entity.Person;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Plain and tuned connection profiles on single-row commits, parallel reads and both at once
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqliteProfileBenchmark {
+    private static final int SAVES_PER_INVOCATION = 100;
+
+    @Param({"PLAIN", "TUNED"})
+    private SqliteProfile profile;
+
+    @Param({"100000"})
+    private int persons;
+
+    private Path databaseFile;
+    private SessionFactory sessionFactory;
+    private PersonDAO personDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        databaseFile = Files.createTempFile("heritage-bench", ".db");
+        sessionFactory = SyntheticFamily.openDatabase(databaseFile, profile);
+        new SyntheticFamily(persons, 8, 42).writeTo(sessionFactory);
+        personDAO = new PersonDAO(sessionFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sessionFactory.close();
+        Database.release(databaseFile.toString());
+        Files.deleteIfExists(databaseFile);
+        Files.deleteIfExists(Paths.get(databaseFile + "-wal"));
+        Files.deleteIfExists(Paths.get(databaseFile + "-shm"));
+    }
+
+    // Each save is its own transaction, as when persons are added in the form
+    @Benchmark
+    @OperationsPerInvocation(SAVES_PER_INVOCATION)
+    public void saveOneByOne() {
+        for (int i = 0; i < SAVES_PER_INVOCATION; i++) {
+            save();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Person readTrees() {
+        return readTree();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void readWhileWritingSave() {
+        save();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public Person readWhileWritingRead() {
+        return readTree();
+    }
+
+    private void save() {
+        Person person = new Person();
+        person.setFirstName("Иван");
+        person.setLastName("Бенчмарков");
+        person.setBirthDate(LocalDate.of(1900, 1, 1));
+        personDAO.save(person);
+    }
+
+    // What selecting a random row in the table reads
+    private Person readTree() {
+        return personDAO.findForTree(ThreadLocalRandom.current().nextLong(persons) + 1);
+    }
+}
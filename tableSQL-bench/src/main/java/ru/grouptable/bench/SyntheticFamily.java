@@ -0,0 +1,155 @@
+package ru.grouptable.bench;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.SqliteProfile;
+import ru.grouptable.entity.NameSortKey;
+import ru.grouptable.entity.Person;
+import ru.grouptable.graph.KinshipGraph;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generated population of the given size spread over the given number of generations.
+ * Persons of each generation get both parents from a couple of the previous one, so
+ * there are siblings, cousins and uncles as in a real family database.
+ */
+public class SyntheticFamily {
+    private static final String[] FIRST_NAMES = {
+        "Иван", "Пётр", "Мария", "Анна", "Сергей", "Алексей", "Ольга", "Елена", "Дмитрий", "Наталья",
+        "Николай", "Татьяна", "Михаил", "Екатерина", "Андрей", "Светлана"
+    };
+    private static final String[] LAST_NAMES = {
+        "Иванов", "Петров", "Сидоров", "Смирнов", "Кузнецов", "Попов", "Васильев", "Соколов",
+        "Михайлов", "Новиков", "Фёдоров", "Морозов", "Волков", "Алексеев", "Лебедев", "Козлов"
+    };
+
+    private final int size;
+    private final String[] firstNames;
+    private final String[] lastNames;
+    private final LocalDate[] birthDates;
+    // Parent indices, -1 for the oldest generation
+    private final int[] fathers;
+    private final int[] mothers;
+
+    public SyntheticFamily(int size, int generations, long seed) {
+        Random random = new Random(seed);
+        this.size = size;
+        firstNames = new String[size];
+        lastNames = new String[size];
+        birthDates = new LocalDate[size];
+        fathers = new int[size];
+        mothers = new int[size];
+        int perGeneration = Math.max(2, size / generations);
+        for (int i = 0; i < size; i++) {
+            int generation = Math.min(generations - 1, i / perGeneration);
+            firstNames[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            lastNames[i] = LAST_NAMES[random.nextInt(LAST_NAMES.length)] + random.nextInt(100);
+            birthDates[i] = LocalDate.of(1700 + generation * 25 + random.nextInt(20), 1 + random.nextInt(12), 1 + random.nextInt(28));
+            if (generation == 0) {
+                fathers[i] = -1;
+                mothers[i] = -1;
+            } else {
+                // Couples are consecutive pairs of the previous generation, about three children each
+                int previousStart = (generation - 1) * perGeneration;
+                int couple = random.nextInt(Math.max(1, perGeneration / 3));
+                fathers[i] = previousStart + (2 * couple) % perGeneration;
+                mothers[i] = previousStart + (2 * couple + 1) % perGeneration;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static SessionFactory openDatabase(Path file) {
+        return Database.open(file.toString());
+    }
+
+    public static SessionFactory openDatabase(Path file, SqliteProfile profile) {
+        return Database.open(file.toString(), profile);
+    }
+
+    // Inserts the population with ids 1..size into an empty database
+    public void writeTo(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try (PreparedStatement insertPerson = connection.prepareStatement(
+                         "INSERT INTO persons (id, first_name, last_name, birth_day, first_name_key, last_name_key) "
+                             + "VALUES (?, ?, ?, ?, ?, ?)");
+                     PreparedStatement insertParent = connection.prepareStatement(
+                         "INSERT INTO person_parents (child_id, parent_id) VALUES (?, ?)")) {
+                    for (int i = 0; i < size; i++) {
+                        insertPerson.setLong(1, i + 1);
+                        insertPerson.setString(2, firstNames[i]);
+                        insertPerson.setString(3, lastNames[i]);
+                        insertPerson.setLong(4, birthDates[i].toEpochDay());
+                        insertPerson.setString(5, NameSortKey.of(firstNames[i]));
+                        insertPerson.setString(6, NameSortKey.of(lastNames[i]));
+                        insertPerson.addBatch();
+                        for (int parent : new int[]{fathers[i], mothers[i]}) {
+                            if (parent >= 0) {
+                                insertParent.setLong(1, i + 1);
+                                insertParent.setLong(2, parent + 1);
+                                insertParent.addBatch();
+                            }
+                        }
+                        if (i % 1000 == 999) {
+                            insertPerson.executeBatch();
+                            insertParent.executeBatch();
+                        }
+                    }
+                    insertPerson.executeBatch();
+                    insertParent.executeBatch();
+                    connection.commit();
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            });
+        }
+    }
+
+    // Detached entities with both sides of every relation filled in
+    public Person[] toPersons() {
+        Person[] persons = new Person[size];
+        for (int i = 0; i < size; i++) {
+            Person person = new Person();
+            person.setId((long) i + 1);
+            person.setFirstName(firstNames[i]);
+            person.setLastName(lastNames[i]);
+            person.setBirthDate(birthDates[i]);
+            persons[i] = person;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int parent : new int[]{fathers[i], mothers[i]}) {
+                if (parent >= 0) {
+                    persons[i].getParents().add(persons[parent]);
+                    persons[parent].getChildren().add(persons[i]);
+                }
+            }
+        }
+        return persons;
+    }
+
+    public KinshipGraph toKinshipGraph() {
+        KinshipGraph graph = new KinshipGraph(size);
+        for (int i = 0; i < size; i++) {
+            graph.put(i + 1, firstNames[i], lastNames[i], new long[0]);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int parent : new int[]{fathers[i], mothers[i]}) {
+                if (parent >= 0) {
+                    graph.link(i + 1, parent + 1);
+                }
+            }
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.grouptable.bench;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import ru.grouptable.PersonTableModel;
+import ru.grouptable.dao.AsyncPersonDAO;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelListener;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What Main.updatePersonTable does after every edit: reset the filters, recount,
+ * and wait until the first page of the table has been loaded and delivered on the EDT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TableRefreshBenchmark {
+    @Param({"10000", "100000"})
+    private int persons;
+
+    @Param({"8"})
+    private int generations;
+
+    private Path databaseFile;
+    private SessionFactory sessionFactory;
+    private ExecutorService executor;
+    private PersonTableModel model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseFile = Files.createTempFile("heritage-bench", ".db");
+        sessionFactory = SyntheticFamily.openDatabase(databaseFile);
+        new SyntheticFamily(persons, generations, 42).writeTo(sessionFactory);
+        executor = AsyncPersonDAO.newQueryExecutor();
+        AsyncPersonDAO personDAO = new AsyncPersonDAO(new PersonDAO(sessionFactory), executor);
+        onEdt(() -> model = new PersonTableModel(personDAO, Throwable::printStackTrace));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        sessionFactory.close();
+        Database.release(databaseFile.toString());
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Benchmark
+    public Object updatePersonTable() throws Exception {
+        AtomicReference<CompletableFuture<Integer>> counted = new AtomicReference<>();
+        onEdt(() -> counted.set(model.setFilters(null, null, null)));
+        counted.get().get();
+
+        CompletableFuture<Object> firstRow = new CompletableFuture<>();
+        TableModelListener listener = event -> {
+            Object value = model.getValueAt(0, 1);
+            if (value != null) {
+                firstRow.complete(value);
+            }
+        };
+        onEdt(() -> {
+            model.addTableModelListener(listener);
+            Object value = model.getValueAt(0, 1);
+            if (value != null) {
+                firstRow.complete(value);
+            }
+        });
+        try {
+            return firstRow.get();
+        } finally {
+            onEdt(() -> model.removeTableModelListener(listener));
+        }
+    }
+
+    private static void onEdt(Runnable task) throws InterruptedException, ExecutionException {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InvocationTargetException e) {
+            throw new ExecutionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ru.grouptable;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+// Format of birth dates in the UI: ДД.ММ.ГГГГ
+public final class BirthDateFormat {
+    private static final DateTimeFormatter FORMATTER =
+        DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+    private BirthDateFormat() {
+    }
+
+    public static String format(LocalDate date) {
+        return date == null ? "" : FORMATTER.format(date);
+    }
+
+    // Null for blank text
+    public static LocalDate parse(String text) throws DateTimeParseException {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        return LocalDate.parse(text.trim(), FORMATTER);
+    }
+}
@@ -0,0 +1,164 @@
+package ru.grouptable;
+
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.layout.TreeView;
+import ru.grouptable.render.ChartExporter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders the trees of many persons of a database into chart files without a window,
+ * laid out as the tree panel lays them out:
+ * java -cp ... ru.grouptable.ChartBatch family.db charts --format pdf --view hourglass 12 15 @ids.txt
+ * Each tree is written to the output folder as the person's id with the format's extension.
+ */
+public class ChartBatch {
+    private static final String USAGE = "Использование: ChartBatch <база.db> <папка> [--format png|svg|pdf]"
+        + " [--view ancestors|descendants|hourglass] [--siblings] [--uncles] [--scale 1.0]"
+        + " [--refine мс] [--threads N] <id>... (@файл читает id из файла, по одному в строке)";
+    // The panel refines in the background for as long
+    private static final long DEFAULT_REFINE_MILLIS = 3000;
+
+    private String databasePath;
+    private Path outputDirectory;
+    private ChartExporter.Format format = ChartExporter.Format.PNG;
+    private TreeView view = TreeView.ANCESTORS;
+    private boolean siblingsMode;
+    private boolean showUnclesAndAunts;
+    private double scale = 1;
+    private long refineMillis = DEFAULT_REFINE_MILLIS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final List<Long> ids = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        // Before any AWT class is loaded
+        System.setProperty("java.awt.headless", "true");
+        ChartBatch batch = new ChartBatch();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | IOException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        int failed = batch.run();
+        // Pool threads of the database would keep the JVM running
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private void parse(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("нужны база, папка и хотя бы один id");
+        }
+        databasePath = args[0];
+        // SQLite would create a mistyped file empty, and every id would then be "not found"
+        if (!Files.isRegularFile(Paths.get(databasePath))) {
+            throw new IllegalArgumentException("файл базы не найден: " + databasePath);
+        }
+        outputDirectory = Paths.get(args[1]);
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--format":
+                    format = ChartExporter.Format.fromName(args[++i]);
+                    break;
+                case "--view":
+                    view = TreeView.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--siblings":
+                    siblingsMode = true;
+                    break;
+                case "--uncles":
+                    showUnclesAndAunts = true;
+                    break;
+                case "--scale":
+                    scale = Double.parseDouble(args[++i]);
+                    break;
+                case "--refine":
+                    refineMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (arg.startsWith("@")) {
+                        for (String line : Files.readAllLines(Paths.get(arg.substring(1)))) {
+                            if (!line.isBlank()) {
+                                ids.add(Long.parseLong(line.trim()));
+                            }
+                        }
+                    } else {
+                        ids.add(Long.parseLong(arg));
+                    }
+            }
+        }
+        if (ids.isEmpty() || threads < 1) {
+            throw new IllegalArgumentException("нужен хотя бы один id и хотя бы один поток");
+        }
+    }
+
+    // Returns the number of charts that failed
+    private int run() throws IOException {
+        Files.createDirectories(outputDirectory);
+        PersonDAO personDAO = new PersonDAO(Database.open(databasePath));
+        ChartExporter exporter = new ChartExporter(format, scale);
+        boolean withDescendants = !siblingsMode && view.showsDescendants();
+
+        // Trees are loaded and laid out side by side; PNG tiles are also spread over all cores
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Path>> charts = new ArrayList<>();
+        for (long id : ids) {
+            charts.add(executor.submit(() -> {
+                Person root = personDAO.findForTree(id, withDescendants);
+                if (root == null) {
+                    throw new IllegalArgumentException("человек не найден");
+                }
+                Path file = outputDirectory.resolve(id + format.getExtension());
+                exporter.exportFile(layOut(root), file);
+                return file;
+            }));
+        }
+        int failed = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            try {
+                System.out.println(ids.get(i) + " -> " + charts.get(i).get());
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(ids.get(i) + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed += ids.size() - i;
+                break;
+            }
+        }
+        executor.shutdownNow();
+        Database.release(databasePath);
+        System.out.println("Готово: " + (ids.size() - failed) + " из " + ids.size());
+        return failed;
+    }
+
+    // The layout the panel ends up showing once its background refinement is done
+    private TreeLayout layOut(Person root) {
+        TreeLayout layout = TreeLayout.compute(root, view, siblingsMode, showUnclesAndAunts, 0);
+        if (layout.isRefinable() && refineMillis > 0) {
+            AtomicReference<TreeLayout> best = new AtomicReference<>(layout);
+            layout.refine(refineMillis, (previous, refined) -> best.set(refined));
+            layout = best.get();
+        }
+        return layout;
+    }
+}
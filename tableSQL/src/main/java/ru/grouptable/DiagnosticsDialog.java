@@ -0,0 +1,167 @@
+package ru.grouptable;
+
+import ru.grouptable.dto.LatencyStatistics;
+import ru.grouptable.metrics.Metrics;
+import ru.grouptable.metrics.MetricsMXBean;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timers, Hibernate counters and EDT stalls of the running application, the same figures
+ * JMX clients read from ru.grouptable:type=Metrics, refreshed every second while open.
+ */
+public class DiagnosticsDialog extends JDialog {
+    private static final int REFRESH_MS = 1000;
+    private static DiagnosticsDialog instance;
+
+    private final MetricsMXBean metrics = Metrics.getBean();
+    private final LatencyTableModel latencyModel = new LatencyTableModel();
+    private final JLabel hibernateLabel = new JLabel();
+    private final JLabel edtLabel = new JLabel();
+    private final Timer refreshTimer = new Timer(REFRESH_MS, e -> refresh());
+
+    // Brings the open dialog to front instead of opening a second one
+    public static void showDialog(Frame owner) {
+        if (instance == null) {
+            instance = new DiagnosticsDialog(owner);
+        }
+        instance.setVisible(true);
+        instance.toFront();
+    }
+
+    private DiagnosticsDialog(Frame owner) {
+        super(owner, "Диагностика", false);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JTable table = new JTable(latencyModel);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+
+        JPanel counters = new JPanel(new GridLayout(0, 1));
+        counters.setBorder(BorderFactory.createEmptyBorder(6, 6, 6, 6));
+        counters.add(hibernateLabel);
+        counters.add(edtLabel);
+
+        JButton resetButton = new JButton("Сбросить");
+        resetButton.addActionListener(e -> {
+            metrics.resetStatistics();
+            refresh();
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(resetButton);
+
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(counters, BorderLayout.CENTER);
+        bottom.add(buttons, BorderLayout.SOUTH);
+
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(bottom, BorderLayout.SOUTH);
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+                instance = null;
+            }
+        });
+        refresh();
+        refreshTimer.start();
+        setSize(760, 480);
+        setLocationRelativeTo(owner);
+    }
+
+    private void refresh() {
+        latencyModel.setRows(metrics.getLatencies());
+        // Hibernate counts for its one SessionFactory, which serves every database opened
+        hibernateLabel.setText(String.format("<html>Все базы с запуска программы. Запросов: %d (самый долгий %d мс), загрузок людей: %d,"
+                + " выборок: %d, коллекций: %d, SQL-выражений: %d<br>"
+                + "Попаданий в кэш: объекты %.0f%%, запросы %.0f%%</html>",
+            metrics.getQueryExecutionCount(), metrics.getQueryExecutionMaxTimeMillis(),
+            metrics.getEntityLoadCount(), metrics.getEntityFetchCount(), metrics.getCollectionLoadCount(),
+            metrics.getPrepareStatementCount(),
+            metrics.getSecondLevelCacheHitRatio() * 100, metrics.getQueryCacheHitRatio() * 100));
+        long threshold = metrics.getEdtStallThresholdMillis();
+        edtLabel.setText(threshold <= 0 ? "Слежение за потоком EDT отключено"
+            : String.format("Зависаний EDT дольше %d мс: %d, самое долгое %.0f мс",
+                threshold, metrics.getEdtStallCount(), metrics.getLongestEdtStallMillis()));
+    }
+
+    private static final class LatencyTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Операция", "Вызовов", "Среднее, мс", "50%, мс", "90%, мс",
+            "99%, мс", "Макс., мс"};
+
+        private List<LatencyStatistics> rows = new ArrayList<>();
+
+        // Rows keep their order, so the table keeps its selection and sort between refreshes
+        void setRows(List<LatencyStatistics> newRows) {
+            boolean sameRows = newRows.size() == rows.size();
+            for (int i = 0; sameRows && i < rows.size(); i++) {
+                sameRows = rows.get(i).getName().equals(newRows.get(i).getName());
+            }
+            rows = newRows;
+            if (sameRows) {
+                fireTableRowsUpdated(0, rows.size() - 1);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                    return String.class;
+                case 1:
+                    return Long.class;
+                default:
+                    return Double.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            LatencyStatistics statistics = rows.get(row);
+            switch (column) {
+                case 0:
+                    return statistics.getName();
+                case 1:
+                    return statistics.getCount();
+                case 2:
+                    return round(statistics.getMeanMillis());
+                case 3:
+                    return round(statistics.getMedianMillis());
+                case 4:
+                    return round(statistics.getP90Millis());
+                case 5:
+                    return round(statistics.getP99Millis());
+                default:
+                    return round(statistics.getMaxMillis());
+            }
+        }
+
+        private static double round(double millis) {
+            return Math.round(millis * 100) / 100.0;
+        }
+    }
+}
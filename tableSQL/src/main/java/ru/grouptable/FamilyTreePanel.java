@@ -1,350 +1,275 @@
 package ru.grouptable;
 
 import ru.grouptable.entity.Person;
+import ru.grouptable.graph.KinshipGraph;
+import ru.grouptable.layout.LayoutCache;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.layout.TreeView;
+import ru.grouptable.metrics.LatencyHistogram;
+import ru.grouptable.metrics.Metrics;
+import ru.grouptable.render.TreeRenderer;
+
 import javax.swing.*;
 import java.awt.*;
-import java.util.*;
-import java.util.List;
-
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shows the tree of one person. The tree is zoomed with the mouse wheel around the pointer
+ * and dragged to pan; a double click fits it into the panel again.
+ */
 public class FamilyTreePanel extends JPanel {
+    private static final long REFINEMENT_BUDGET_MS = 3000;
+    private static final double MIN_ZOOM = 0.002;
+    private static final double MAX_ZOOM = 4;
+    // Zoom per notch of the mouse wheel
+    private static final double WHEEL_ZOOM = 1.15;
+    // A new tree that only fits below this zoom is shown at full size around the root instead
+    private static final double MIN_FIT_ZOOM = 0.5;
+    // Screen pixels of the tree that panning always leaves in view
+    private static final int MIN_VISIBLE = 50;
+    // Time the EDT spends on layouts (cache hits included) and on frames
+    private static final LatencyHistogram LAYOUT_TIMER = Metrics.histogram("FamilyTreePanel.layout");
+    private static final LatencyHistogram PAINT_TIMER = Metrics.histogram("FamilyTreePanel.paint");
+    // One layout is refined at a time, and a cancelled refinement ends before the next starts
+    private static final ExecutorService REFINER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "layout-refiner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LayoutCache layoutCache = new LayoutCache();
     private Person rootPerson;
-    private static final int PERSON_WIDTH = 150;
-    private static final int PERSON_HEIGHT = 60;
-    private static final int VERTICAL_GAP = 50;
-    private static final int HORIZONTAL_GAP = 40;
-    private Map<Person, Point> personPositions;
-    private Map<Integer, Set<Integer>> levelPositions;
+    // Graph version read before rootPerson was loaded
+    private long rootVersion = -1;
+    // Whether rootPerson was loaded with descendants
+    private boolean rootHasDescendants;
+    private TreeLayout layout;
+    private Future<?> refinement;
+    private final TreeRenderer renderer = new TreeRenderer();
     private boolean showSiblingsMode = false;
     private boolean showUnclesAndAunts = false;
-    private int minX = 0;
-    private int maxX = 0;
-    private int minY = 0;
-    private int maxY = 0;
+    private TreeView view = TreeView.ANCESTORS;
+    // Layout pixels are drawn zoom times larger, with (viewX, viewY) at the top left corner
+    private double zoom = 1;
+    private double viewX;
+    private double viewY;
+    // Set for a new tree, whose view is chosen once the panel has its size
+    private boolean viewPending;
 
     public FamilyTreePanel() {
         setPreferredSize(new Dimension(800, 600));
-        personPositions = new HashMap<>();
-        levelPositions = new HashMap<>();
+        MouseAdapter navigation = new MouseAdapter() {
+            private Point last;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                last = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (last != null) {
+                    moveView((last.x - e.getX()) / zoom, (last.y - e.getY()) / zoom);
+                    last = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && layout != null) {
+                    fitView(MIN_ZOOM);
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getPoint(), Math.pow(WHEEL_ZOOM, -e.getPreciseWheelRotation()));
+            }
+        };
+        addMouseListener(navigation);
+        addMouseMotionListener(navigation);
+        addMouseWheelListener(navigation);
+    }
+
+    public void setKinshipGraph(KinshipGraph graph) {
+        layoutCache.setGraph(graph);
+    }
+
+    public long getGraphVersion() {
+        return layoutCache.currentVersion();
     }
 
     public void setRootPerson(Person person) {
-        this.rootPerson = person;
-        recalculateTree();
+        setRootPerson(person, layoutCache.currentVersion(), false);
     }
 
-    public void setShowSiblingsMode(boolean showSiblingsMode) {
-        this.showSiblingsMode = showSiblingsMode;
+    public void setRootPerson(Person person, long graphVersion, boolean withDescendants) {
+        this.rootPerson = person;
+        this.rootVersion = graphVersion;
+        this.rootHasDescendants = withDescendants;
         recalculateTree();
     }
 
-    public void setShowUnclesAndAunts(boolean show) {
-        this.showUnclesAndAunts = show;
-        recalculateTree();
+    public Long getRootId() {
+        return rootPerson == null ? null : rootPerson.getId();
     }
 
-    private void recalculateTree() {
-        personPositions.clear();
-        levelPositions.clear();
-        
-        maxX = 0;
-        maxY = 0;
-        
-        minY = getHeight() - PERSON_HEIGHT - 100;
-        minX = getWidth() / 2 - PERSON_WIDTH / 2;
+    // Whether the root has to be loaded with its descendants for the current view
+    public boolean needsDescendants() {
+        return !showSiblingsMode && view.showsDescendants();
+    }
 
-        if (rootPerson != null) {
-            calculatePositions(0, 0);
-            
-            int width = maxX - minX + PERSON_WIDTH + 100;
-            int height = maxY - minY + PERSON_HEIGHT + 100;
-            
-            int shiftX = Math.abs(minX) + 50;
-            int shiftY = Math.abs(minY) + 50;
-            
-            Map<Person, Point> newPositions = new HashMap<>();
-            for (Map.Entry<Person, Point> entry : personPositions.entrySet()) {
-                Point oldPoint = entry.getValue();
-                newPositions.put(entry.getKey(), new Point(oldPoint.x + shiftX, oldPoint.y + shiftY));
-            }
-            personPositions = newPositions;
-            
-            setPreferredSize(new Dimension(width, height));
-        }
-        
-        revalidate();
-        repaint();
+    // True when the shown root lacks the relatives the current view needs and has to be loaded again
+    public boolean needsReload() {
+        return rootPerson != null && needsDescendants() && !rootHasDescendants;
     }
 
-    private void calculatePositions(int startX, int startY) {
-        if (showSiblingsMode) {
-            calculateSiblingsView(startX, startY);
-        } else {
-            calculateAncestorsView(startX, startY);
+    /**
+     * Shows the tree of the given person from the layout cache, if it is still current.
+     * Returns false when the person has to be loaded and passed to setRootPerson.
+     */
+    public boolean showCachedLayout(long personId) {
+        TreeLayout cached = layoutCache.get(personId, view, showSiblingsMode, showUnclesAndAunts);
+        if (cached == null) {
+            return false;
         }
+        rootPerson = cached.getRoot();
+        rootVersion = cached.getGraphVersion();
+        rootHasDescendants = needsDescendants();
+        applyLayout(cached);
+        return true;
     }
 
-    private void updateBounds(int x, int y) {
-        minX = Math.min(minX, x);
-        maxX = Math.max(maxX, x);
-        minY = Math.min(minY, y);
-        maxY = Math.max(maxY, y);
+    public void setShowSiblingsMode(boolean showSiblingsMode) {
+        this.showSiblingsMode = showSiblingsMode;
+        recalculateTree();
     }
 
-    private void calculateSiblingsView(int startX, int startY) {
-        personPositions.put(rootPerson, new Point(startX, startY));
-        updateBounds(startX, startY);
-
-        Set<Person> siblings = new HashSet<>();
-        Set<Person> rootParents = rootPerson.getParents();
-        
-        if (!rootParents.isEmpty()) {
-            for (Person parent : rootParents) {
-                siblings.addAll(parent.getChildren());
-            }
-            siblings.remove(rootPerson);
-
-            if (!siblings.isEmpty()) {
-                List<Person> sortedSiblings = new ArrayList<>(siblings);
-                sortedSiblings.sort(Comparator.comparing(Person::getId));
-
-                int leftCount = sortedSiblings.size() / 2;
-                int rightCount = sortedSiblings.size() - leftCount;
-                
-                for (int i = 0; i < leftCount; i++) {
-                    int siblingX = startX - (leftCount - i) * (PERSON_WIDTH + HORIZONTAL_GAP);
-                    personPositions.put(sortedSiblings.get(i), new Point(siblingX, startY));
-                    updateBounds(siblingX, startY);
-                }
-                
-                for (int i = 0; i < rightCount; i++) {
-                    int siblingX = startX + (i + 1) * (PERSON_WIDTH + HORIZONTAL_GAP);
-                    personPositions.put(sortedSiblings.get(leftCount + i), new Point(siblingX, startY));
-                    updateBounds(siblingX, startY);
-                }
-            }
-
-            int parentY = startY - PERSON_HEIGHT - VERTICAL_GAP;
-            List<Person> sortedParents = new ArrayList<>(rootParents);
-            sortedParents.sort(Comparator.comparing(Person::getId));
-
-            int totalParentWidth = sortedParents.size() * PERSON_WIDTH + (sortedParents.size() - 1) * HORIZONTAL_GAP;
-            int parentStartX = startX - totalParentWidth / 2;
+    public void setView(TreeView view) {
+        this.view = view;
+        recalculateTree();
+    }
 
-            for (int i = 0; i < sortedParents.size(); i++) {
-                Person parent = sortedParents.get(i);
-                int parentX = parentStartX + i * (PERSON_WIDTH + HORIZONTAL_GAP);
-                personPositions.put(parent, new Point(parentX, parentY));
-                updateBounds(parentX, parentY);
+    public void setShowUnclesAndAunts(boolean show) {
+        this.showUnclesAndAunts = show;
+        recalculateTree();
+    }
 
-                if (showUnclesAndAunts) {
-                    addUnclesAndAunts(parent, parentX, parentY);
-                }
-            }
+    // Leaves the old tree in place when the root has to be loaded again for the view
+    private void recalculateTree() {
+        if (needsReload()) {
+            return;
         }
+        applyLayout(rootPerson == null ? null : LAYOUT_TIMER.time(
+            () -> layoutCache.getOrCompute(rootPerson, view, showSiblingsMode, showUnclesAndAunts, rootVersion)));
     }
 
-    private void addUnclesAndAunts(Person parent, int parentX, int parentY) {
-        Set<Person> parentSiblings = new HashSet<>();
-        Set<Person> grandParents = parent.getParents();
-        
-        for (Person grandParent : grandParents) {
-            parentSiblings.addAll(grandParent.getChildren());
+    private void applyLayout(TreeLayout newLayout) {
+        if (refinement != null) {
+            refinement.cancel(true);
+            refinement = null;
         }
-        parentSiblings.remove(parent);
-
-        if (!parentSiblings.isEmpty()) {
-            List<Person> sortedUnclesAunts = new ArrayList<>(parentSiblings);
-            sortedUnclesAunts.sort(Comparator.comparing(Person::getId));
-
-            int leftCount = sortedUnclesAunts.size() / 2;
-            int rightCount = sortedUnclesAunts.size() - leftCount;
-
-            for (int i = 0; i < leftCount; i++) {
-                if (!personPositions.containsKey(sortedUnclesAunts.get(i))) {
-                    int uncleX = parentX - (leftCount - i) * (PERSON_WIDTH + HORIZONTAL_GAP);
-                    personPositions.put(sortedUnclesAunts.get(i), new Point(uncleX, parentY));
-                    updateBounds(uncleX, parentY);
-                }
-            }
-
-            for (int i = 0; i < rightCount; i++) {
-                Person uncleAunt = sortedUnclesAunts.get(leftCount + i);
-                if (!personPositions.containsKey(uncleAunt)) {
-                    int uncleX = parentX + (i + 1) * (PERSON_WIDTH + HORIZONTAL_GAP);
-                    personPositions.put(uncleAunt, new Point(uncleX, parentY));
-                    updateBounds(uncleX, parentY);
-                }
-            }
-
-            if (!grandParents.isEmpty()) {
-                int grandParentY = parentY - PERSON_HEIGHT - VERTICAL_GAP;
-                List<Person> sortedGrandParents = new ArrayList<>(grandParents);
-                sortedGrandParents.sort(Comparator.comparing(Person::getId));
-
-                int totalWidth = sortedGrandParents.size() * PERSON_WIDTH + (sortedGrandParents.size() - 1) * HORIZONTAL_GAP;
-                int startX = parentX - totalWidth / 2;
-
-                for (int i = 0; i < sortedGrandParents.size(); i++) {
-                    Person grandParent = sortedGrandParents.get(i);
-                    if (!personPositions.containsKey(grandParent)) {
-                        int x = startX + i * (PERSON_WIDTH + HORIZONTAL_GAP);
-                        personPositions.put(grandParent, new Point(x, grandParentY));
-                        updateBounds(x, grandParentY);
-                    }
-                }
-            }
+        show(newLayout);
+        if (newLayout != null && newLayout.isRefinable()) {
+            refinement = REFINER.submit(() -> newLayout.refine(REFINEMENT_BUDGET_MS,
+                (previous, refined) -> SwingUtilities.invokeLater(() -> showRefined(refined))));
         }
     }
 
-    private void calculateAncestorsView(int startX, int startY) {
-        personPositions.put(rootPerson, new Point(startX, startY));
-        calculateParentPositions(rootPerson, startX, startY);
+    /**
+     * Layouts with fewer crossings come in while the refinement runs, and one more may come
+     * after it was cancelled. Each replaces the cached layout of its rows even once another
+     * tree is shown, and is shown if its rows are; the root card stays in place.
+     */
+    private void showRefined(TreeLayout refined) {
+        layoutCache.replace(refined);
+        if (layout != null && layout != refined && layout.sharesRowsWith(refined)) {
+            Point before = layout.getPositions().get(layout.getRoot());
+            Point after = refined.getPositions().get(refined.getRoot());
+            viewX += after.x - before.x;
+            viewY += after.y - before.y;
+            layout = refined;
+            renderer.setLayout(refined);
+            repaint();
+        }
     }
 
-    private void calculateParentPositions(Person person, int personX, int personY) {
-        if (person.getParents().isEmpty()) return;
-
-        int parentY = personY - PERSON_HEIGHT - VERTICAL_GAP;
-        List<Person> parents = new ArrayList<>(person.getParents());
-        
-        parents.sort(Comparator.comparing(Person::getId));
-        
-        int totalWidth = parents.size() * PERSON_WIDTH + (parents.size() - 1) * HORIZONTAL_GAP;
-        int startX = personX + PERSON_WIDTH/2 - totalWidth/2;
+    private void show(TreeLayout newLayout) {
+        layout = newLayout;
+        renderer.setLayout(newLayout);
+        viewPending = true;
+        repaint();
+    }
 
-        List<Integer> parentPositionsX = new ArrayList<>();
-        for (int i = 0; i < parents.size(); i++) {
-            Person parent = parents.get(i);
-            int suggestedX = startX + i * (PERSON_WIDTH + HORIZONTAL_GAP);
-            
-            if (personPositions.containsKey(parent)) {
-                Point existingPos = personPositions.get(parent);
-                parentPositionsX.add(existingPos.x);
-            } else {
-                int availableX = findNextAvailablePosition(parentY, suggestedX, parentPositionsX);
-                parentPositionsX.add(availableX);
-            }
+    // Fits the whole tree, or if that takes a zoom below minZoom centers the root at full size
+    private void fitView(double minZoom) {
+        double fit = Math.min((double) getWidth() / layout.getWidth(), (double) getHeight() / layout.getHeight());
+        if (fit >= minZoom) {
+            zoom = Math.max(MIN_ZOOM, Math.min(1, fit));
+            centerOn(layout.getWidth() / 2.0, layout.getHeight() / 2.0);
+        } else {
+            zoom = 1;
+            Point root = layout.getPositions().get(layout.getRoot());
+            centerOn(root.x + TreeLayout.PERSON_WIDTH / 2.0, root.y + TreeLayout.PERSON_HEIGHT / 2.0);
         }
+    }
 
-        for (int i = 0; i < parents.size(); i++) {
-            Person parent = parents.get(i);
-            int parentX = parentPositionsX.get(i);
-            
-            if (!personPositions.containsKey(parent)) {
-                personPositions.put(parent, new Point(parentX, parentY));
-                updateBounds(parentX, parentY);
-                calculateParentPositions(parent, parentX, parentY);
-            }
-        }
+    private void centerOn(double x, double y) {
+        viewX = x - getWidth() / (2 * zoom);
+        viewY = y - getHeight() / (2 * zoom);
     }
 
-    private int findNextAvailablePosition(int y, int suggestedX, List<Integer> existingPositions) {
-        int x = suggestedX;
-        boolean foundPosition = false;
-        
-        while (!foundPosition) {
-            boolean overlaps = false;
-            
-            for (int existingX : existingPositions) {
-                if (Math.abs(x - existingX) < PERSON_WIDTH + HORIZONTAL_GAP) {
-                    overlaps = true;
-                    break;
-                }
-            }
-            
-            for (Point point : personPositions.values()) {
-                if (point.y == y && Math.abs(x - point.x) < PERSON_WIDTH + HORIZONTAL_GAP) {
-                    overlaps = true;
-                    break;
-                }
-            }
-            
-            if (!overlaps) {
-                foundPosition = true;
-            } else {
-                x += HORIZONTAL_GAP;
-            }
+    // Keeps the layout point under the pointer where it is
+    private void zoomAt(Point pointer, double factor) {
+        if (layout == null) {
+            return;
         }
-        
-        return x;
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        double x = viewX + pointer.x / zoom;
+        double y = viewY + pointer.y / zoom;
+        zoom = newZoom;
+        viewX = x - pointer.x / zoom;
+        viewY = y - pointer.y / zoom;
+        moveView(0, 0);
     }
 
-    private void addToLevel(int y, int x) {
-        Set<Integer> positions = levelPositions.computeIfAbsent(y, k -> new HashSet<>());
-        for (int i = x; i < x + PERSON_WIDTH; i++) {
-            positions.add(i);
+    private void moveView(double dx, double dy) {
+        if (layout == null) {
+            return;
         }
+        double margin = MIN_VISIBLE / zoom;
+        viewX = Math.max(margin - getWidth() / zoom, Math.min(layout.getWidth() - margin, viewX + dx));
+        viewY = Math.max(margin - getHeight() / zoom, Math.min(layout.getHeight() - margin, viewY + dy));
+        repaint();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (rootPerson == null) return;
-
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        g2d.setStroke(new BasicStroke(2));
-        for (Map.Entry<Person, Point> entry : personPositions.entrySet()) {
-            Person person = entry.getKey();
-            Point childPoint = entry.getValue();
-            
-            if (showSiblingsMode) {
-                for (Person parent : person.getParents()) {
-                    Point parentPoint = personPositions.get(parent);
-                    if (parentPoint != null) {
-                        g2d.setColor(Color.GRAY);
-                        g2d.drawLine(
-                            childPoint.x + PERSON_WIDTH/2, childPoint.y,
-                            parentPoint.x + PERSON_WIDTH/2, parentPoint.y + PERSON_HEIGHT
-                        );
-                    }
-                }
-            } else {
-                for (Person parent : person.getParents()) {
-                    Point parentPoint = personPositions.get(parent);
-                    if (parentPoint != null) {
-                        g2d.setColor(Color.GRAY);
-                        g2d.drawLine(
-                            childPoint.x + PERSON_WIDTH/2, childPoint.y,
-                            parentPoint.x + PERSON_WIDTH/2, parentPoint.y + PERSON_HEIGHT
-                        );
-                    }
-                }
-            }
+        if (layout == null) return;
+        if (viewPending && getWidth() > 0 && getHeight() > 0) {
+            fitView(MIN_FIT_ZOOM);
+            viewPending = false;
         }
 
-        for (Map.Entry<Person, Point> entry : personPositions.entrySet()) {
-            Person person = entry.getKey();
-            Point point = entry.getValue();
-            
-            boolean isRoot = person == rootPerson;
-            drawPerson(g2d, person, point.x, point.y, isRoot);
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
         }
+        g2d.scale(zoom, zoom);
+        g2d.translate(-viewX, -viewY);
+        Rectangle area = new Rectangle2D.Double(viewX + clip.x / zoom, viewY + clip.y / zoom,
+            clip.width / zoom, clip.height / zoom).getBounds();
+        PAINT_TIMER.time(() -> renderer.paint(g2d, area, zoom));
+        g2d.dispose();
     }
-
-    private void drawPerson(Graphics2D g2d, Person person, int x, int y, boolean isRoot) {
-        Color startColor = isRoot ? new Color(255, 240, 240) : new Color(240, 240, 255);
-        Color endColor = isRoot ? new Color(240, 220, 220) : new Color(220, 220, 240);
-        GradientPaint gradient = new GradientPaint(
-            x, y, startColor,
-            x, y + PERSON_HEIGHT, endColor
-        );
-        g2d.setPaint(gradient);
-        g2d.fillRoundRect(x, y, PERSON_WIDTH, PERSON_HEIGHT, 10, 10);
-        g2d.setColor(isRoot ? new Color(200, 180, 180) : new Color(180, 180, 200));
-        g2d.drawRoundRect(x, y, PERSON_WIDTH, PERSON_HEIGHT, 10, 10);
-
-        g2d.setColor(Color.BLACK);
-        g2d.setFont(new Font("Arial", Font.PLAIN, 12));
-        FontMetrics fm = g2d.getFontMetrics();
-        String name = person.getFirstName() + " " + person.getLastName();
-        String birthDate = person.getBirthDate() != null ? person.getBirthDate() : "";
-
-        int nameWidth = fm.stringWidth(name);
-        int dateWidth = fm.stringWidth(birthDate);
-        
-        g2d.drawString(name, x + (PERSON_WIDTH - nameWidth)/2, y + PERSON_HEIGHT/2);
-        g2d.drawString(birthDate, x + (PERSON_WIDTH - dateWidth)/2, y + PERSON_HEIGHT/2 + fm.getHeight());
-    }
-}
\ No newline at end of file
+}
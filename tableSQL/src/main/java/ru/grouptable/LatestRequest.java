@@ -0,0 +1,57 @@
+package ru.grouptable;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Delivers background results on the EDT. Only the latest submitted request is kept:
+ * submitting a new one cancels the previous request and drops its result.
+ * Must be used from the EDT.
+ */
+public class LatestRequest {
+    private final Consumer<Throwable> onError;
+    private CompletableFuture<?> current;
+
+    public LatestRequest(Consumer<Throwable> onError) {
+        this.onError = onError;
+    }
+
+    public <T> void submit(CompletableFuture<T> future, Consumer<T> onSuccess) {
+        cancel();
+        current = future;
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            if (current != future) {
+                return;
+            }
+            current = null;
+            handle(value, error, onSuccess, onError);
+        }));
+    }
+
+    public void cancel() {
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    // One-off delivery for requests that are never superseded, such as saves
+    public static <T> void deliver(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() ->
+            handle(value, error, onSuccess, onError)));
+    }
+
+    private static <T> void handle(T value, Throwable error, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        if (error == null) {
+            onSuccess.accept(value);
+            return;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof CancellationException)) {
+            onError.accept(cause);
+        }
+    }
+}
@@ -2,59 +2,119 @@ package ru.grouptable;
 
 import ru.grouptable.dao.*;
 import ru.grouptable.entity.*;
+import ru.grouptable.backup.AutoBackup;
+import ru.grouptable.backup.DatabaseBackup;
+import ru.grouptable.csv.CsvExporter;
+import ru.grouptable.dto.CacheStatistics;
+import ru.grouptable.gedcom.GedcomExporter;
+import ru.grouptable.gedcom.GedcomImporter;
+import ru.grouptable.graph.KinshipGraph;
+import ru.grouptable.layout.TreeView;
+import ru.grouptable.metrics.EdtWatchdog;
+import ru.grouptable.metrics.Metrics;
 import org.hibernate.SessionFactory;
-import org.hibernate.cfg.Configuration;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableRowSorter;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.TableColumnModel;
-import javax.swing.RowSorter;
-import javax.swing.RowSorter.SortKey;
-import javax.swing.SortOrder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.HashSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class Main {
+    private static final int SEARCH_DELAY_MS = 200;
+    // The table shows this many matches of a name search at most; the label tells how many there are
+    private static final int SEARCH_LIMIT = 1000;
+
     private static SessionFactory sessionFactory;
     private static PersonDAO personDAO;
-    private static DefaultTableModel personTableModel;
+    private static AsyncPersonDAO asyncPersonDAO;
+    private static final ExecutorService queryExecutor = AsyncPersonDAO.newQueryExecutor();
+    private static final LatestRequest treeRequest = new LatestRequest(Main::showError);
+    private static final LatestRequest treeGraphRequest = new LatestRequest(Main::showError);
+    private static final LatestRequest databaseRequest = new LatestRequest(Main::showOpenError);
+    private static final AutoBackup autoBackup =
+        new AutoBackup(error -> SwingUtilities.invokeLater(() -> showError(error)));
+    private static PersonTableModel personTableModel;
     private static FamilyTreePanel treePanel;
+    private static JLabel searchStatus;
     private static String currentDatabasePath = "heritage.db";
     private static JFrame mainFrame;
+    // Disabled until the first database is open
+    private static final List<JComponent> databaseActions = new ArrayList<>();
 
     public static void main(String[] args) {
-        initializeDatabase(currentDatabasePath);
-        SwingUtilities.invokeLater(() -> createAndShowGUI());
+        // Hibernate starts while Swing builds the window; the rows come in once the database is open
+        CompletableFuture<SessionFactory> opening =
+            CompletableFuture.supplyAsync(() -> Database.open(currentDatabasePath), queryExecutor);
+        autoBackup.start();
+        Metrics.registerMBean();
+        EdtWatchdog.start();
+        SwingUtilities.invokeLater(() -> {
+            createAndShowGUI();
+            databaseRequest.submit(opening, Main::useDatabase);
+        });
+    }
+
+    /**
+     * Opens the file on the query executor, since schema upgrades can rewrite every row, and
+     * switches to it on the EDT. Database actions stay disabled meanwhile; the open database
+     * stays in use if the file cannot be opened. A copy of the open database keeps the tree on screen.
+     */
+    private static void switchDatabase(String dbPath, boolean copyOfOpen) {
+        databaseActions.forEach(action -> action.setEnabled(false));
+        mainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        databaseRequest.submit(CompletableFuture.supplyAsync(() -> Database.open(dbPath), queryExecutor), opened -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            currentDatabasePath = dbPath;
+            useDatabase(opened);
+            mainFrame.setTitle("Родовое древо - " + currentDatabasePath);
+            if (!copyOfOpen) {
+                treePanel.setRootPerson(null);
+            }
+        });
+    }
+
+    private static void showOpenError(Throwable error) {
+        if (mainFrame != null) {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+        }
+        databaseActions.forEach(action -> action.setEnabled(sessionFactory != null));
+        showError(error);
     }
 
-    private static void initializeDatabase(String dbPath) {
+    private static void useDatabase(SessionFactory opened) {
         if (sessionFactory != null) {
             sessionFactory.close();
         }
 
-        Configuration config = new Configuration()
-                .configure("hibernate.cfg.xml")
-                .addAnnotatedClass(Person.class)
-                .setProperty("hibernate.connection.url", "jdbc:sqlite:" + dbPath);
-        
-        sessionFactory = config.buildSessionFactory();
+        sessionFactory = opened;
+        autoBackup.setDatabase(sessionFactory, Paths.get(currentDatabasePath));
         personDAO = new PersonDAO(sessionFactory);
+        asyncPersonDAO = new AsyncPersonDAO(personDAO, queryExecutor);
+        if (personTableModel != null) {
+            treeRequest.cancel();
+            personTableModel.setPersonDAO(asyncPersonDAO);
+            loadTreeGraph();
+        }
+        databaseActions.forEach(action -> action.setEnabled(true));
     }
 
     private static void createAndShowGUI() {
@@ -69,15 +129,44 @@ public class Main {
         JMenuItem newDbItem = new JMenuItem("Создать базу данных");
         JMenuItem openDbItem = new JMenuItem("Открыть базу данных");
         JMenuItem saveAsDbItem = new JMenuItem("Сохранить как...");
+        JMenuItem backupDbItem = new JMenuItem("Резервная копия...");
+        JMenuItem importGedcomItem = new JMenuItem("Импорт GEDCOM...");
+        JMenuItem exportGedcomItem = new JMenuItem("Экспорт GEDCOM...");
+        JMenuItem exportCsvItem = new JMenuItem("Экспорт CSV...");
         
         newDbItem.addActionListener(e -> createNewDatabase());
         openDbItem.addActionListener(e -> openDatabase());
         saveAsDbItem.addActionListener(e -> saveAsDatabase());
+        backupDbItem.addActionListener(e -> backupDatabase());
+        importGedcomItem.addActionListener(e -> importGedcom());
+        exportGedcomItem.addActionListener(e -> exportDatabase("Экспорт GEDCOM", ".ged", "GEDCOM (*.ged)",
+            new GedcomExporter(sessionFactory)::exportFile));
+        exportCsvItem.addActionListener(e -> exportDatabase("Экспорт CSV", ".csv", "CSV (*.csv)",
+            new CsvExporter(sessionFactory)::exportFile));
         
         fileMenu.add(newDbItem);
         fileMenu.add(openDbItem);
         fileMenu.add(saveAsDbItem);
+        fileMenu.add(backupDbItem);
+        fileMenu.addSeparator();
+        fileMenu.add(importGedcomItem);
+        fileMenu.add(exportGedcomItem);
+        fileMenu.add(exportCsvItem);
         menuBar.add(fileMenu);
+
+        JMenu toolsMenu = new JMenu("Сервис");
+        JMenuItem cacheStatisticsItem = new JMenuItem("Статистика кэша");
+        cacheStatisticsItem.addActionListener(e -> showCacheStatistics());
+        toolsMenu.add(cacheStatisticsItem);
+        JMenuItem consistencyItem = new JMenuItem("Проверка целостности");
+        consistencyItem.addActionListener(e -> checkConsistency());
+        toolsMenu.add(consistencyItem);
+        JMenuItem diagnosticsItem = new JMenuItem("Диагностика");
+        diagnosticsItem.addActionListener(e -> DiagnosticsDialog.showDialog(mainFrame));
+        toolsMenu.addSeparator();
+        toolsMenu.add(diagnosticsItem);
+        menuBar.add(toolsMenu);
+        addDatabaseActions(saveAsDbItem, backupDbItem, importGedcomItem, exportGedcomItem, exportCsvItem, toolsMenu);
         mainFrame.setJMenuBar(menuBar);
 
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
@@ -94,19 +183,28 @@ public class Main {
         
         showSiblingsCheckbox.addActionListener(e -> {
             treePanel.setShowSiblingsMode(showSiblingsCheckbox.isSelected());
+            reloadTreeIfNeeded();
         });
         
         showUnclesCheckbox.addActionListener(e -> {
             treePanel.setShowUnclesAndAunts(showUnclesCheckbox.isSelected());
         });
         
+        JComboBox<TreeView> viewCombo = new JComboBox<>(TreeView.values());
+        viewCombo.addActionListener(e -> {
+            treePanel.setView((TreeView) viewCombo.getSelectedItem());
+            reloadTreeIfNeeded();
+        });
+
+        treeControlsPanel.add(viewCombo);
         treeControlsPanel.add(showSiblingsCheckbox);
         treeControlsPanel.add(showUnclesCheckbox);
         
-        rightPanel.add(new JLabel("Выберите человека в таблице для отображения его родословной", 
-            SwingConstants.CENTER), BorderLayout.NORTH);
+        rightPanel.add(new JLabel("<html><center>Выберите человека в таблице для отображения его родословной<br>"
+            + "Колесо мыши меняет масштаб, перетаскивание сдвигает древо, двойной щелчок показывает его целиком"
+            + "</center></html>", SwingConstants.CENTER), BorderLayout.NORTH);
         rightPanel.add(treeControlsPanel, BorderLayout.SOUTH);
-        rightPanel.add(new JScrollPane(treePanel), BorderLayout.CENTER);
+        rightPanel.add(treePanel, BorderLayout.CENTER);
         
         splitPane.setRightComponent(rightPanel);
         splitPane.setDividerLocation(800);
@@ -135,17 +233,16 @@ public class Main {
                 filePath += ".db";
             }
             
-            // Delete existing file if it exists
-            File dbFile = new File(filePath);
-            if (dbFile.exists()) {
-                dbFile.delete();
+            // Delete existing file if it exists, together with its WAL files
+            Database.release(filePath);
+            for (String suffix : new String[]{"", "-wal", "-shm"}) {
+                File dbFile = new File(filePath + suffix);
+                if (dbFile.exists()) {
+                    dbFile.delete();
+                }
             }
 
-            currentDatabasePath = filePath;
-            initializeDatabase(currentDatabasePath);
-            updatePersonTable(personTableModel);
-            treePanel.setRootPerson(null);
-            mainFrame.setTitle("Родовое древо - " + currentDatabasePath);
+            switchDatabase(filePath, false);
         }
     }
 
@@ -164,14 +261,98 @@ public class Main {
         int result = fileChooser.showOpenDialog(mainFrame);
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
-            currentDatabasePath = selectedFile.getAbsolutePath();
-            initializeDatabase(currentDatabasePath);
-            updatePersonTable(personTableModel);
-            treePanel.setRootPerson(null);
-            mainFrame.setTitle("Родовое древо - " + currentDatabasePath);
+            switchDatabase(selectedFile.getAbsolutePath(), false);
         }
     }
 
+    private static void importGedcom() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Импорт GEDCOM");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().toLowerCase().endsWith(".ged") || f.isDirectory();
+            }
+            public String getDescription() {
+                return "GEDCOM (*.ged)";
+            }
+        });
+
+        if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = fileChooser.getSelectedFile().toPath();
+        GedcomImporter importer = new GedcomImporter(sessionFactory);
+        PersonDAO importingDAO = personDAO;
+        mainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        CompletableFuture<GedcomImporter.Result> imported = asyncPersonDAO.write(() -> {
+            try {
+                return importer.importFile(file);
+            } finally {
+                importingDAO.invalidateIndexes();
+            }
+        });
+        LatestRequest.deliver(imported, result -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            if (importingDAO == personDAO) {
+                treeRequest.cancel();
+                treePanel.setRootPerson(null);
+                personTableModel.setPersonDAO(asyncPersonDAO);
+                loadTreeGraph();
+            }
+            JOptionPane.showMessageDialog(mainFrame,
+                "Импортировано людей: " + result.getPersons() + ", связей с родителями: " + result.getLinks(),
+                "Импорт GEDCOM",
+                JOptionPane.INFORMATION_MESSAGE);
+        }, error -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            showError(error);
+        });
+    }
+
+    private interface FileExport {
+        long exportFile(Path file) throws IOException;
+    }
+
+    private static void exportDatabase(String title, String extension, String description, FileExport export) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(title);
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().toLowerCase().endsWith(extension) || f.isDirectory();
+            }
+            public String getDescription() {
+                return description;
+            }
+        });
+
+        if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String filePath = fileChooser.getSelectedFile().getAbsolutePath();
+        if (!filePath.toLowerCase().endsWith(extension)) {
+            filePath += extension;
+        }
+        Path file = Paths.get(filePath);
+        mainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        CompletableFuture<Long> exported = CompletableFuture.supplyAsync(() -> {
+            try {
+                return export.exportFile(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, queryExecutor);
+        LatestRequest.deliver(exported, count -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            JOptionPane.showMessageDialog(mainFrame,
+                "Выгружено людей: " + count,
+                title,
+                JOptionPane.INFORMATION_MESSAGE);
+        }, error -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            showError(error);
+        });
+    }
+
     private static void saveAsDatabase() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Сохранить базу данных как");
@@ -187,144 +368,111 @@ public class Main {
         int result = fileChooser.showSaveDialog(mainFrame);
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
-            String newPath = selectedFile.getAbsolutePath();
-            if (!newPath.toLowerCase().endsWith(".db")) {
-                newPath += ".db";
+            String newPath = selectedFile.getAbsolutePath().toLowerCase().endsWith(".db")
+                ? selectedFile.getAbsolutePath()
+                : selectedFile.getAbsolutePath() + ".db";
+            if (Paths.get(newPath).toAbsolutePath().equals(Paths.get(currentDatabasePath).toAbsolutePath())) {
+                return;
             }
 
-            try {
-                Files.copy(Paths.get(currentDatabasePath), Paths.get(newPath), 
-                    StandardCopyOption.REPLACE_EXISTING);
-                currentDatabasePath = newPath;
-                initializeDatabase(currentDatabasePath);
-                mainFrame.setTitle("Родовое древо - " + currentDatabasePath);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(mainFrame,
-                    "Ошибка при сохранении базы данных: " + e.getMessage(),
-                    "Ошибка",
-                    JOptionPane.ERROR_MESSAGE);
-            }
+            // The copy is taken from the open database, which stays usable meanwhile
+            runBackup(Paths.get(newPath), false, () -> switchDatabase(newPath, true), error -> JOptionPane.showMessageDialog(mainFrame,
+                "Ошибка при сохранении базы данных: " + error.getMessage(),
+                "Ошибка",
+                JOptionPane.ERROR_MESSAGE));
         }
     }
 
-    private static JPanel createPersonPanel() {
-        JPanel panel = new JPanel(new BorderLayout());
-        
-        String[] columns = {"ID", "Имя", "Фамилия", "Дата рождения", "Родители", "Братья/Сестры", "Дяди/Тёти"};
-        DefaultTableModel model = new DefaultTableModel(columns, 0);
-        personTableModel = model;
-        JTable table = new JTable(model);
-        JScrollPane scrollPane = new JScrollPane(table);
-
-        // Добавляем сортировку по столбцам
-        table.setAutoCreateRowSorter(true);
-        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(model);
-        table.setRowSorter(sorter);
-
-        // Сравнитель для сортировки дат в формате YYYY-MM-DD
-        sorter.setComparator(3, new Comparator<String>() {
-            @Override
-            public int compare(String date1, String date2) {
-                // Обработка пустых значений - они должны быть в конце
-                if (date1 == null || date1.trim().isEmpty()) {
-                    return (date2 == null || date2.trim().isEmpty()) ? 0 : 1;
-                }
-                if (date2 == null || date2.trim().isEmpty()) {
-                    return -1;
-                }
-
-                try {
-                    // Разбиваем даты на компоненты
-                    String[] parts1 = date1.trim().split("-");
-                    String[] parts2 = date2.trim().split("-");
-
-                    // Сравниваем года
-                    int year1 = Integer.parseInt(parts1[0]);
-                    int year2 = Integer.parseInt(parts2[0]);
-                    if (year1 != year2) {
-                        return Integer.compare(year1, year2);
-                    }
-
-                    // Если года равны, сравниваем месяцы
-                    int month1 = Integer.parseInt(parts1[1]);
-                    int month2 = Integer.parseInt(parts2[1]);
-                    if (month1 != month2) {
-                        return Integer.compare(month1, month2);
-                    }
-
-                    // Если месяцы равны, сравниваем дни
-                    int day1 = Integer.parseInt(parts1[2]);
-                    int day2 = Integer.parseInt(parts2[2]);
-                    return Integer.compare(day1, day2);
-
-                } catch (Exception e) {
-                    // В случае ошибки парсинга, отправляем некорректные значения в конец
-                    return 1;
-                }
+    private static void backupDatabase() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Резервная копия базы данных");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
+            public boolean accept(File f) {
+                String name = f.getName().toLowerCase();
+                return name.endsWith(".db.gz") || name.endsWith(".db") || f.isDirectory();
+            }
+            public String getDescription() {
+                return "Сжатая копия (*.db.gz) или база SQLite (*.db)";
             }
         });
 
-        // Добавляем компараторы для остальных столбцов
-        sorter.setComparator(0, new Comparator<Long>() {
+        if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String path = fileChooser.getSelectedFile().getAbsolutePath();
+        String lowerPath = path.toLowerCase();
+        if (!lowerPath.endsWith(".db") && !lowerPath.endsWith(".gz")) {
+            path += ".db.gz";
+        }
+        Path target = Paths.get(path);
+        runBackup(target, path.toLowerCase().endsWith(".gz"), () -> JOptionPane.showMessageDialog(mainFrame,
+            "Резервная копия сохранена: " + target,
+            "Резервная копия",
+            JOptionPane.INFORMATION_MESSAGE), Main::showError);
+    }
+
+    // Copies the open database in the background behind a progress dialog that can cancel it
+    private static void runBackup(Path target, boolean compress, Runnable onSuccess, Consumer<Throwable> onError) {
+        DatabaseBackup backup = new DatabaseBackup(sessionFactory);
+        ProgressMonitor monitor = new ProgressMonitor(mainFrame, "Копирование базы данных", target.toString(), 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        monitor.setMillisToPopup(200);
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
-            public int compare(Long id1, Long id2) {
-                return id1.compareTo(id2);
+            protected Void doInBackground() throws IOException {
+                backup.backupTo(target, compress, this::setProgress);
+                return null;
+            }
+        };
+        Timer cancelPoll = new Timer(100, e -> {
+            if (monitor.isCanceled()) {
+                worker.cancel(true);
             }
         });
-
-        // Компаратор для текстовых столбцов с учетом пустых значений
-        Comparator<String> textComparator = new Comparator<String>() {
-            @Override
-            public int compare(String s1, String s2) {
-                if (s1 == null || s1.trim().isEmpty()) {
-                    return (s2 == null || s2.trim().isEmpty()) ? 0 : 1;
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                monitor.setProgress((Integer) event.getNewValue());
+            } else if (worker.isDone()) {
+                cancelPoll.stop();
+                monitor.close();
+                if (worker.isCancelled()) {
+                    return;
                 }
-                if (s2 == null || s2.trim().isEmpty()) {
-                    return -1;
+                try {
+                    worker.get();
+                    onSuccess.run();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) {
+                        onError.accept(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                return s1.trim().compareToIgnoreCase(s2.trim());
             }
-        };
-
-        sorter.setComparator(1, textComparator); // Имя
-        sorter.setComparator(2, textComparator); // Фамилия
-        sorter.setComparator(4, textComparator); // Родители
-        sorter.setComparator(5, textComparator); // Братья/Сестры
-        sorter.setComparator(6, textComparator); // Дяди/Тёти
+        });
+        cancelPoll.start();
+        worker.execute();
+    }
 
-        // Добавляем обработчик кликов по заголовку для всех столбцов
-        table.getTableHeader().addMouseListener(new MouseListener() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                int column = table.columnAtPoint(e.getPoint());
-                List<? extends SortKey> sortKeys = sorter.getSortKeys();
-                if (sortKeys.isEmpty() || sortKeys.get(0).getColumn() != column) {
-                    sorter.setSortKeys(Arrays.asList(new RowSorter.SortKey(column, SortOrder.ASCENDING)));
-                } else {
-                    SortOrder currentOrder = sortKeys.get(0).getSortOrder();
-                    SortOrder newOrder = currentOrder == SortOrder.ASCENDING ? 
-                        SortOrder.DESCENDING : SortOrder.ASCENDING;
-                    sorter.setSortKeys(Arrays.asList(new RowSorter.SortKey(column, newOrder)));
-                }
-            }
+    private static JPanel createPersonPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        
+        PersonTableModel model = new PersonTableModel(asyncPersonDAO, Main::showError);
+        personTableModel = model;
+        JTable table = new JTable(model);
+        JScrollPane scrollPane = new JScrollPane(table);
 
-            @Override
-            public void mousePressed(MouseEvent e) {}
-            @Override
-            public void mouseReleased(MouseEvent e) {}
-            @Override
-            public void mouseEntered(MouseEvent e) {}
-            @Override
-            public void mouseExited(MouseEvent e) {}
-        });
+        // Сортировка по столбцам выполняется запросом к базе (ORDER BY), а не в памяти
+        table.setRowSorter(new PersonRowSorter(model));
 
         table.getSelectionModel().addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 int selectedRow = table.getSelectedRow();
                 if (selectedRow != -1) {
-                    Long id = (Long) table.getValueAt(selectedRow, 0);
-                    Person selectedPerson = personDAO.findById(id);
-                    treePanel.setRootPerson(selectedPerson);
+                    Long id = model.getIdAt(selectedRow);
+                    if (id != null) {
+                        showTree(id);
+                    }
                 }
             }
         });
@@ -335,33 +483,37 @@ public class Main {
         JButton deleteButton = new JButton("Удалить");
         JButton refreshButton = new JButton("Сбросить");
         JButton filterButton = new JButton("Фильтр");
+        JButton relationshipButton = new JButton("Родство");
         
         JTextField searchField = new JTextField(20);
         JButton searchButton = new JButton("Поиск");
         JButton clearSearchButton = new JButton("Очистить");
+        searchStatus = new JLabel();
 
         controlPanel.add(addButton);
         controlPanel.add(editButton);
         controlPanel.add(deleteButton);
         controlPanel.add(refreshButton);
         controlPanel.add(filterButton);
+        controlPanel.add(relationshipButton);
         controlPanel.add(Box.createHorizontalStrut(20));
         controlPanel.add(searchField);
         controlPanel.add(searchButton);
         controlPanel.add(clearSearchButton);
+        controlPanel.add(searchStatus);
 
         addButton.addActionListener(e -> showAddPersonDialog());
         editButton.addActionListener(e -> {
             int selectedRow = table.getSelectedRow();
-            if (selectedRow != -1) {
-                Long id = (Long) table.getValueAt(selectedRow, 0);
-                showEditPersonDialog(personDAO.findById(id));
+            Long id = selectedRow != -1 ? model.getIdAt(selectedRow) : null;
+            if (id != null) {
+                LatestRequest.deliver(asyncPersonDAO.findById(id), Main::showEditPersonDialog, Main::showError);
             }
         });
         deleteButton.addActionListener(e -> {
             int selectedRow = table.getSelectedRow();
-            if (selectedRow != -1) {
-                Long id = (Long) table.getValueAt(selectedRow, 0);
+            Long id = selectedRow != -1 ? model.getIdAt(selectedRow) : null;
+            if (id != null) {
                 int confirm = JOptionPane.showConfirmDialog(
                     panel,
                     "Вы уверены, что хотите удалить этого человека?",
@@ -369,26 +521,65 @@ public class Main {
                     JOptionPane.YES_NO_OPTION
                 );
                 if (confirm == JOptionPane.YES_OPTION) {
-                    personDAO.delete(personDAO.findById(id));
-                    updatePersonTable(model);
-                    treePanel.setRootPerson(null);
+                    LatestRequest.deliver(asyncPersonDAO.deleteById(id), deleted -> {
+                        updatePersonTable(model);
+                        treeRequest.cancel();
+                        treePanel.setRootPerson(null);
+                    }, Main::showError);
                 }
             }
         });
+        relationshipButton.addActionListener(e -> {
+            int[] selectedRows = table.getSelectedRows();
+            Long firstId = selectedRows.length == 2 ? model.getIdAt(selectedRows[0]) : null;
+            Long secondId = selectedRows.length == 2 ? model.getIdAt(selectedRows[1]) : null;
+            if (firstId == null || secondId == null) {
+                JOptionPane.showMessageDialog(panel, "Выберите в таблице двух человек",
+                    "Родство", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            String firstName = model.getValueAt(selectedRows[0], 1) + " " + model.getValueAt(selectedRows[0], 2);
+            String secondName = model.getValueAt(selectedRows[1], 1) + " " + model.getValueAt(selectedRows[1], 2);
+            LatestRequest.deliver(asyncPersonDAO.findRelationship(firstId, secondId), relationship ->
+                JOptionPane.showMessageDialog(panel, secondName + " для " + firstName + ": " + relationship.getName(),
+                    "Родство", JOptionPane.INFORMATION_MESSAGE),
+                Main::showError);
+        });
         
+        // Поиск по мере ввода: запрос к индексу имён уходит после паузы в наборе
+        LatestRequest searchRequest = new LatestRequest(Main::showError);
+        Timer searchTimer = new Timer(SEARCH_DELAY_MS,
+            e -> searchByName(model, searchRequest, searchField.getText(), null));
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {}
+        });
+
         ActionListener searchAction = e -> {
+            searchTimer.stop();
             String searchText = searchField.getText().trim();
             if (!searchText.isEmpty()) {
-                List<Person> searchResults = personDAO.findByNameLike(searchText);
-                updatePersonTable(model, searchResults);
-                if (searchResults.isEmpty()) {
-                    JOptionPane.showMessageDialog(
-                        panel,
-                        "Никого не найдено",
-                        "Результаты поиска",
-                        JOptionPane.INFORMATION_MESSAGE
-                    );
-                }
+                searchByName(model, searchRequest, searchText, count -> {
+                    if (count == 0) {
+                        JOptionPane.showMessageDialog(
+                            panel,
+                            "Никого не найдено",
+                            "Результаты поиска",
+                            JOptionPane.INFORMATION_MESSAGE
+                        );
+                    }
+                });
             }
         };
         
@@ -397,6 +588,8 @@ public class Main {
         
         clearSearchButton.addActionListener(e -> {
             searchField.setText("");
+            searchTimer.stop();
+            searchRequest.cancel();
             updatePersonTable(model);
         });
         
@@ -409,6 +602,8 @@ public class Main {
             @Override
             public void actionPerformed(ActionEvent e) {
                 searchField.setText("");
+                searchTimer.stop();
+                searchRequest.cancel();
                 updatePersonTable(model);
             }
         });
@@ -419,39 +614,144 @@ public class Main {
         panel.add(topPanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
 
-        updatePersonTable(model);
+        addDatabaseActions(controlPanel.getComponents());
 
         return panel;
     }
 
-    private static void updatePersonTable(DefaultTableModel model) {
-        updatePersonTable(model, personDAO.getAllPersons());
+    private static void addDatabaseActions(Component... components) {
+        for (Component component : components) {
+            JComponent action = (JComponent) component;
+            action.setEnabled(sessionFactory != null);
+            databaseActions.add(action);
+        }
+    }
+
+    private static void updatePersonTable(PersonTableModel model) {
+        searchStatus.setText("");
+        model.setFilters(null, null, null);
     }
 
-    private static void updatePersonTable(DefaultTableModel model, List<Person> persons) {
-        model.setRowCount(0);
-        for (Person person : persons) {
-            String parentNames = person.getParents().stream()
-                .map(parent -> parent.getFirstName() + " " + parent.getLastName())
-                .collect(Collectors.joining(", "));
-
-            String siblingNames = person.getSiblings().stream()
-                .map(sibling -> sibling.getFirstName() + " " + sibling.getLastName())
-                .collect(Collectors.joining(", "));
-
-            String uncleAuntNames = person.getUnclesAndAunts().stream()
-                .map(relative -> relative.getFirstName() + " " + relative.getLastName())
-                .collect(Collectors.joining(", "));
-
-            model.addRow(new Object[]{
-                person.getId(),
-                person.getFirstName(),
-                person.getLastName(),
-                person.getBirthDate(),
-                parentNames,
-                siblingNames,
-                uncleAuntNames
-            });
+    private static void searchByName(PersonTableModel model, LatestRequest request, String text,
+                                     IntConsumer onCount) {
+        String searchText = text.trim();
+        if (searchText.isEmpty()) {
+            request.cancel();
+            updatePersonTable(model);
+            return;
+        }
+        request.submit(asyncPersonDAO.searchNames(searchText, SEARCH_LIMIT), matches -> {
+            searchStatus.setText(matches.isTruncated()
+                ? "Показаны первые " + matches.getIds().length + " из " + matches.getTotalCount()
+                : "");
+            CompletableFuture<Integer> counted = model.setIdFilter(matches.getIds());
+            if (onCount != null) {
+                counted.thenAccept(onCount::accept);
+            }
+        });
+    }
+
+    // Both dialogs accept ДД.ММ.ГГГГ with a real calendar date between 1900 and 2100
+    private static InputVerifier createBirthDateVerifier(Component parent) {
+        return new InputVerifier() {
+            @Override
+            public boolean verify(JComponent input) {
+                String text = ((JTextField) input).getText().trim();
+                if (!text.matches("\\d{2}\\.\\d{2}\\.\\d{4}")) {
+                    JOptionPane.showMessageDialog(parent,
+                        "Дата должна быть в формате ДД.ММ.ГГГГ",
+                        "Ошибка ввода",
+                        JOptionPane.ERROR_MESSAGE);
+                    return false;
+                }
+                try {
+                    int year = BirthDateFormat.parse(text).getYear();
+                    if (year < 1900 || year > 2100) {
+                        throw new DateTimeParseException("Год вне диапазона", text, 6);
+                    }
+                } catch (DateTimeParseException e) {
+                    JOptionPane.showMessageDialog(parent,
+                        "Введите корректную дату",
+                        "Ошибка ввода",
+                        JOptionPane.ERROR_MESSAGE);
+                    return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    private static void showTree(long id) {
+        // Недавно показанное древо берётся из кэша раскладок без запроса к базе
+        treeRequest.cancel();
+        if (!treePanel.showCachedLayout(id)) {
+            // Быстрое переключение строк отменяет загрузку предыдущего древа
+            long graphVersion = treePanel.getGraphVersion();
+            boolean withDescendants = treePanel.needsDescendants();
+            treeRequest.submit(asyncPersonDAO.findForTree(id, withDescendants),
+                person -> treePanel.setRootPerson(person, graphVersion, withDescendants));
+        }
+    }
+
+    // Потомки загружаются только для видов, которые их показывают
+    private static void reloadTreeIfNeeded() {
+        if (treePanel.needsReload()) {
+            showTree(treePanel.getRootId());
+        }
+    }
+
+    // Lets the tree panel tell which cached layouts an edit has made stale
+    private static void loadTreeGraph() {
+        treePanel.setKinshipGraph(null);
+        treeGraphRequest.submit(asyncPersonDAO.getKinshipGraph(), treePanel::setKinshipGraph);
+    }
+
+    private static void checkConsistency() {
+        mainFrame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        LatestRequest.deliver(asyncPersonDAO.checkConsistency(), report -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            StringBuilder message = new StringBuilder()
+                .append("Циклы в родословной: ").append(report.getCycles().size()).append("\n")
+                .append("Ссылки на несуществующих людей: ").append(report.getDanglingLinks().size()).append("\n")
+                .append("Родитель младше 12 лет при рождении ребёнка: ")
+                .append(report.getBirthOrderViolations().size()).append("\n")
+                .append("Люди без родителей и детей: ").append(report.getUnlinkedPersons().length);
+            for (long[] cycle : report.getCycles().subList(0, Math.min(5, report.getCycles().size()))) {
+                message.append("\nЦикл: ").append(Arrays.toString(cycle));
+            }
+            JOptionPane.showMessageDialog(mainFrame, message.toString(), "Проверка целостности",
+                report.isClean() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+        }, error -> {
+            mainFrame.setCursor(Cursor.getDefaultCursor());
+            showError(error);
+        });
+    }
+
+    private static void showCacheStatistics() {
+        CacheStatistics statistics = personDAO.getCacheStatistics();
+        JOptionPane.showMessageDialog(mainFrame,
+            "Все базы, открытые с запуска программы\n"
+                + "Люди и связи: попаданий " + statistics.getSecondLevelHits()
+                + ", промахов " + statistics.getSecondLevelMisses() + "\n"
+                + "Запросы: попаданий " + statistics.getQueryHits()
+                + ", промахов " + statistics.getQueryMisses(),
+            "Статистика кэша",
+            JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private static void showError(Throwable error) {
+        JOptionPane.showMessageDialog(mainFrame,
+            "Ошибка при обращении к базе данных: " + error.getMessage(),
+            "Ошибка",
+            JOptionPane.ERROR_MESSAGE);
+    }
+
+    // A parent who is also a descendant is a mistake in the form, not a database failure
+    private static void showSaveError(JDialog dialog, Throwable error) {
+        if (error instanceof AncestryCycleException) {
+            JOptionPane.showMessageDialog(dialog, error.getMessage(), "Ошибка выбора", JOptionPane.ERROR_MESSAGE);
+        } else {
+            showError(error);
         }
     }
 
@@ -498,69 +798,9 @@ public class Main {
             }
         });
 
-        // Add date format validation
-        birthDateField.setInputVerifier(new InputVerifier() {
-            @Override
-            public boolean verify(JComponent input) {
-                String text = ((JTextField) input).getText();
-                if (!text.matches("\\d{2}\\-\\d{2}\\-\\d{4}")) {
-                    JOptionPane.showMessageDialog(dialog,
-                        "Дата должна быть в формате ГГГГ-ММ-ДД",
-                        "Ошибка ввода",
-                        JOptionPane.ERROR_MESSAGE);
-                    return false;
-                }
-                // Validate date values
-                try {
-                    String[] parts = text.split("\\.");
-                    int day = Integer.parseInt(parts[0]);
-                    int month = Integer.parseInt(parts[1]);
-                    int year = Integer.parseInt(parts[2]);
-                    
-                    if (day < 1 || day > 31 || month < 1 || month > 12 || 
-                        year < 1900 || year > 2100) {
-                        throw new NumberFormatException();
-                    }
-                    
-                    // Check days in month
-                    if (month == 2) {
-                        boolean isLeap = (year % 4 == 0 && year % 100 != 0) || (year % 400 == 0);
-                        if (day > (isLeap ? 29 : 28)) {
-                            throw new NumberFormatException();
-                        }
-                    } else if ((month == 4 || month == 6 || month == 9 || month == 11) && day > 30) {
-                        throw new NumberFormatException();
-                    }
-                    
-                } catch (NumberFormatException e) {
-                    JOptionPane.showMessageDialog(dialog,
-                        "Введите корректную дату",
-                        "Ошибка ввода",
-                        JOptionPane.ERROR_MESSAGE);
-                    return false;
-                }
-                return true;
-            }
-        });
+        birthDateField.setInputVerifier(createBirthDateVerifier(dialog));
 
-        JList<Person> parentList = new JList<>(
-            personDAO.getAllPersons().toArray(new Person[0])
-        );
-        parentList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-        
-        // Add parent selection limit
-        parentList.addListSelectionListener(e -> {
-            if (!e.getValueIsAdjusting() && parentList.getSelectedIndices().length > 2) {
-                JOptionPane.showMessageDialog(dialog,
-                    "Нельзя выбрать больше двух родителей",
-                    "Ошибка выбора",
-                    JOptionPane.ERROR_MESSAGE);
-                parentList.setSelectedIndices(Arrays.copyOf(parentList.getSelectedIndices(), 2));
-            }
-        });
-        
-        JScrollPane parentScrollPane = new JScrollPane(parentList);
-        parentScrollPane.setPreferredSize(new Dimension(200, 100));
+        ParentChooser parentChooser = new ParentChooser(asyncPersonDAO, Main::showError);
 
         gbc.gridx = 0; gbc.gridy = 0;
         dialog.add(new JLabel("Имя:"), gbc);
@@ -580,7 +820,7 @@ public class Main {
         gbc.gridx = 0; gbc.gridy = 3;
         dialog.add(new JLabel("Родители (макс. 2):"), gbc);
         gbc.gridx = 1;
-        dialog.add(parentScrollPane, gbc);
+        dialog.add(parentChooser, gbc);
 
         JButton saveButton = new JButton("Сохранить");
         gbc.gridx = 0; gbc.gridy = 4;
@@ -608,12 +848,17 @@ public class Main {
             Person person = new Person();
             person.setFirstName(firstNameField.getText().trim());
             person.setLastName(lastNameField.getText().trim());
-            person.setBirthDate(birthDateField.getText().trim());
-            person.setParents(new HashSet<>(parentList.getSelectedValuesList()));
+            person.setBirthDate(BirthDateFormat.parse(birthDateField.getText()));
+            person.setParents(parentChooser.getParents());
             
-            personDAO.save(person);
-            updatePersonTable(personTableModel);
-            dialog.dispose();
+            saveButton.setEnabled(false);
+            LatestRequest.deliver(asyncPersonDAO.save(person), saved -> {
+                updatePersonTable(personTableModel);
+                dialog.dispose();
+            }, error -> {
+                saveButton.setEnabled(true);
+                showSaveError(dialog, error);
+            });
         });
 
         dialog.pack();
@@ -631,7 +876,7 @@ public class Main {
 
         JTextField firstNameField = new JTextField(person.getFirstName(), 20);
         JTextField lastNameField = new JTextField(person.getLastName(), 20);
-        JTextField birthDateField = new JTextField(person.getBirthDate(), 20);
+        JTextField birthDateField = new JTextField(BirthDateFormat.format(person.getBirthDate()), 20);
 
         // Add input validation for names
         firstNameField.setInputVerifier(new InputVerifier() {
@@ -664,75 +909,10 @@ public class Main {
             }
         });
 
-        // Add date format validation
-        birthDateField.setInputVerifier(new InputVerifier() {
-            @Override
-            public boolean verify(JComponent input) {
-                String text = ((JTextField) input).getText();
-                if (!text.matches("\\d{2}\\.\\d{2}\\.\\d{4}")) {
-                    JOptionPane.showMessageDialog(dialog,
-                        "Дата должна быть в формате ДД.ММ.ГГГГ",
-                        "Ошибка ввода",
-                        JOptionPane.ERROR_MESSAGE);
-                    return false;
-                }
-                // Validate date values
-                try {
-                    String[] parts = text.split("\\.");
-                    int day = Integer.parseInt(parts[0]);
-                    int month = Integer.parseInt(parts[1]);
-                    int year = Integer.parseInt(parts[2]);
-                    
-                    if (day < 1 || day > 31 || month < 1 || month > 12 || 
-                        year < 1900 || year > 2100) {
-                        throw new NumberFormatException();
-                    }
-                    
-                    // Check days in month
-                    if (month == 2) {
-                        boolean isLeap = (year % 4 == 0 && year % 100 != 0) || (year % 400 == 0);
-                        if (day > (isLeap ? 29 : 28)) {
-                            throw new NumberFormatException();
-                        }
-                    } else if ((month == 4 || month == 6 || month == 9 || month == 11) && day > 30) {
-                        throw new NumberFormatException();
-                    }
-                    
-                } catch (NumberFormatException e) {
-                    JOptionPane.showMessageDialog(dialog,
-                        "Введите корректную дату",
-                        "Ошибка ввода",
-                        JOptionPane.ERROR_MESSAGE);
-                    return false;
-                }
-                return true;
-            }
-        });
+        birthDateField.setInputVerifier(createBirthDateVerifier(dialog));
 
-        JList<Person> parentList = new JList<>(
-            personDAO.getAllPersons().toArray(new Person[0])
-        );
-        parentList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-        
-        // Add parent selection limit
-        parentList.addListSelectionListener(e -> {
-            if (!e.getValueIsAdjusting() && parentList.getSelectedIndices().length > 2) {
-                JOptionPane.showMessageDialog(dialog,
-                    "Нельзя выбрать больше двух родителей",
-                    "Ошибка выбора",
-                    JOptionPane.ERROR_MESSAGE);
-                parentList.setSelectedIndices(Arrays.copyOf(parentList.getSelectedIndices(), 2));
-            }
-        });
-        
-        List<Person> allPersons = personDAO.getAllPersons();
-        int[] selectedIndices = person.getParents().stream()
-            .mapToInt(allPersons::indexOf)
-            .toArray();
-        parentList.setSelectedIndices(selectedIndices);
-        
-        JScrollPane parentScrollPane = new JScrollPane(parentList);
-        parentScrollPane.setPreferredSize(new Dimension(200, 100));
+        ParentChooser parentChooser = new ParentChooser(asyncPersonDAO, Main::showError);
+        parentChooser.setParents(person.getParents());
 
         gbc.gridx = 0; gbc.gridy = 0;
         dialog.add(new JLabel("Имя:"), gbc);
@@ -752,7 +932,7 @@ public class Main {
         gbc.gridx = 0; gbc.gridy = 3;
         dialog.add(new JLabel("Родители (макс. 2):"), gbc);
         gbc.gridx = 1;
-        dialog.add(parentScrollPane, gbc);
+        dialog.add(parentChooser, gbc);
 
         JButton saveButton = new JButton("Сохранить");
         gbc.gridx = 0; gbc.gridy = 4;
@@ -779,12 +959,17 @@ public class Main {
 
             person.setFirstName(firstNameField.getText().trim());
             person.setLastName(lastNameField.getText().trim());
-            person.setBirthDate(birthDateField.getText().trim());
-            person.setParents(new HashSet<>(parentList.getSelectedValuesList()));
+            person.setBirthDate(BirthDateFormat.parse(birthDateField.getText()));
+            person.setParents(parentChooser.getParents());
             
-            personDAO.save(person);
-            updatePersonTable(personTableModel);
-            dialog.dispose();
+            saveButton.setEnabled(false);
+            LatestRequest.deliver(asyncPersonDAO.save(person), saved -> {
+                updatePersonTable(personTableModel);
+                dialog.dispose();
+            }, error -> {
+                saveButton.setEnabled(true);
+                showSaveError(dialog, error);
+            });
         });
 
         dialog.pack();
@@ -792,7 +977,7 @@ public class Main {
         dialog.setVisible(true);
     }
 
-    private static void showFilterDialog(DefaultTableModel model) {
+    private static void showFilterDialog(PersonTableModel model) {
         JDialog dialog = new JDialog();
         dialog.setTitle("Расширенный фильтр");
         dialog.setModal(true);
@@ -852,21 +1037,31 @@ public class Main {
         // Action listeners
         applyButton.addActionListener(e -> {
             String nameFilter = nameField.getText().trim();
-            String fromDate = fromDateField.getText().trim();
-            String toDate = toDateField.getText().trim();
-            
-            List<Person> filteredPersons = personDAO.findByFilters(nameFilter, fromDate, toDate);
-            updatePersonTable(model, filteredPersons);
-            dialog.dispose();
-            
-            if (filteredPersons.isEmpty()) {
-                JOptionPane.showMessageDialog(
-                    dialog,
-                    "Никого не найдено",
-                    "Результаты фильтрации",
-                    JOptionPane.INFORMATION_MESSAGE
-                );
+            LocalDate fromDate;
+            LocalDate toDate;
+            try {
+                fromDate = BirthDateFormat.parse(fromDateField.getText());
+                toDate = BirthDateFormat.parse(toDateField.getText());
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dialog,
+                    "Дата должна быть в формате ДД.ММ.ГГГГ",
+                    "Ошибка ввода",
+                    JOptionPane.ERROR_MESSAGE);
+                return;
             }
+
+            dialog.dispose();
+            searchStatus.setText("");
+            model.setFilters(nameFilter, fromDate, toDate).thenAccept(count -> {
+                if (count == 0) {
+                    JOptionPane.showMessageDialog(
+                        dialog,
+                        "Никого не найдено",
+                        "Результаты фильтрации",
+                        JOptionPane.INFORMATION_MESSAGE
+                    );
+                }
+            });
         });
 
         resetButton.addActionListener(e -> {
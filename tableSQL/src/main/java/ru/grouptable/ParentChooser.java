@@ -0,0 +1,151 @@
+package ru.grouptable;
+
+import ru.grouptable.dao.AsyncPersonDAO;
+import ru.grouptable.dao.PersonQuery;
+import ru.grouptable.dto.PersonRow;
+import ru.grouptable.entity.Person;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Up to two parents picked from a name search, like the table's, rather than from a list
+ * of every person: only the matches shown are read from the database.
+ */
+public class ParentChooser extends JPanel {
+    private static final int MAX_PARENTS = 2;
+    private static final int CHOICES = 100;
+    private static final int SEARCH_DELAY_MS = 200;
+
+    private final AsyncPersonDAO personDAO;
+    private final JTextField searchField = new JTextField(20);
+    private final DefaultListModel<PersonRow> matches = new DefaultListModel<>();
+    private final JList<PersonRow> matchList = new JList<>(matches);
+    private final DefaultListModel<PersonRow> chosen = new DefaultListModel<>();
+    private final JList<PersonRow> chosenList = new JList<>(chosen);
+    private final LatestRequest searchRequest;
+
+    public ParentChooser(AsyncPersonDAO personDAO, Consumer<Throwable> onError) {
+        super(new BorderLayout(5, 5));
+        this.personDAO = personDAO;
+        this.searchRequest = new LatestRequest(onError);
+
+        matchList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        matchList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    addSelected();
+                }
+            }
+        });
+        JScrollPane matchScrollPane = new JScrollPane(matchList);
+        matchScrollPane.setPreferredSize(new Dimension(200, 100));
+
+        chosenList.setVisibleRowCount(MAX_PARENTS);
+        JButton addButton = new JButton("Выбрать");
+        JButton removeButton = new JButton("Убрать");
+        addButton.addActionListener(e -> addSelected());
+        removeButton.addActionListener(e -> {
+            for (PersonRow parent : chosenList.getSelectedValuesList()) {
+                chosen.removeElement(parent);
+            }
+        });
+        JPanel buttons = new JPanel(new GridLayout(2, 1, 0, 5));
+        buttons.add(addButton);
+        buttons.add(removeButton);
+        JPanel chosenPanel = new JPanel(new BorderLayout(5, 5));
+        chosenPanel.add(new JScrollPane(chosenList), BorderLayout.CENTER);
+        chosenPanel.add(buttons, BorderLayout.EAST);
+
+        add(searchField, BorderLayout.NORTH);
+        add(matchScrollPane, BorderLayout.CENTER);
+        add(chosenPanel, BorderLayout.SOUTH);
+
+        Timer searchTimer = new Timer(SEARCH_DELAY_MS, e -> search());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {}
+        });
+        search();
+    }
+
+    // The parents the person has now, for the edit dialog
+    public void setParents(Collection<Person> parents) {
+        chosen.clear();
+        for (Person parent : parents) {
+            chosen.addElement(new PersonRow(parent.getId(), parent.getFirstName(), parent.getLastName(),
+                parent.getBirthDate()));
+        }
+    }
+
+    // References by id, which is all saving a person needs of their parents
+    public Set<Person> getParents() {
+        Set<Person> parents = new HashSet<>();
+        for (int i = 0; i < chosen.size(); i++) {
+            Person parent = new Person();
+            parent.setId(chosen.get(i).getId());
+            parents.add(parent);
+        }
+        return parents;
+    }
+
+    private void addSelected() {
+        PersonRow selected = matchList.getSelectedValue();
+        if (selected == null || contains(selected.getId())) {
+            return;
+        }
+        if (chosen.size() == MAX_PARENTS) {
+            JOptionPane.showMessageDialog(this,
+                "Нельзя выбрать больше двух родителей",
+                "Ошибка выбора",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        chosen.addElement(selected);
+    }
+
+    private boolean contains(Long id) {
+        for (int i = 0; i < chosen.size(); i++) {
+            if (chosen.get(i).getId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The first persons by last name, or the first matches of the name search
+    private void search() {
+        String text = searchField.getText().trim();
+        PersonQuery byLastName = PersonQuery.all().withSort(PersonQuery.SortField.LAST_NAME, true);
+        CompletableFuture<List<PersonRow>> found = text.isEmpty()
+            ? personDAO.findPage(byLastName, 0, CHOICES)
+            : personDAO.searchNames(text, CHOICES)
+                .thenCompose(result -> personDAO.findPage(byLastName.withIds(result.getIds()), 0, CHOICES));
+        searchRequest.submit(found, rows -> {
+            matches.clear();
+            matches.addAll(rows);
+        });
+    }
+}
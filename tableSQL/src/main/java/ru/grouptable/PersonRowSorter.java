@@ -0,0 +1,97 @@
+package ru.grouptable;
+
+import ru.grouptable.dao.PersonQuery;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.Collections;
+import java.util.List;
+
+// Header clicks become ORDER BY in PersonTableModel instead of sorting rows in memory
+public class PersonRowSorter extends RowSorter<PersonTableModel> {
+    private final PersonTableModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+
+    public PersonRowSorter(PersonTableModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public PersonTableModel getModel() {
+        return model;
+    }
+
+    @Override
+    public void toggleSortOrder(int column) {
+        if (PersonTableModel.sortFieldOf(column) == null) {
+            return;
+        }
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+                && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(List.of(new SortKey(column, order)));
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        sortKeys = keys == null ? Collections.emptyList() : List.copyOf(keys);
+        fireSortOrderChanged();
+        if (sortKeys.isEmpty()) {
+            model.setSort(PersonQuery.SortField.ID, true);
+        } else {
+            SortKey key = sortKeys.get(0);
+            model.setSort(PersonTableModel.sortFieldOf(key.getColumn()), key.getSortOrder() != SortOrder.DESCENDING);
+        }
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return index;
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        return index;
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+    }
+
+    @Override
+    public void allRowsChanged() {
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+    }
+}
@@ -0,0 +1,243 @@
+package ru.grouptable;
+
+import ru.grouptable.dao.AsyncPersonDAO;
+import ru.grouptable.dao.PersonQuery;
+import ru.grouptable.dto.PersonRow;
+import ru.grouptable.graph.KinshipGraph;
+
+import javax.swing.table.AbstractTableModel;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Table model that keeps only the pages around the viewport in memory
+public class PersonTableModel extends AbstractTableModel {
+    static final int PAGE_SIZE = 100;
+    private static final int PREFETCH_PAGES = 1;
+    private static final int MAX_CACHED_PAGES = 20;
+
+    private static final String[] COLUMNS = {"ID", "Имя", "Фамилия", "Дата рождения", "Родители", "Братья/Сестры", "Дяди/Тёти"};
+    private static final PersonQuery.SortField[] SORT_FIELDS = {
+        PersonQuery.SortField.ID,
+        PersonQuery.SortField.FIRST_NAME,
+        PersonQuery.SortField.LAST_NAME,
+        PersonQuery.SortField.BIRTH_DATE
+    };
+
+    private final Consumer<Throwable> onError;
+    private final LatestRequest countRequest;
+    private final LatestRequest graphRequest;
+    private AsyncPersonDAO personDAO;
+    private KinshipGraph graph;
+    private PersonQuery query = PersonQuery.all();
+    private int rowCount;
+    // Bumped on every refresh so late pages of an older query are dropped
+    private int generation;
+    private final Map<Integer, CompletableFuture<?>> pendingPages = new HashMap<>();
+    private final Map<Integer, Page> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    public PersonTableModel(AsyncPersonDAO personDAO, Consumer<Throwable> onError) {
+        this.personDAO = personDAO;
+        this.onError = onError;
+        this.countRequest = new LatestRequest(onError);
+        this.graphRequest = new LatestRequest(onError);
+    }
+
+    // Switches to another database and shows all of its rows
+    public CompletableFuture<Integer> setPersonDAO(AsyncPersonDAO personDAO) {
+        this.personDAO = personDAO;
+        graph = null;
+        graphRequest.cancel();
+        query = query.withFilters(null, null, null);
+        return refresh();
+    }
+
+    public PersonQuery getQuery() {
+        return query;
+    }
+
+    public CompletableFuture<Integer> setFilters(String nameFilter, LocalDate fromDate, LocalDate toDate) {
+        query = query.withFilters(nameFilter, fromDate, toDate);
+        return refresh();
+    }
+
+    public CompletableFuture<Integer> setIdFilter(long[] ids) {
+        query = query.withIds(ids);
+        return refresh();
+    }
+
+    public CompletableFuture<Integer> setSort(PersonQuery.SortField sortField, boolean ascending) {
+        query = query.withSort(sortField, ascending);
+        return refresh();
+    }
+
+    /**
+     * Drops cached pages and recounts rows in the background; only visible pages are fetched again.
+     * The returned future completes on the EDT with the new row count, unless a newer refresh replaces it.
+     */
+    public CompletableFuture<Integer> refresh() {
+        if (personDAO == null) {
+            // The database is still opening; setPersonDAO loads the rows for the query kept so far
+            return CompletableFuture.completedFuture(0);
+        }
+        generation++;
+        pages.clear();
+        pendingPages.values().forEach(future -> future.cancel(true));
+        pendingPages.clear();
+        if (graph == null) {
+            graphRequest.submit(personDAO.getKinshipGraph(), loaded -> {
+                graph = loaded;
+                if (rowCount > 0) {
+                    fireTableRowsUpdated(0, rowCount - 1);
+                }
+            });
+        }
+
+        CompletableFuture<Integer> counted = new CompletableFuture<>();
+        countRequest.submit(personDAO.countPersons(query), count -> {
+            rowCount = count.intValue();
+            fireTableDataChanged();
+            counted.complete(rowCount);
+        });
+        return counted;
+    }
+
+    // Null while the row's page is still loading
+    public Long getIdAt(int row) {
+        PersonRow person = getRow(row);
+        return person == null ? null : person.getId();
+    }
+
+    static PersonQuery.SortField sortFieldOf(int column) {
+        return column < SORT_FIELDS.length ? SORT_FIELDS[column] : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? Long.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        PersonRow person = getRow(row);
+        if (person == null) {
+            return null;
+        }
+        switch (column) {
+            case 0: return person.getId();
+            case 1: return person.getFirstName();
+            case 2: return person.getLastName();
+            case 3: return BirthDateFormat.format(person.getBirthDate());
+            default:
+                if (graph == null) {
+                    return null;
+                }
+                return pages.get(row / PAGE_SIZE).relatives(row % PAGE_SIZE, graph)[column - 4];
+        }
+    }
+
+    private PersonRow getRow(int row) {
+        int pageIndex = row / PAGE_SIZE;
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            requestPages(pageIndex);
+            return null;
+        }
+        // Null as well when the table shrank after the row count was taken
+        int offset = row % PAGE_SIZE;
+        return offset < page.rows.length ? page.rows[offset] : null;
+    }
+
+    // Fetches the requested page together with the next ones in a single query
+    private void requestPages(int pageIndex) {
+        if (pendingPages.containsKey(pageIndex)) {
+            return;
+        }
+        int requestGeneration = generation;
+        CompletableFuture<List<PersonRow>> future =
+            personDAO.findPage(query, pageIndex * PAGE_SIZE, PAGE_SIZE * (1 + PREFETCH_PAGES));
+        pendingPages.put(pageIndex, future);
+        LatestRequest.deliver(future, rows -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            pendingPages.remove(pageIndex);
+            int pageCount = Math.max(1, (rows.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+            // Requested page goes in last so it is the most recently used one
+            for (int i = pageCount - 1; i >= 0; i--) {
+                if (i == 0 || !pages.containsKey(pageIndex + i)) {
+                    List<PersonRow> pageRows = rows.subList(i * PAGE_SIZE, Math.min(rows.size(), (i + 1) * PAGE_SIZE));
+                    pages.put(pageIndex + i, new Page(pageRows.toArray(new PersonRow[0])));
+                }
+            }
+            int firstRow = pageIndex * PAGE_SIZE;
+            int lastRow = Math.min(rowCount, firstRow + rows.size()) - 1;
+            if (lastRow >= firstRow) {
+                fireTableRowsUpdated(firstRow, lastRow);
+            }
+        }, error -> {
+            if (requestGeneration == generation) {
+                pendingPages.remove(pageIndex);
+                onError.accept(error);
+            }
+        });
+    }
+
+    private static final class Page {
+        private final PersonRow[] rows;
+        // Parents, siblings and uncles/aunts, computed the first time a row is painted
+        private final String[][] relatives;
+
+        Page(PersonRow[] rows) {
+            this.rows = rows;
+            this.relatives = new String[rows.length][];
+        }
+
+        String[] relatives(int offset, KinshipGraph graph) {
+            if (relatives[offset] == null) {
+                int index = graph.indexOf(rows[offset].getId());
+                relatives[offset] = new String[]{
+                    joinNames(graph, graph.parentsOf(index)),
+                    joinNames(graph, graph.siblingsOf(index)),
+                    joinNames(graph, graph.unclesAndAuntsOf(index))
+                };
+            }
+            return relatives[offset];
+        }
+
+        private static String joinNames(KinshipGraph graph, int[] indices) {
+            StringBuilder names = new StringBuilder();
+            for (int index : indices) {
+                if (names.length() > 0) {
+                    names.append(", ");
+                }
+                names.append(graph.nameAt(index));
+            }
+            return names.toString();
+        }
+    }
+}
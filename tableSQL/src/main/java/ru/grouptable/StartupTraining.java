@@ -0,0 +1,50 @@
+package ru.grouptable;
+
+import org.hibernate.SessionFactory;
+import ru.grouptable.dao.Database;
+import ru.grouptable.dao.PersonDAO;
+import ru.grouptable.dao.PersonQuery;
+import ru.grouptable.entity.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Runs what the application does while starting, against a throwaway database, so that
+ * -XX:ArchiveClassesAtExit can record the classes it loads. The cds Maven profile runs it.
+ */
+public class StartupTraining {
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("heritage-cds", ".db");
+        try {
+            SessionFactory sessionFactory = Database.open(file.getPath());
+            PersonDAO personDAO = new PersonDAO(sessionFactory);
+
+            Person parent = new Person();
+            parent.setFirstName("Иван");
+            parent.setLastName("Иванов");
+            parent.setBirthDate(LocalDate.of(1950, 1, 1));
+            personDAO.save(parent);
+            Person child = new Person();
+            child.setFirstName("Пётр");
+            child.setLastName("Иванов");
+            child.getParents().add(parent);
+            personDAO.save(child);
+
+            PersonQuery query = PersonQuery.all();
+            personDAO.countPersons(query);
+            personDAO.findPage(query, 0, 100);
+            personDAO.getKinshipGraph();
+            personDAO.findForTree(child.getId());
+            personDAO.searchNames("Ив", 10);
+            Database.release(file.getPath());
+        } finally {
+            for (String suffix : new String[]{"", "-wal", "-shm"}) {
+                new File(file.getPath() + suffix).delete();
+            }
+        }
+        // Pool threads would keep the JVM from exiting and writing the archive
+        System.exit(0);
+    }
+}
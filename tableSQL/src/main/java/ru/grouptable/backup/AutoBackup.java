@@ -0,0 +1,131 @@
+package ru.grouptable.backup;
+
+import org.hibernate.SessionFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a compressed backup of the open database into a backups directory next to it
+ * every few minutes (-Dheritage.autoBackupMinutes, 0 switches it off), skipping databases
+ * that did not change since the last one, and keeps the newest few.
+ */
+public class AutoBackup {
+    public static final String INTERVAL_PROPERTY = "heritage.autoBackupMinutes";
+    private static final int DEFAULT_INTERVAL_MINUTES = 30;
+    private static final int KEPT_BACKUPS = 5;
+    private static final String SUFFIX = ".db.gz";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Consumer<Throwable> onError;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "auto-backup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Target target;
+    // Modification time of the database when the last backup was taken, touched only by the scheduler
+    private Path lastDatabase;
+    private FileTime lastModified;
+
+    public AutoBackup(Consumer<Throwable> onError) {
+        this.onError = onError;
+    }
+
+    public void start() {
+        long minutes = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MINUTES);
+        if (minutes > 0) {
+            scheduler.scheduleWithFixedDelay(this::backupIfChanged, minutes, minutes, TimeUnit.MINUTES);
+        }
+    }
+
+    // Switches to the database that was just opened
+    public void setDatabase(SessionFactory sessionFactory, Path file) {
+        target = new Target(sessionFactory, file.toAbsolutePath());
+    }
+
+    private void backupIfChanged() {
+        Target current = target;
+        if (current == null) {
+            return;
+        }
+        try {
+            FileTime modified = lastModified(current.file);
+            if (current.file.equals(lastDatabase) && modified.equals(lastModified)) {
+                return;
+            }
+            Path directory = current.file.getParent().resolve("backups");
+            Files.createDirectories(directory);
+            String stem = stem(current.file);
+            Path backup = directory.resolve(stem + "-" + LocalDateTime.now().format(TIMESTAMP) + SUFFIX);
+            new DatabaseBackup(current.sessionFactory).backupTo(backup, true, percent -> {
+            });
+            lastDatabase = current.file;
+            lastModified = modified;
+            deleteOldBackups(directory, stem);
+        } catch (IOException | RuntimeException e) {
+            // A database closed while its backup ran is not an error
+            if (target == current && !(e instanceof CancellationException)) {
+                onError.accept(e);
+            }
+        }
+    }
+
+    // The later of the database file and its WAL, which takes the writes first
+    private static FileTime lastModified(Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        Path wal = file.resolveSibling(file.getFileName() + "-wal");
+        if (Files.exists(wal)) {
+            FileTime walModified = Files.getLastModifiedTime(wal);
+            if (walModified.compareTo(modified) > 0) {
+                modified = walModified;
+            }
+        }
+        return modified;
+    }
+
+    // Only the database's own backups: "family-*" would also match those of family-old.db
+    private static void deleteOldBackups(Path directory, String stem) throws IOException {
+        Pattern ownBackup = Pattern.compile(Pattern.quote(stem) + "-\\d{8}-\\d{6}" + Pattern.quote(SUFFIX));
+        List<Path> backups = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                file -> ownBackup.matcher(file.getFileName().toString()).matches())) {
+            files.forEach(backups::add);
+        }
+        // Timestamps sort by name
+        Collections.sort(backups);
+        for (int i = 0; i < backups.size() - KEPT_BACKUPS; i++) {
+            Files.deleteIfExists(backups.get(i));
+        }
+    }
+
+    private static String stem(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static final class Target {
+        private final SessionFactory sessionFactory;
+        private final Path file;
+
+        Target(SessionFactory sessionFactory, Path file) {
+            this.sessionFactory = sessionFactory;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ru.grouptable.csv;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * Writes all persons as RFC 4180 CSV with a forward-only cursor: id, names,
+ * ISO birth date and the ids of the parents separated by semicolons.
+ */
+public class CsvExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final SessionFactory sessionFactory;
+
+    public CsvExporter(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    // Returns the number of persons written
+    public long exportFile(Path file) throws IOException {
+        try (Session session = sessionFactory.openSession();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return session.doReturningWork(connection -> {
+                long count = 0;
+                try (Statement statement = connection.createStatement()) {
+                    statement.setFetchSize(1000);
+                    try (ResultSet rs = statement.executeQuery(
+                            "SELECT p.id, p.first_name, p.last_name, p.birth_day, " +
+                            "(SELECT group_concat(pp.parent_id, ';') FROM person_parents pp WHERE pp.child_id = p.id) " +
+                            "FROM persons p ORDER BY p.id")) {
+                        out.write("id,first_name,last_name,birth_date,parent_ids\r\n");
+                        while (rs.next()) {
+                            out.write(Long.toString(rs.getLong(1)));
+                            out.write(',');
+                            writeField(out, rs.getString(2));
+                            out.write(',');
+                            writeField(out, rs.getString(3));
+                            out.write(',');
+                            long birthDay = rs.getLong(4);
+                            if (!rs.wasNull()) {
+                                out.write(LocalDate.ofEpochDay(birthDay).toString());
+                            }
+                            out.write(',');
+                            String parents = rs.getString(5);
+                            if (parents != null) {
+                                out.write(parents);
+                            }
+                            out.write("\r\n");
+                            count++;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
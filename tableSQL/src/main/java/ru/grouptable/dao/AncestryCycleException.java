@@ -0,0 +1,22 @@
+package ru.grouptable.dao;
+
+// Thrown by PersonDAO.save when the chosen parents would make a person their own ancestor
+public class AncestryCycleException extends IllegalArgumentException {
+    private final long personId;
+    private final long parentId;
+
+    public AncestryCycleException(long personId, long parentId, String message) {
+        super(message);
+        this.personId = personId;
+        this.parentId = parentId;
+    }
+
+    public long getPersonId() {
+        return personId;
+    }
+
+    // The parent that is the person or one of their descendants
+    public long getParentId() {
+        return parentId;
+    }
+}
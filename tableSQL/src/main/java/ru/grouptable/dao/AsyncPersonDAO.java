@@ -0,0 +1,163 @@
+package ru.grouptable.dao;
+
+import ru.grouptable.dto.ConsistencyReport;
+import ru.grouptable.dto.NameMatches;
+import ru.grouptable.dto.PersonRow;
+import ru.grouptable.dto.RelativeRow;
+import ru.grouptable.entity.Person;
+import ru.grouptable.graph.KinshipGraph;
+import ru.grouptable.graph.Relationship;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs PersonDAO calls on a query executor so the Swing EDT never waits for SQLite.
+ * Cancelling a returned read future skips it if still queued and interrupts it otherwise;
+ * writes always run to completion once submitted.
+ * Writes go one at a time through a single writer thread, as SQLite allows only one
+ * writer anyway; reads run next to them on the pooled connections.
+ */
+public class AsyncPersonDAO {
+    private static final int POOL_SIZE = 4;
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dao-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PersonDAO personDAO;
+    private final ExecutorService executor;
+
+    public AsyncPersonDAO(PersonDAO personDAO, ExecutorService executor) {
+        this.personDAO = personDAO;
+        this.executor = executor;
+    }
+
+    // Virtual threads when running on JDK 21+, a small bounded pool on 17
+    public static ExecutorService newQueryExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "dao-query-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        }
+    }
+
+    public PersonDAO getPersonDAO() {
+        return personDAO;
+    }
+
+    public CompletableFuture<Person> findById(Long id) {
+        return query(() -> personDAO.findById(id));
+    }
+
+    public CompletableFuture<Person> findForTree(Long id) {
+        return query(() -> personDAO.findForTree(id));
+    }
+
+    public CompletableFuture<Person> findForTree(Long id, boolean withDescendants) {
+        return query(() -> personDAO.findForTree(id, withDescendants));
+    }
+
+    public CompletableFuture<List<RelativeRow>> findAncestors(Long id, int maxDepth) {
+        return query(() -> personDAO.findAncestors(id, maxDepth));
+    }
+
+    public CompletableFuture<List<RelativeRow>> findDescendants(Long id, int maxDepth) {
+        return query(() -> personDAO.findDescendants(id, maxDepth));
+    }
+
+    public CompletableFuture<Long> countPersons(PersonQuery personQuery) {
+        return query(() -> personDAO.countPersons(personQuery));
+    }
+
+    public CompletableFuture<List<PersonRow>> findPage(PersonQuery personQuery, int offset, int limit) {
+        return query(() -> personDAO.findPage(personQuery, offset, limit));
+    }
+
+    public CompletableFuture<NameMatches> searchNames(String text, int limit) {
+        return query(() -> personDAO.searchNames(text, limit));
+    }
+
+    public CompletableFuture<KinshipGraph> getKinshipGraph() {
+        return query(personDAO::getKinshipGraph);
+    }
+
+    public CompletableFuture<Relationship> findRelationship(long firstId, long secondId) {
+        return query(() -> personDAO.findRelationship(firstId, secondId));
+    }
+
+    public CompletableFuture<List<Relationship>> findRelationships(long[] ids) {
+        return query(() -> personDAO.findRelationships(ids));
+    }
+
+    public CompletableFuture<ConsistencyReport> checkConsistency() {
+        return query(personDAO::checkConsistency);
+    }
+
+    public CompletableFuture<Void> save(Person person) {
+        return write(() -> {
+            personDAO.save(person);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteById(Long id) {
+        return write(() -> {
+            Person person = personDAO.findById(id);
+            if (person != null) {
+                personDAO.delete(person);
+            }
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> query(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            // Cancelled while still queued
+            if (!result.isDone()) {
+                run(task, result);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    // Runs any other writing task, such as an import, in turn with the DAO writes
+    public <T> CompletableFuture<T> write(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        WRITER.execute(() -> run(task, result));
+        return result;
+    }
+
+    private static <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        try {
+            result.complete(task.call());
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
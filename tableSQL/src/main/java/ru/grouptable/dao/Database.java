@@ -0,0 +1,85 @@
+package ru.grouptable.dao;
+
+import org.hibernate.MultiTenancyStrategy;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import ru.grouptable.entity.Person;
+import ru.grouptable.metrics.Metrics;
+
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Opens database files through one SessionFactory per connection profile, built from
+ * hibernate.cfg.xml the first time it is needed. Every file is a tenant of it, so opening
+ * another file only runs the schema upgrades, and files opened recently keep their
+ * connections and cached entities.
+ */
+public final class Database {
+    public static final String DEBUG_SQL_PROPERTY = "heritage.debugSql";
+
+    private static final Map<SqliteProfile, SharedFactory> sharedFactories = new EnumMap<>(SqliteProfile.class);
+
+    private Database() {
+    }
+
+    public static SessionFactory open(String path) {
+        return open(path, SqliteProfile.fromSystemProperty());
+    }
+
+    public static SessionFactory open(String path, SqliteProfile profile) {
+        SessionFactory sessionFactory = new DatabaseSessionFactory(sharedFactory(profile).sessionFactory, databaseOf(path));
+        SchemaUpgrade.apply(sessionFactory);
+        return sessionFactory;
+    }
+
+    // Closes the connections to the file and drops what was cached, before it is deleted or replaced.
+    // Files never opened leave the caches of the open ones alone.
+    public static synchronized void release(String path) {
+        String database = databaseOf(path);
+        for (SharedFactory shared : sharedFactories.values()) {
+            if (shared.connections.release(database)) {
+                shared.sessionFactory.getCache().evictAllRegions();
+            }
+        }
+    }
+
+    private static synchronized SharedFactory sharedFactory(SqliteProfile profile) {
+        SharedFactory shared = sharedFactories.get(profile);
+        if (shared == null) {
+            shared = new SharedFactory(profile);
+            sharedFactories.put(profile, shared);
+        }
+        return shared;
+    }
+
+    // The same file always maps to the same tenant, however the path was written
+    private static String databaseOf(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    private static final class SharedFactory {
+        private final DatabaseConnections connections = new DatabaseConnections();
+        private final SessionFactoryImplementor sessionFactory;
+
+        SharedFactory(SqliteProfile profile) {
+            Configuration config = new Configuration()
+                    .configure("hibernate.cfg.xml")
+                    .addAnnotatedClass(Person.class);
+            for (Map.Entry<String, String> setting : profile.getSettings().entrySet()) {
+                config.setProperty(setting.getKey(), setting.getValue());
+            }
+            if (Boolean.getBoolean(DEBUG_SQL_PROPERTY)) {
+                config.setProperty("hibernate.show_sql", "true");
+                config.setProperty("hibernate.format_sql", "true");
+            }
+            config.getProperties().put(AvailableSettings.MULTI_TENANT, MultiTenancyStrategy.DATABASE);
+            config.getProperties().put(AvailableSettings.MULTI_TENANT_CONNECTION_PROVIDER, connections);
+            sessionFactory = (SessionFactoryImplementor) config.buildSessionFactory();
+            Metrics.bindStatistics(sessionFactory.getStatistics());
+        }
+    }
+}
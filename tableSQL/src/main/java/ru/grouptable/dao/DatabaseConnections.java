@@ -0,0 +1,170 @@
+package ru.grouptable.dao;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes the sessions of the shared SessionFactory to the database file named by their
+ * tenant identifier. Each file gets a connection provider of the class the profile names;
+ * the most recently opened ones stay open, so switching back to them costs nothing.
+ */
+public class DatabaseConnections implements MultiTenantConnectionProvider, ServiceRegistryAwareService,
+        Configurable, Stoppable {
+    private static final int WARM_DATABASES = 12;
+    // Only used by Hibernate to inspect the JDBC driver while starting
+    private static final String ANY_DATABASE = ":memory:";
+
+    private ServiceRegistryImplementor serviceRegistry;
+    private Map<String, Object> settings;
+    private final Map<String, ConnectionProvider> providers = new LinkedHashMap<>(16, 0.75f, true);
+    // Files connected to since their last release, including those whose pool was closed as
+    // the eldest: the second-level cache can still hold their entities
+    private final Set<String> tenants = new HashSet<>();
+
+    @Override
+    public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void configure(Map configurationValues) {
+        settings = new HashMap<>(configurationValues);
+    }
+
+    @Override
+    public Connection getAnyConnection() throws SQLException {
+        return getConnection(ANY_DATABASE);
+    }
+
+    @Override
+    public void releaseAnyConnection(Connection connection) throws SQLException {
+        releaseConnection(ANY_DATABASE, connection);
+    }
+
+    @Override
+    public Connection getConnection(String database) throws SQLException {
+        return provider(database).getConnection();
+    }
+
+    @Override
+    public void releaseConnection(String database, Connection connection) throws SQLException {
+        ConnectionProvider provider;
+        synchronized (this) {
+            provider = providers.get(database);
+        }
+        if (provider != null) {
+            provider.closeConnection(connection);
+        } else {
+            // Its pool was closed while the session ran
+            connection.close();
+        }
+    }
+
+    /**
+     * Closes the connections to the file, before it is deleted or replaced. Returns whether
+     * the file was opened as a tenant since its last release, i.e. whether anything may be cached from it.
+     */
+    public boolean release(String database) {
+        ConnectionProvider provider;
+        boolean opened;
+        synchronized (this) {
+            provider = providers.remove(database);
+            opened = tenants.remove(database);
+        }
+        stop(provider);
+        return opened;
+    }
+
+    @Override
+    public void stop() {
+        List<ConnectionProvider> open;
+        synchronized (this) {
+            open = new ArrayList<>(providers.values());
+            providers.clear();
+            tenants.clear();
+        }
+        open.forEach(DatabaseConnections::stop);
+    }
+
+    private ConnectionProvider provider(String database) {
+        List<ConnectionProvider> evicted = new ArrayList<>();
+        ConnectionProvider provider;
+        synchronized (this) {
+            provider = providers.get(database);
+            if (provider == null) {
+                provider = createProvider(database);
+                providers.put(database, provider);
+                tenants.add(database);
+                var eldest = providers.entrySet().iterator();
+                while (providers.size() > WARM_DATABASES) {
+                    evicted.add(eldest.next().getValue());
+                    eldest.remove();
+                }
+            }
+        }
+        evicted.forEach(DatabaseConnections::stop);
+        return provider;
+    }
+
+    private ConnectionProvider createProvider(String database) {
+        Map<String, Object> values = new HashMap<>(settings);
+        values.put(AvailableSettings.URL, "jdbc:sqlite:" + database);
+        String className = (String) settings.get(AvailableSettings.CONNECTION_PROVIDER);
+        ConnectionProvider provider;
+        try {
+            provider = (ConnectionProvider) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new HibernateException("Cannot create connection provider " + className, e);
+        }
+        if (provider instanceof ServiceRegistryAwareService) {
+            ((ServiceRegistryAwareService) provider).injectServices(serviceRegistry);
+        }
+        if (provider instanceof Configurable) {
+            ((Configurable) provider).configure(values);
+        }
+        return provider;
+    }
+
+    private static void stop(ConnectionProvider provider) {
+        if (provider instanceof Stoppable) {
+            ((Stoppable) provider).stop();
+        }
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (isUnwrappableAs(unwrapType)) {
+            return (T) this;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+}
@@ -0,0 +1,55 @@
+package ru.grouptable.dao;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.StatelessSessionBuilder;
+import org.hibernate.engine.spi.SessionBuilderImplementor;
+import org.hibernate.engine.spi.SessionFactoryDelegatingImpl;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+/**
+ * The shared SessionFactory seen through one database file: every session it opens is
+ * bound to that file. Closing it leaves the shared factory and the file's connections open.
+ */
+class DatabaseSessionFactory extends SessionFactoryDelegatingImpl {
+    private final String database;
+
+    DatabaseSessionFactory(SessionFactoryImplementor shared, String database) {
+        super(shared);
+        this.database = database;
+    }
+
+    String getDatabase() {
+        return database;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public SessionBuilderImplementor withOptions() {
+        return (SessionBuilderImplementor) super.withOptions().tenantIdentifier(database);
+    }
+
+    @Override
+    public Session openSession() {
+        return withOptions().openSession();
+    }
+
+    @Override
+    public StatelessSessionBuilder withStatelessOptions() {
+        return super.withStatelessOptions().tenantIdentifier(database);
+    }
+
+    @Override
+    public StatelessSession openStatelessSession() {
+        return withStatelessOptions().openStatelessSession();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate().isClosed();
+    }
+}
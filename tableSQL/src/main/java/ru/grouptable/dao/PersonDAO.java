@@ -1,91 +1,511 @@
 package ru.grouptable.dao;
 
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+import org.hibernate.stat.Statistics;
+import org.hibernate.type.StandardBasicTypes;
+import ru.grouptable.dto.CacheStatistics;
+import ru.grouptable.dto.ConsistencyReport;
+import ru.grouptable.dto.NameMatches;
+import ru.grouptable.dto.PersonRow;
+import ru.grouptable.dto.RelativeRow;
 import ru.grouptable.entity.Person;
+import ru.grouptable.graph.AncestryOrder;
+import ru.grouptable.graph.KinshipGraph;
+import ru.grouptable.graph.Relationship;
+import ru.grouptable.graph.RelationshipCalculator;
+import ru.grouptable.metrics.LatencyHistogram;
+import ru.grouptable.metrics.Metrics;
+import ru.grouptable.search.NameIndex;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class PersonDAO {
+    private static final String ROW_SELECT =
+        "select new ru.grouptable.dto.PersonRow(p.id, p.firstName, p.lastName, p.birthDate) ";
+
+    // Bounds the recursive queries, so a cycle in person_parents cannot make them run forever
+    private static final int MAX_GENERATIONS = 200;
+    private static final String ANCESTORS =
+        "ancestors(id, generation) AS (SELECT :id, 0 " +
+        "UNION SELECT pp.parent_id, a.generation + 1 FROM person_parents pp JOIN ancestors a ON pp.child_id = a.id " +
+        "WHERE a.generation < :maxDepth) ";
+    private static final String DESCENDANTS =
+        "descendants(id, generation) AS (SELECT :id, 0 " +
+        "UNION SELECT pp.child_id, d.generation + 1 FROM person_parents pp JOIN descendants d ON pp.parent_id = d.id " +
+        "WHERE d.generation < :maxDepth) ";
+
+    // Name search matches, a thousand at most, as one JSON array expanded by SQLite.
+    // Binding a parameter per id makes Hibernate expand and SQLite parse a statement per list length.
+    private static final String ID_ARRAY_FILTER = "FROM persons p WHERE p.id IN (SELECT value FROM json_each(:ids))";
+
+    // Parents younger than this at the child's birth are reported by the consistency scan
+    private static final int MIN_PARENT_AGE_DAYS = 12 * 365;
+
+    private static final String PARENTS_ROLE = Person.class.getName() + ".parents";
+    private static final String CHILDREN_ROLE = Person.class.getName() + ".children";
+
     private final SessionFactory sessionFactory;
+    private KinshipGraph kinshipGraph;
+    private RelationshipCalculator relationshipCalculator;
+    private AncestryOrder ancestryOrder;
+    private final Object nameIndexLock = new Object();
+    private NameIndex nameIndex;
 
     public PersonDAO(SessionFactory sessionFactory) {
         this.sessionFactory = sessionFactory;
     }
 
     public void save(Person person) {
-        try (Session session = sessionFactory.openSession()) {
+        checkAncestry(person);
+        try (Session session = openSession("save")) {
             Transaction tx = session.beginTransaction();
             session.saveOrUpdate(person);
             tx.commit();
         }
+        // Hibernate keeps only the owning side (parents) of the link table up to date in the cache
+        sessionFactory.getCache().evictCollectionData(CHILDREN_ROLE);
+        updateKinshipGraph(person);
+        synchronized (nameIndexLock) {
+            if (nameIndex != null) {
+                nameIndex.put(person.getId(), person.getFirstName(), person.getLastName());
+            }
+        }
     }
 
+    // Loads the person with its own parents and children, enough for the edit dialog.
+    // Served from the second-level cache when the person was read before.
     public Person findById(Long id) {
-        try (Session session = sessionFactory.openSession()) {
-            return session.get(Person.class, id);
+        try (Session session = openSession("findById")) {
+            Person person = session.get(Person.class, id);
+            if (person != null) {
+                Hibernate.initialize(person.getParents());
+                Hibernate.initialize(person.getChildren());
+            }
+            return person;
+        }
+    }
+
+    public Person findForTree(Long id) {
+        return findForTree(id, false);
+    }
+
+    /**
+     * The person with all ancestors, plus every child of their parents and grandparents,
+     * and all descendants if asked for, read in a single query. The result is a detached copy
+     * built from rows: parents are complete, children only as far as they are part of the tree.
+     */
+    public Person findForTree(Long id, boolean withDescendants) {
+        try (Session session = openSession("findForTree")) {
+            List<?> rows = session.createNativeQuery(
+                    "WITH RECURSIVE " + ANCESTORS + ", " +
+                    (withDescendants ? DESCENDANTS + ", " : "") +
+                    "tree(id) AS (SELECT id FROM ancestors " +
+                    "UNION SELECT pp.child_id FROM ancestors a JOIN person_parents pp ON pp.parent_id = a.id " +
+                    "WHERE a.generation IN (1, 2)" +
+                    (withDescendants ? " UNION SELECT id FROM descendants" : "") + ") " +
+                    "SELECT p.id, p.first_name, p.last_name, p.birth_day, " +
+                    "(SELECT group_concat(pp.parent_id) FROM person_parents pp WHERE pp.child_id = p.id) AS parent_ids " +
+                    "FROM tree t JOIN persons p ON p.id = t.id")
+                // SQLite reports no column types, so the parent list needs an explicit one
+                .addScalar("id", StandardBasicTypes.LONG)
+                .addScalar("first_name", StandardBasicTypes.STRING)
+                .addScalar("last_name", StandardBasicTypes.STRING)
+                .addScalar("birth_day", StandardBasicTypes.LONG)
+                .addScalar("parent_ids", StandardBasicTypes.STRING)
+                .setParameter("id", id)
+                .setParameter("maxDepth", MAX_GENERATIONS)
+                .list();
+
+            Map<Long, Person> persons = new HashMap<>();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                Person person = new Person();
+                person.setId(((Number) columns[0]).longValue());
+                person.setFirstName((String) columns[1]);
+                person.setLastName((String) columns[2]);
+                person.setBirthDate(columns[3] == null ? null : LocalDate.ofEpochDay(((Number) columns[3]).longValue()));
+                persons.put(person.getId(), person);
+            }
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                if (columns[4] == null) {
+                    continue;
+                }
+                Person child = persons.get(((Number) columns[0]).longValue());
+                for (String parentId : ((String) columns[4]).split(",")) {
+                    Person parent = persons.get(Long.parseLong(parentId));
+                    if (parent != null) {
+                        child.getParents().add(parent);
+                        parent.getChildren().add(child);
+                    }
+                }
+            }
+            return persons.get(id);
         }
     }
 
+    // Ancestors up to maxDepth generations up (negative for all), nearest generation first
+    public List<RelativeRow> findAncestors(Long id, int maxDepth) {
+        return findRelatives("findAncestors", "WITH RECURSIVE " + ANCESTORS + "SELECT id, MIN(generation) AS generation FROM ancestors GROUP BY id", id, maxDepth);
+    }
+
+    // Descendants up to maxDepth generations down (negative for all), nearest generation first
+    public List<RelativeRow> findDescendants(Long id, int maxDepth) {
+        return findRelatives("findDescendants", "WITH RECURSIVE " + DESCENDANTS + "SELECT id, MIN(generation) AS generation FROM descendants GROUP BY id", id, maxDepth);
+    }
+
+    private List<RelativeRow> findRelatives(String method, String relativesQuery, Long id, int maxDepth) {
+        try (Session session = openSession(method)) {
+            List<?> rows = session.createNativeQuery(
+                    "SELECT p.id, p.first_name, p.last_name, p.birth_day, r.generation " +
+                    "FROM (" + relativesQuery + ") r JOIN persons p ON p.id = r.id " +
+                    "WHERE r.generation > 0 ORDER BY r.generation, p.id")
+                .setParameter("id", id)
+                .setParameter("maxDepth", maxDepth < 0 ? MAX_GENERATIONS : maxDepth)
+                .list();
+            List<RelativeRow> relatives = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                relatives.add(new RelativeRow(toPersonRow(columns), ((Number) columns[4]).intValue()));
+            }
+            return relatives;
+        }
+    }
+
+    // id, first_name, last_name and birth_day columns of the persons table
+    private static PersonRow toPersonRow(Object[] columns) {
+        return new PersonRow(((Number) columns[0]).longValue(), (String) columns[1], (String) columns[2],
+            columns[3] == null ? null : LocalDate.ofEpochDay(((Number) columns[3]).longValue()));
+    }
+
     public List<Person> getAllPersons() {
-        try (Session session = sessionFactory.openSession()) {
+        try (Session session = openSession("getAllPersons")) {
             return session.createQuery("from Person", Person.class).list();
         }
     }
 
+    public List<PersonRow> getAllPersonRows() {
+        try (Session session = openSession("getAllPersonRows")) {
+            return session.createQuery(ROW_SELECT + "from Person p", PersonRow.class)
+                .setCacheable(true)
+                .list();
+        }
+    }
+
     public void delete(Person person) {
-        try (Session session = sessionFactory.openSession()) {
+        try (Session session = openSession("delete")) {
             Transaction tx = session.beginTransaction();
             session.delete(person);
             tx.commit();
         }
+        // Relatives of the deleted person still list it in their cached collections
+        sessionFactory.getCache().evictCollectionData(PARENTS_ROLE);
+        sessionFactory.getCache().evictCollectionData(CHILDREN_ROLE);
+        synchronized (this) {
+            if (kinshipGraph != null) {
+                kinshipGraph.remove(person.getId());
+            }
+        }
+        synchronized (nameIndexLock) {
+            if (nameIndex != null) {
+                nameIndex.remove(person.getId());
+            }
+        }
+    }
+
+    // The first persons whose first or last name contains every word of the text, and the count of all
+    public NameMatches searchNames(String text, int limit) {
+        return Metrics.time("PersonDAO.searchNames", () -> getNameIndex().search(text, limit));
+    }
+
+    public NameIndex getNameIndex() {
+        synchronized (nameIndexLock) {
+            if (nameIndex == null) {
+                nameIndex = loadNameIndex();
+            }
+            return nameIndex;
+        }
+    }
+
+    private NameIndex loadNameIndex() {
+        try (Session session = openSession("loadNameIndex")) {
+            NameIndex index = new NameIndex();
+            session.createQuery("select p.id, p.firstName, p.lastName from Person p", Object[].class)
+                .stream()
+                .forEach(row -> index.put((Long) row[0], (String) row[1], (String) row[2]));
+            return index;
+        }
+    }
+
+    // After bulk changes that bypass save/delete, such as an import
+    public void invalidateIndexes() {
+        sessionFactory.getCache().evictAllRegions();
+        synchronized (this) {
+            kinshipGraph = null;
+            relationshipCalculator = null;
+            ancestryOrder = null;
+        }
+        synchronized (nameIndexLock) {
+            nameIndex = null;
+        }
+    }
+
+    // Hits and misses of the entity, collection and query caches since the application started.
+    // All databases share one SessionFactory and its statistics, so these cover every one opened.
+    public CacheStatistics getCacheStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        return new CacheStatistics(
+            statistics.getSecondLevelCacheHitCount(),
+            statistics.getSecondLevelCacheMissCount(),
+            statistics.getQueryCacheHitCount(),
+            statistics.getQueryCacheMissCount());
+    }
+
+    public synchronized KinshipGraph getKinshipGraph() {
+        if (kinshipGraph == null) {
+            kinshipGraph = loadKinshipGraph();
+        }
+        return kinshipGraph;
+    }
+
+    // Follows the kinship graph, which save and delete keep up to date
+    public synchronized RelationshipCalculator getRelationshipCalculator() {
+        if (relationshipCalculator == null) {
+            relationshipCalculator = new RelationshipCalculator(getKinshipGraph());
+        }
+        return relationshipCalculator;
+    }
+
+    public Relationship findRelationship(long firstId, long secondId) {
+        return Metrics.time("PersonDAO.findRelationship", () -> getRelationshipCalculator().relationship(firstId, secondId));
     }
 
-    public List<Person> findByNameLike(String searchText) {
+    // Every pair of the persons, computed in parallel
+    public List<Relationship> findRelationships(long[] ids) {
+        return Metrics.time("PersonDAO.findRelationships", () -> getRelationshipCalculator().relationships(ids));
+    }
+
+    public synchronized AncestryOrder getAncestryOrder() {
+        if (ancestryOrder == null) {
+            ancestryOrder = new AncestryOrder(getKinshipGraph());
+        }
+        return ancestryOrder;
+    }
+
+    // Only persons saved before can have descendants that would close a cycle
+    private void checkAncestry(Person person) {
+        if (person.getId() == null) {
+            return;
+        }
+        long[] parentIds = person.getParents().stream()
+            .mapToLong(Person::getId)
+            .toArray();
+        Long parentId = getAncestryOrder().findCycleParent(person.getId(), parentIds);
+        if (parentId != null) {
+            KinshipGraph graph = getKinshipGraph();
+            String parentName = graph.nameAt(graph.indexOf(parentId));
+            String message = parentId.equals(person.getId())
+                ? "Человек не может быть своим родителем"
+                : parentName + " — потомок этого человека и не может быть его родителем";
+            throw new AncestryCycleException(person.getId(), parentId, message);
+        }
+    }
+
+    /**
+     * Scans the whole database for cycles, links to missing persons and parents too young for
+     * their children. The checks run in parallel, the first two in memory, the rest in SQL.
+     */
+    public ConsistencyReport checkConsistency() {
+        return Metrics.time("PersonDAO.checkConsistency", this::scanConsistency);
+    }
+
+    private ConsistencyReport scanConsistency() {
+        CompletableFuture<List<long[]>> cycles = CompletableFuture.supplyAsync(() -> getAncestryOrder().findCycles());
+        CompletableFuture<long[]> unlinked = CompletableFuture.supplyAsync(() -> getKinshipGraph().unlinkedIds());
+        CompletableFuture<List<long[]>> danglingLinks = CompletableFuture.supplyAsync(() -> findLinks(
+            "SELECT pp.child_id, pp.parent_id FROM person_parents pp " +
+            "WHERE NOT EXISTS (SELECT 1 FROM persons c WHERE c.id = pp.child_id) " +
+            "OR NOT EXISTS (SELECT 1 FROM persons p WHERE p.id = pp.parent_id)"));
+        List<long[]> birthOrderViolations = findLinks(
+            "SELECT pp.child_id, pp.parent_id FROM person_parents pp " +
+            "JOIN persons c ON c.id = pp.child_id JOIN persons p ON p.id = pp.parent_id " +
+            "WHERE c.birth_day < p.birth_day + " + MIN_PARENT_AGE_DAYS);
+        return new ConsistencyReport(cycles.join(), danglingLinks.join(), birthOrderViolations, unlinked.join());
+    }
+
+    private List<long[]> findLinks(String sql) {
+        try (Session session = openSession("checkConsistency")) {
+            List<?> rows = session.createNativeQuery(sql).list();
+            List<long[]> links = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                links.add(new long[]{((Number) columns[0]).longValue(), ((Number) columns[1]).longValue()});
+            }
+            return links;
+        }
+    }
+
+    private KinshipGraph loadKinshipGraph() {
+        try (Session session = openSession("loadKinshipGraph")) {
+            List<Object[]> persons = session
+                .createQuery("select p.id, p.firstName, p.lastName from Person p", Object[].class)
+                .list();
+            KinshipGraph graph = new KinshipGraph(persons.size());
+            for (Object[] row : persons) {
+                graph.put((Long) row[0], (String) row[1], (String) row[2], new long[0]);
+            }
+
+            List<?> relations = session
+                .createNativeQuery("SELECT child_id, parent_id FROM person_parents")
+                .list();
+            for (Object relation : relations) {
+                Object[] row = (Object[]) relation;
+                graph.link(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+            }
+            return graph;
+        }
+    }
+
+    private synchronized void updateKinshipGraph(Person person) {
+        if (kinshipGraph == null) return;
+        long[] parentIds = person.getParents().stream()
+            .mapToLong(Person::getId)
+            .toArray();
+        kinshipGraph.put(person.getId(), person.getFirstName(), person.getLastName(), parentIds);
+    }
+
+    public List<PersonRow> findByNameLike(String searchText) {
         if (searchText == null || searchText.trim().isEmpty()) {
-            return getAllPersons();
+            return getAllPersonRows();
         }
         
-        try (Session session = sessionFactory.openSession()) {
-            String query = "FROM Person WHERE firstName LIKE :nameFilter";
-            return session.createQuery(query, Person.class)
+        try (Session session = openSession("findByNameLike")) {
+            String query = ROW_SELECT + "FROM Person p WHERE p.firstName LIKE :nameFilter";
+            return session.createQuery(query, PersonRow.class)
                 .setParameter("nameFilter", "%" + searchText + "%")
+                .setCacheable(true)
                 .list();
         }
     }
 
-    public List<Person> findByFilters(String nameFilter, String fromDate, String toDate) {
-        try (Session session = sessionFactory.openSession()) {
-            StringBuilder queryBuilder = new StringBuilder("FROM Person WHERE 1=1");
-            
-            // Add name filter if provided
-            if (nameFilter != null && !nameFilter.trim().isEmpty()) {
-                queryBuilder.append(" AND firstName LIKE :nameFilter");
-            }
-            
-            // Add date range filter if provided
-            if (fromDate != null && !fromDate.trim().isEmpty()) {
-                queryBuilder.append(" AND birthDate >= :fromDate");
-            }
-            if (toDate != null && !toDate.trim().isEmpty()) {
-                queryBuilder.append(" AND birthDate <= :toDate");
+    public List<PersonRow> findByFilters(String nameFilter, LocalDate fromDate, LocalDate toDate) {
+        PersonQuery personQuery = PersonQuery.all().withFilters(nameFilter, fromDate, toDate);
+        try (Session session = openSession("findByFilters")) {
+            return createFilteredQuery(session, ROW_SELECT, personQuery, false, PersonRow.class)
+                .setCacheable(true)
+                .list();
+        }
+    }
+
+    public long countPersons(PersonQuery personQuery) {
+        try (Session session = openSession("countPersons")) {
+            if (personQuery.getIdArray() != null) {
+                return ((Number) session.createNativeQuery("SELECT count(*) " + ID_ARRAY_FILTER)
+                    .setParameter("ids", personQuery.getIdArray())
+                    .uniqueResult()).longValue();
             }
-            
-            var query = session.createQuery(queryBuilder.toString(), Person.class);
-            
-            // Set parameters if they were added to query
-            if (nameFilter != null && !nameFilter.trim().isEmpty()) {
-                query.setParameter("nameFilter", "%" + nameFilter + "%");
+            return createFilteredQuery(session, "select count(p) ", personQuery, false, Long.class)
+                .setCacheable(true)
+                .uniqueResult();
+        }
+    }
+
+    // One page of rows, sorted and limited by the database
+    public List<PersonRow> findPage(PersonQuery personQuery, int offset, int limit) {
+        try (Session session = openSession("findPage")) {
+            if (personQuery.getIdArray() != null) {
+                return findIdArrayPage(session, personQuery, offset, limit);
             }
-            if (fromDate != null && !fromDate.trim().isEmpty()) {
-                query.setParameter("fromDate", fromDate);
+            return createFilteredQuery(session, ROW_SELECT, personQuery, true, PersonRow.class)
+                .setFirstResult(offset)
+                .setMaxResults(limit)
+                .list();
+        }
+    }
+
+    // The session's lifetime is recorded under PersonDAO.<method> in the application metrics
+    private Session openSession(String method) {
+        LatencyHistogram histogram = Metrics.histogram("PersonDAO." + method);
+        long start = System.nanoTime();
+        Session session = sessionFactory.openSession();
+        session.addEventListeners(new BaseSessionEventListener() {
+            @Override
+            public void end() {
+                histogram.record(System.nanoTime() - start);
             }
-            if (toDate != null && !toDate.trim().isEmpty()) {
-                query.setParameter("toDate", toDate);
+        });
+        return session;
+    }
+
+    private List<PersonRow> findIdArrayPage(Session session, PersonQuery personQuery, int offset, int limit) {
+        String direction = personQuery.isAscending() ? " ASC" : " DESC";
+        StringBuilder sql = new StringBuilder("SELECT p.id, p.first_name, p.last_name, p.birth_day ")
+            .append(ID_ARRAY_FILTER)
+            .append(" ORDER BY ").append(personQuery.getSortField().getColumn()).append(direction);
+        if (personQuery.getSortField() != PersonQuery.SortField.ID) {
+            sql.append(", p.id").append(direction);
+        }
+        List<?> rows = session.createNativeQuery(sql.toString())
+            .setParameter("ids", personQuery.getIdArray())
+            .setFirstResult(offset)
+            .setMaxResults(limit)
+            .list();
+        List<PersonRow> page = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            page.add(toPersonRow((Object[]) row));
+        }
+        return page;
+    }
+
+    private <T> Query<T> createFilteredQuery(Session session, String select, PersonQuery personQuery,
+                                             boolean ordered, Class<T> resultType) {
+        StringBuilder queryBuilder = new StringBuilder(select + "FROM Person p WHERE 1=1");
+
+        // Add name filter if provided
+        if (personQuery.getNameFilter() != null) {
+            queryBuilder.append(" AND p.firstName LIKE :nameFilter");
+        }
+
+        // Add date range filter if provided
+        if (personQuery.getFromDate() != null) {
+            queryBuilder.append(" AND p.birthDate >= :fromDate");
+        }
+        if (personQuery.getToDate() != null) {
+            queryBuilder.append(" AND p.birthDate <= :toDate");
+        }
+
+        if (ordered) {
+            String direction = personQuery.isAscending() ? " ASC" : " DESC";
+            queryBuilder.append(" ORDER BY ").append(personQuery.getSortField().getPath()).append(direction);
+            // Stable order between pages when the sort key has duplicates
+            if (personQuery.getSortField() != PersonQuery.SortField.ID) {
+                queryBuilder.append(", p.id").append(direction);
             }
-            
-            return query.list();
         }
+
+        Query<T> query = session.createQuery(queryBuilder.toString(), resultType);
+
+        // Set parameters if they were added to query
+        if (personQuery.getNameFilter() != null) {
+            query.setParameter("nameFilter", "%" + personQuery.getNameFilter() + "%");
+        }
+        if (personQuery.getFromDate() != null) {
+            query.setParameter("fromDate", personQuery.getFromDate());
+        }
+        if (personQuery.getToDate() != null) {
+            query.setParameter("toDate", personQuery.getToDate());
+        }
+
+        return query;
     }
-} 
\ No newline at end of file
+}
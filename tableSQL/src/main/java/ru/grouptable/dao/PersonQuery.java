@@ -0,0 +1,109 @@
+package ru.grouptable.dao;
+
+import java.time.LocalDate;
+
+// Filter and sort order for paged person queries
+public class PersonQuery {
+    public enum SortField {
+        ID("p.id", "p.id"),
+        // Names sort by their keys, in Russian alphabetical order; see NameSortKey
+        FIRST_NAME("p.firstNameKey", "p.first_name_key"),
+        LAST_NAME("p.lastNameKey", "p.last_name_key"),
+        BIRTH_DATE("p.birthDate", "p.birth_day");
+
+        private final String path;
+        private final String column;
+
+        SortField(String path, String column) {
+            this.path = path;
+            this.column = column;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        // The same order in SQL, for queries on the persons table
+        String getColumn() {
+            return column;
+        }
+    }
+
+    private final String nameFilter;
+    private final LocalDate fromDate;
+    private final LocalDate toDate;
+    // JSON array of the only persons to show, or null for no such restriction
+    private final String idArray;
+    private final SortField sortField;
+    private final boolean ascending;
+
+    public PersonQuery(String nameFilter, LocalDate fromDate, LocalDate toDate, SortField sortField, boolean ascending) {
+        this(nameFilter, fromDate, toDate, null, sortField, ascending);
+    }
+
+    private PersonQuery(String nameFilter, LocalDate fromDate, LocalDate toDate, String idArray,
+                        SortField sortField, boolean ascending) {
+        this.nameFilter = blankToNull(nameFilter);
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        this.idArray = idArray;
+        this.sortField = sortField;
+        this.ascending = ascending;
+    }
+
+    public static PersonQuery all() {
+        return new PersonQuery(null, null, null, SortField.ID, true);
+    }
+
+    public PersonQuery withFilters(String nameFilter, LocalDate fromDate, LocalDate toDate) {
+        return new PersonQuery(nameFilter, fromDate, toDate, sortField, ascending);
+    }
+
+    /**
+     * Only the given persons, e.g. the first matches of a name index search; replaces the other
+     * filters. They are kept as one JSON array for SQLite to expand rather than bound one
+     * parameter each.
+     */
+    public PersonQuery withIds(long[] ids) {
+        StringBuilder idArray = new StringBuilder(ids.length * 8 + 2).append('[');
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                idArray.append(',');
+            }
+            idArray.append(ids[i]);
+        }
+        return new PersonQuery(null, null, null, idArray.append(']').toString(), sortField, ascending);
+    }
+
+    public PersonQuery withSort(SortField sortField, boolean ascending) {
+        return new PersonQuery(nameFilter, fromDate, toDate, idArray, sortField, ascending);
+    }
+
+    public String getNameFilter() {
+        return nameFilter;
+    }
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    String getIdArray() {
+        return idArray;
+    }
+
+    public SortField getSortField() {
+        return sortField;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
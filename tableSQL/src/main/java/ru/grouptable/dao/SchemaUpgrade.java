@@ -0,0 +1,212 @@
+package ru.grouptable.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.sqlite.Function;
+import org.sqlite.SQLiteConnection;
+import ru.grouptable.entity.NameSortKey;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Brings database files up to the current schema with numbered migrations. Each one runs once,
+ * in its own transaction, and is recorded in schema_version, so opening a file that is already
+ * current costs two queries. Files written before schema_version existed replay every
+ * migration, which is why they only create what is missing.
+ */
+public final class SchemaUpgrade {
+    private static final Logger LOG = Logger.getLogger(SchemaUpgrade.class.getName());
+    // Ids of unreadable legacy birth dates named in the log; the rest are only counted
+    private static final int MAX_LOGGED_IDS = 100;
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "persons and person_parents tables", SchemaUpgrade::createTables),
+        new Migration(2, "birth dates as epoch days", SchemaUpgrade::migrateBirthDates),
+        new Migration(3, "birth_day index", connection ->
+            execute(connection, "CREATE INDEX IF NOT EXISTS idx_persons_birth_day ON persons (birth_day)")),
+        // The primary key (child_id, parent_id) covers lookups of parents; this one covers children
+        new Migration(4, "children index", connection ->
+            execute(connection, "CREATE INDEX IF NOT EXISTS idx_person_parents_parent ON person_parents (parent_id, child_id)")),
+        new Migration(5, "name sort keys", SchemaUpgrade::addNameSortKeys)
+    );
+
+    // Formats the legacy birth_date text column was filled with
+    private static final DateTimeFormatter[] LEGACY_DATE_FORMATS = {
+        DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT),
+        DateTimeFormatter.ofPattern("uuuu-MM-dd").withResolverStyle(ResolverStyle.STRICT),
+        DateTimeFormatter.ofPattern("dd-MM-uuuu").withResolverStyle(ResolverStyle.STRICT)
+    };
+
+    private SchemaUpgrade() {
+    }
+
+    public static void apply(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> {
+                int version = currentVersion(connection);
+                for (Migration migration : MIGRATIONS) {
+                    if (migration.version > version) {
+                        migrate(connection, migration);
+                    }
+                }
+            });
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'schema_version'")) {
+                if (!rs.next()) {
+                    return 0;
+                }
+            }
+            try (ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static void migrate(Connection connection, Migration migration) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, "CREATE TABLE IF NOT EXISTS schema_version (version integer not null, " +
+                "description varchar(255) not null, applied_at timestamp default CURRENT_TIMESTAMP, primary key (version))");
+            migration.step.apply(connection);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                insert.setInt(1, migration.version);
+                insert.setString(2, migration.description);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // The tables Hibernate's schema update used to create for Person, and the column older versions lacked
+    private static void createTables(Connection connection) throws SQLException {
+        execute(connection, "CREATE TABLE IF NOT EXISTS persons (id integer, birth_day bigint, " +
+            "first_name varchar(255), last_name varchar(255), primary key (id))");
+        execute(connection, "CREATE TABLE IF NOT EXISTS person_parents (child_id bigint not null, " +
+            "parent_id bigint not null, primary key (child_id, parent_id))");
+        if (!hasColumn(connection, "persons", "birth_day")) {
+            execute(connection, "ALTER TABLE persons ADD COLUMN birth_day bigint");
+        }
+    }
+
+    // Copies text dates into the epoch-day column; the old column is left in place
+    private static void migrateBirthDates(Connection connection) throws SQLException {
+        if (!hasColumn(connection, "persons", "birth_date")) {
+            return;
+        }
+        try (Statement select = connection.createStatement();
+             ResultSet rs = select.executeQuery(
+                 "SELECT id, birth_date FROM persons WHERE birth_day IS NULL AND birth_date IS NOT NULL");
+             PreparedStatement update = connection.prepareStatement("UPDATE persons SET birth_day = ? WHERE id = ?")) {
+            int skipped = 0;
+            StringBuilder skippedIds = new StringBuilder();
+            while (rs.next()) {
+                String text = rs.getString(2);
+                LocalDate date = parseLegacyDate(text);
+                if (date != null) {
+                    update.setLong(1, date.toEpochDay());
+                    update.setLong(2, rs.getLong(1));
+                    update.addBatch();
+                } else if (!text.isBlank()) {
+                    if (skipped++ < MAX_LOGGED_IDS) {
+                        skippedIds.append(skippedIds.length() == 0 ? "" : ", ").append(rs.getLong(1));
+                    }
+                }
+            }
+            update.executeBatch();
+            // The text stays in birth_date, so these dates can still be fixed by hand
+            if (skipped > 0) {
+                LOG.warning("Не распознано дат рождения: " + skipped + ", они остались в столбце birth_date; id: "
+                    + skippedIds + (skipped > MAX_LOGGED_IDS ? " и ещё " + (skipped - MAX_LOGGED_IDS) : ""));
+            }
+        }
+    }
+
+    // Names used to sort by SQLite's binary order: capitals before small letters, Ё after Я
+    private static void addNameSortKeys(Connection connection) throws SQLException {
+        for (String column : new String[]{"first_name_key", "last_name_key"}) {
+            if (!hasColumn(connection, "persons", column)) {
+                execute(connection, "ALTER TABLE persons ADD COLUMN " + column + " varchar(255)");
+            }
+        }
+        // One UPDATE, with SQLite calling NameSortKey for every name
+        SQLiteConnection sqlite = connection.unwrap(SQLiteConnection.class);
+        Function.create(sqlite, "name_sort_key", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                result(NameSortKey.of(value_text(0)));
+            }
+        });
+        try {
+            execute(connection, "UPDATE persons SET first_name_key = name_sort_key(first_name), " +
+                "last_name_key = name_sort_key(last_name)");
+        } finally {
+            Function.destroy(sqlite, "name_sort_key");
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static LocalDate parseLegacyDate(String text) {
+        for (DateTimeFormatter format : LEGACY_DATE_FORMATS) {
+            try {
+                return LocalDate.parse(text.trim(), format);
+            } catch (DateTimeParseException e) {
+                // Try the next format
+            }
+        }
+        return null;
+    }
+
+    private interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+}
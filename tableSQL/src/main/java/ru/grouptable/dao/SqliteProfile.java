@@ -0,0 +1,56 @@
+package ru.grouptable.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Connection settings layered over hibernate.cfg.xml. The profile is picked with
+ * -Dheritage.sqliteProfile=plain|tuned and defaults to tuned.
+ */
+public enum SqliteProfile {
+    // Rollback journal, full fsync and Hibernate's built-in pool, as before the profiles;
+    // named explicitly, since Hibernate would otherwise pick HikariCP from the classpath
+    PLAIN(Map.of("hibernate.connection.provider_class",
+        "org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl")),
+
+    // WAL lets the readers of the pool run while a write is in progress; NORMAL only
+    // syncs at checkpoints, which in WAL mode still cannot corrupt the database
+    TUNED(tunedSettings());
+
+    public static final String PROPERTY = "heritage.sqliteProfile";
+
+    private final Map<String, String> settings;
+
+    SqliteProfile(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    public static SqliteProfile fromSystemProperty() {
+        String name = System.getProperty(PROPERTY);
+        return name == null || name.isBlank() ? TUNED : valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static Map<String, String> tunedSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        settings.put("hibernate.hikari.poolName", "heritage");
+        settings.put("hibernate.hikari.maximumPoolSize", "5");
+        settings.put("hibernate.hikari.minimumIdle", "1");
+        // Passed to the SQLite driver, which applies them to every new connection
+        settings.put("hibernate.hikari.dataSource.foreign_keys", "true");
+        settings.put("hibernate.hikari.dataSource.journal_mode", "WAL");
+        settings.put("hibernate.hikari.dataSource.synchronous", "NORMAL");
+        settings.put("hibernate.hikari.dataSource.cache_size", "-32768");
+        settings.put("hibernate.hikari.dataSource.mmap_size", "268435456");
+        settings.put("hibernate.hikari.dataSource.temp_store", "MEMORY");
+        // A reader or the importer may still hold the write lock for a moment
+        settings.put("hibernate.hikari.dataSource.busy_timeout", "10000");
+        settings.put("hibernate.jdbc.batch_size", "50");
+        return Map.copyOf(settings);
+    }
+}
@@ -0,0 +1,38 @@
+package ru.grouptable.dto;
+
+// Hibernate cache counters: entities and collections together, and query results
+public class CacheStatistics {
+    private final long secondLevelHits;
+    private final long secondLevelMisses;
+    private final long queryHits;
+    private final long queryMisses;
+
+    public CacheStatistics(long secondLevelHits, long secondLevelMisses, long queryHits, long queryMisses) {
+        this.secondLevelHits = secondLevelHits;
+        this.secondLevelMisses = secondLevelMisses;
+        this.queryHits = queryHits;
+        this.queryMisses = queryMisses;
+    }
+
+    public long getSecondLevelHits() {
+        return secondLevelHits;
+    }
+
+    public long getSecondLevelMisses() {
+        return secondLevelMisses;
+    }
+
+    public long getQueryHits() {
+        return queryHits;
+    }
+
+    public long getQueryMisses() {
+        return queryMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "second level " + secondLevelHits + "/" + secondLevelMisses
+            + ", queries " + queryHits + "/" + queryMisses;
+    }
+}
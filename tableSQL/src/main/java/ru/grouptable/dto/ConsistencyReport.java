@@ -0,0 +1,49 @@
+package ru.grouptable.dto;
+
+import java.util.List;
+
+// Problems found by a full scan of the database, links given as {child id, parent id}
+public class ConsistencyReport {
+    private final List<long[]> cycles;
+    private final List<long[]> danglingLinks;
+    private final List<long[]> birthOrderViolations;
+    private final long[] unlinkedPersons;
+
+    public ConsistencyReport(List<long[]> cycles, List<long[]> danglingLinks,
+                             List<long[]> birthOrderViolations, long[] unlinkedPersons) {
+        this.cycles = cycles;
+        this.danglingLinks = danglingLinks;
+        this.birthOrderViolations = birthOrderViolations;
+        this.unlinkedPersons = unlinkedPersons;
+    }
+
+    // Ids of persons who are each other's ancestors, one array per group
+    public List<long[]> getCycles() {
+        return cycles;
+    }
+
+    // Links to a child or parent that does not exist
+    public List<long[]> getDanglingLinks() {
+        return danglingLinks;
+    }
+
+    // Links where the parent is not old enough to have the child
+    public List<long[]> getBirthOrderViolations() {
+        return birthOrderViolations;
+    }
+
+    // Persons with neither parents nor children
+    public long[] getUnlinkedPersons() {
+        return unlinkedPersons;
+    }
+
+    public boolean isClean() {
+        return cycles.isEmpty() && danglingLinks.isEmpty() && birthOrderViolations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "cycles " + cycles.size() + ", dangling links " + danglingLinks.size()
+            + ", birth order " + birthOrderViolations.size() + ", unlinked " + unlinkedPersons.length;
+    }
+}
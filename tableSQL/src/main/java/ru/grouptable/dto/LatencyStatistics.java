@@ -0,0 +1,60 @@
+package ru.grouptable.dto;
+
+import java.beans.ConstructorProperties;
+
+// Durations recorded by one timer, in milliseconds; also the row type of the JMX latency table
+public class LatencyStatistics {
+    private final String name;
+    private final long count;
+    private final double meanMillis;
+    private final double medianMillis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    @ConstructorProperties({"name", "count", "meanMillis", "medianMillis", "p90Millis", "p99Millis", "maxMillis"})
+    public LatencyStatistics(String name, long count, double meanMillis, double medianMillis, double p90Millis,
+                             double p99Millis, double maxMillis) {
+        this.name = name;
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.medianMillis = medianMillis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getMedianMillis() {
+        return medianMillis;
+    }
+
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, mean %.2f ms, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f",
+            name, count, meanMillis, medianMillis, p90Millis, p99Millis, maxMillis);
+    }
+}
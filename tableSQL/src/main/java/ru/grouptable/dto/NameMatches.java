@@ -0,0 +1,24 @@
+package ru.grouptable.dto;
+
+// The first matches of a name search and how many persons match in all
+public class NameMatches {
+    private final long[] ids;
+    private final int totalCount;
+
+    public NameMatches(long[] ids, int totalCount) {
+        this.ids = ids;
+        this.totalCount = totalCount;
+    }
+
+    public long[] getIds() {
+        return ids;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public boolean isTruncated() {
+        return totalCount > ids.length;
+    }
+}
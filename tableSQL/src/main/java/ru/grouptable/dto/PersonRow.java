@@ -0,0 +1,39 @@
+package ru.grouptable.dto;
+
+import java.time.LocalDate;
+
+// Flat projection of a person for lists and tables, safe to use after the session is closed
+public class PersonRow {
+    private final Long id;
+    private final String firstName;
+    private final String lastName;
+    private final LocalDate birthDate;
+
+    public PersonRow(Long id, String firstName, String lastName, LocalDate birthDate) {
+        this.id = id;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.birthDate = birthDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public LocalDate getBirthDate() {
+        return birthDate;
+    }
+
+    @Override
+    public String toString() {
+        return firstName + " " + lastName;
+    }
+}
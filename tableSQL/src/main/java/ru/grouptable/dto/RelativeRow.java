@@ -0,0 +1,25 @@
+package ru.grouptable.dto;
+
+// A relative found by an ancestor or descendant query and how many generations away they are
+public class RelativeRow {
+    private final PersonRow person;
+    private final int generation;
+
+    public RelativeRow(PersonRow person, int generation) {
+        this.person = person;
+        this.generation = generation;
+    }
+
+    public PersonRow getPerson() {
+        return person;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public String toString() {
+        return person + " (" + generation + ")";
+    }
+}
@@ -0,0 +1,19 @@
+package ru.grouptable.entity;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.time.LocalDate;
+
+// Stores dates as days since 1970-01-01 so SQLite compares and indexes them as integers
+@Converter
+public class EpochDayConverter implements AttributeConverter<LocalDate, Long> {
+    @Override
+    public Long convertToDatabaseColumn(LocalDate date) {
+        return date == null ? null : date.toEpochDay();
+    }
+
+    @Override
+    public LocalDate convertToEntityAttribute(Long epochDay) {
+        return epochDay == null ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
@@ -1,11 +1,19 @@
 package ru.grouptable.entity;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
+import java.time.LocalDate;
 import java.util.Set;
 import java.util.HashSet;
 
 @Entity
-@Table(name = "persons")
+@Table(name = "persons", indexes = @Index(name = "idx_persons_birth_day", columnList = "birth_day"))
+@BatchSize(size = 50)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "persons")
 public class Person {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -17,10 +25,23 @@ public class Person {
     @Column(name = "last_name")
     private String lastName;
 
-    @Column(name = "birth_date")
-    private String birthDate;
+    // Set with the names, for sorting; see NameSortKey
+    @Column(name = "first_name_key")
+    private String firstNameKey;
+
+    @Column(name = "last_name_key")
+    private String lastNameKey;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // Replaces the legacy text column birth_date, see SchemaUpgrade
+    @Column(name = "birth_day")
+    @Convert(converter = EpochDayConverter.class)
+    private LocalDate birthDate;
+
+    // Relatives are loaded on first access, in batches of collections from the same session,
+    // or from the second-level cache
+    @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "person-parents")
     @JoinTable(
         name = "person_parents",
         joinColumns = @JoinColumn(name = "child_id"),
@@ -28,7 +49,9 @@ public class Person {
     )
     private Set<Person> parents = new HashSet<>();
 
-    @ManyToMany(mappedBy = "parents", fetch = FetchType.EAGER)
+    @ManyToMany(mappedBy = "parents", fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "person-children")
     private Set<Person> children = new HashSet<>();
 
     // Getters and Setters
@@ -46,6 +69,7 @@ public class Person {
 
     public void setFirstName(String firstName) {
         this.firstName = firstName;
+        this.firstNameKey = NameSortKey.of(firstName);
     }
 
     public String getLastName() {
@@ -54,13 +78,14 @@ public class Person {
 
     public void setLastName(String lastName) {
         this.lastName = lastName;
+        this.lastNameKey = NameSortKey.of(lastName);
     }
 
-    public String getBirthDate() {
+    public LocalDate getBirthDate() {
         return birthDate;
     }
 
-    public void setBirthDate(String birthDate) {
+    public void setBirthDate(LocalDate birthDate) {
         this.birthDate = birthDate;
     }
 
@@ -80,23 +105,6 @@ public class Person {
         this.children = children;
     }
 
-    public Set<Person> getSiblings() {
-        Set<Person> siblings = new HashSet<>();
-        for (Person parent : parents) {
-            siblings.addAll(parent.getChildren());
-        }
-        siblings.remove(this); // Remove self from siblings
-        return siblings;
-    }
-
-    public Set<Person> getUnclesAndAunts() {
-        Set<Person> unclesAndAunts = new HashSet<>();
-        for (Person parent : parents) {
-            unclesAndAunts.addAll(parent.getSiblings());
-        }
-        return unclesAndAunts;
-    }
-
     @Override
     public String toString() {
         return firstName + " " + lastName;
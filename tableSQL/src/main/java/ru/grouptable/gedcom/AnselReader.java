@@ -0,0 +1,153 @@
+package ru.grouptable.gedcom;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * Decodes ANSEL (ANSI Z39.47), the default character set of GEDCOM 5.5.1, with the GEDCOM
+ * additions. Accents come before their letter in ANSEL and after it in Unicode, so the
+ * letters come out decomposed, e.g. "u" followed by U+0308.
+ */
+final class AnselReader extends Reader {
+    // Unicode characters of the bytes 0x80-0xFF; zero where ANSEL defines nothing
+    private static final char[] CHARS = new char[0x80];
+    private static final char SKIPPED = '\uFFFF';
+    private static final int FIRST_COMBINING = 0xE0;
+    // ANSEL text hardly ever has more accents than this on one letter; windows-1251 words
+    // have longer runs of these bytes
+    private static final int MAX_COMBINING_RUN = 2;
+
+    static {
+        // Non-sorting markers and joiners
+        define(0x88, SKIPPED);
+        define(0x89, SKIPPED);
+        define(0x8D, '\u200D');
+        define(0x8E, '\u200C');
+        // Letters and symbols
+        define(0xA1, "\u0141\u00D8\u0110\u00DE\u00C6\u0152\u02B9\u00B7\u266D\u00AE\u00B1\u01A0\u01AF\u02BC");
+        define(0xB0, "\u02BB\u0142\u00F8\u0111\u00FE\u00E6\u0153\u02BA\u0131\u00A3\u00F0");
+        define(0xBC, "\u01A1\u01B0");
+        define(0xC0, "\u00B0\u2113\u2117\u00A9\u266F\u00BF\u00A1\u00DF\u20AC");
+        define(0xCF, '\u00DF');
+        // Accents
+        define(0xE0, "\u0309\u0300\u0301\u0302\u0303\u0304\u0306\u0307"
+            + "\u0308\u030C\u030A\uFE20\uFE21\u0315\u030B\u0310");
+        define(0xF0, "\u0327\u0328\u0323\u0324\u0325\u0333\u0332\u0326"
+            + "\u031C\u032E\uFE22\uFE23");
+        define(0xFE, '\u0313');
+    }
+
+    private static void define(int firstByte, String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            define(firstByte + i, chars.charAt(i));
+        }
+    }
+
+    private static void define(int b, char c) {
+        CHARS[b - 0x80] = c;
+    }
+
+    private final InputStream in;
+    // Gives U+FFFD for bytes ANSEL does not define instead of failing
+    private final boolean lenient;
+    // Letter and its accents, decoded but not yet read
+    private final char[] pending = new char[16];
+    private int pendingStart;
+    private int pendingEnd;
+
+    AnselReader(InputStream in, boolean lenient) {
+        this.in = new BufferedInputStream(in);
+        this.lenient = lenient;
+    }
+
+    // Whether the bytes can be ANSEL rather than an 8-bit code page declared as ANSEL
+    static boolean isAnsel(byte[] bytes) {
+        int combiningRun = 0;
+        for (byte value : bytes) {
+            int b = value & 0xFF;
+            if (b < 0x80) {
+                combiningRun = 0;
+                continue;
+            }
+            if (CHARS[b - 0x80] == 0) {
+                return false;
+            }
+            combiningRun = b >= FIRST_COMBINING ? combiningRun + 1 : 0;
+            if (combiningRun > MAX_COMBINING_RUN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            if (pendingStart < pendingEnd) {
+                buffer[offset + count++] = pending[pendingStart++];
+                continue;
+            }
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            if (b < 0x80) {
+                buffer[offset + count++] = (char) b;
+            } else if (b < FIRST_COMBINING) {
+                char c = decode(b);
+                if (c != SKIPPED) {
+                    buffer[offset + count++] = c;
+                }
+            } else {
+                readAccented(b);
+            }
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    // Moves the accents that start with the byte behind the letter they belong to
+    private void readAccented(int first) throws IOException {
+        int marks = 0;
+        int b = first;
+        while (b >= FIRST_COMBINING) {
+            if (marks == pending.length - 1) {
+                throw new MalformedInputException(marks);
+            }
+            pending[1 + marks++] = decode(b);
+            b = in.read();
+        }
+        char letter = b < 0 ? SKIPPED : b < 0x80 ? (char) b : decode(b);
+        if (letter == SKIPPED || letter == '\n' || letter == '\r') {
+            // No letter to put them on
+            System.arraycopy(pending, 1, pending, 0, marks);
+            pendingEnd = marks;
+            if (letter != SKIPPED) {
+                pending[pendingEnd++] = letter;
+            }
+        } else {
+            pending[0] = letter;
+            pendingEnd = marks + 1;
+        }
+        pendingStart = 0;
+    }
+
+    private char decode(int b) throws MalformedInputException {
+        char c = CHARS[b - 0x80];
+        if (c == 0) {
+            if (!lenient) {
+                throw new MalformedInputException(1);
+            }
+            return '\uFFFD';
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,145 @@
+package ru.grouptable.gedcom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The character set a GEDCOM file is written in: a byte order mark wins, then the CHAR line
+ * of the header, and UTF-8 when there is none, as in GEDCOM 7. GEDCOM 5.5.1 files from
+ * Russian programs declare ANSI, ASCII or even ANSEL and are written in windows-1251.
+ */
+final class GedcomCharset {
+    // The header is read from this much of the file
+    private static final int SAMPLE_BYTES = 1 << 16;
+    private static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+
+    private final String name;
+    // Null for ANSEL, which Java has no charset for
+    private final Charset charset;
+    private final int byteOrderMarkLength;
+
+    private GedcomCharset(String name, Charset charset, int byteOrderMarkLength) {
+        this.name = name;
+        this.charset = charset;
+        this.byteOrderMarkLength = byteOrderMarkLength;
+    }
+
+    static GedcomCharset of(Path file) throws IOException {
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file)) {
+            sample = in.readNBytes(SAMPLE_BYTES);
+        }
+        if (startsWith(sample, 0xEF, 0xBB, 0xBF)) {
+            return new GedcomCharset("UTF-8", StandardCharsets.UTF_8, 3);
+        }
+        if (startsWith(sample, 0xFE, 0xFF)) {
+            return new GedcomCharset("UNICODE", StandardCharsets.UTF_16BE, 2);
+        }
+        if (startsWith(sample, 0xFF, 0xFE)) {
+            return new GedcomCharset("UNICODE", StandardCharsets.UTF_16LE, 2);
+        }
+        // UNICODE without a byte order mark: "0 HEAD" with a zero byte next to every character
+        if (startsWith(sample, '0', 0)) {
+            return new GedcomCharset("UNICODE", StandardCharsets.UTF_16LE, 0);
+        }
+        if (startsWith(sample, 0, '0')) {
+            return new GedcomCharset("UNICODE", StandardCharsets.UTF_16BE, 0);
+        }
+
+        String declared = declaredCharset(sample);
+        if (declared == null) {
+            return new GedcomCharset("UTF-8", StandardCharsets.UTF_8, 0);
+        }
+        switch (declared.toUpperCase(Locale.ROOT)) {
+            case "UTF-8":
+            case "UTF8":
+            // Without zero bytes the file cannot be UTF-16, whatever the header says
+            case "UNICODE":
+                return new GedcomCharset(declared, StandardCharsets.UTF_8, 0);
+            case "ANSI":
+            case "ASCII":
+                return new GedcomCharset(declared, WINDOWS_1251, 0);
+            case "ANSEL":
+                return AnselReader.isAnsel(sample)
+                    ? new GedcomCharset(declared, null, 0)
+                    : new GedcomCharset(declared, WINDOWS_1251, 0);
+            default:
+                try {
+                    // Names Java knows, such as WINDOWS-1251, CP866 or KOI8-R
+                    return new GedcomCharset(declared, Charset.forName(declared), 0);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Кодировка файла GEDCOM не поддерживается: " + declared
+                        + " (поддерживаются UTF-8, UNICODE, ANSI/windows-1251, ANSEL и кодировки Java)");
+                }
+        }
+    }
+
+    // Bad bytes are reported as CharacterCodingException rather than replaced
+    Reader open(InputStream in) throws IOException {
+        in.skipNBytes(byteOrderMarkLength);
+        return charset == null ? new AnselReader(in, false) : new InputStreamReader(in, charset.newDecoder());
+    }
+
+    /**
+     * The number of the first line with bytes the character set cannot decode, or 0. The reader
+     * decodes well ahead of the parser, so this reads the file again once decoding has failed.
+     */
+    int findUndecodableLine(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        in.skipNBytes(byteOrderMarkLength);
+        Reader lenient = charset == null ? new AnselReader(in, true)
+            : new InputStreamReader(in, charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        try (LineNumberReader reader = new LineNumberReader(lenient)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.indexOf('\uFFFD') >= 0) {
+                    return reader.getLineNumber();
+                }
+            }
+        }
+        return 0;
+    }
+
+    // As declared in the header, or as found from the byte order mark
+    String getName() {
+        return name;
+    }
+
+    // The value of "1 CHAR" among the lines of the HEAD record
+    private static String declaredCharset(byte[] sample) {
+        String text = new String(sample, StandardCharsets.ISO_8859_1);
+        String[] lines = text.split("[\r\n]+");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.startsWith("0 ")) {
+                break;
+            }
+            if (line.startsWith("1 CHAR ")) {
+                return line.substring(7).trim();
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] sample, int... prefix) {
+        if (sample.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((sample[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
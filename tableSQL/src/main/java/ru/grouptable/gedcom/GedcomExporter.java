@@ -0,0 +1,148 @@
+package ru.grouptable.gedcom;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * Writes the whole database as GEDCOM 7 while reading it with forward-only cursors,
+ * so memory use does not depend on the number of persons. Families are the distinct
+ * parent pairs of person_parents, grouped by SQLite.
+ */
+public class GedcomExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String[] MONTHS = {
+        "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
+    };
+
+    // Parents of each child, at most the two with the lowest and highest id
+    private static final String PARENT_PAIRS =
+        "SELECT child_id, MIN(parent_id) AS first_parent, " +
+        "CASE WHEN COUNT(*) > 1 THEN MAX(parent_id) END AS second_parent " +
+        "FROM person_parents GROUP BY child_id";
+
+    private final SessionFactory sessionFactory;
+
+    public GedcomExporter(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    // Returns the number of persons written
+    public long exportFile(Path file) throws IOException {
+        try (Session session = sessionFactory.openSession();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            long persons = session.doReturningWork(connection -> {
+                try {
+                    out.write("0 HEAD\n1 GEDC\n2 VERS 7.0\n");
+                    long written = writeIndividuals(connection, out);
+                    writeFamilies(connection, out);
+                    out.write("0 TRLR\n");
+                    return written;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return persons;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long writeIndividuals(Connection connection, Writer out) throws SQLException, IOException {
+        long count = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(1000);
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT p.id, p.first_name, p.last_name, p.birth_day, pp.first_parent, pp.second_parent " +
+                    "FROM persons p LEFT JOIN (" + PARENT_PAIRS + ") pp ON pp.child_id = p.id ORDER BY p.id")) {
+                while (rs.next()) {
+                    out.write("0 @I");
+                    out.write(Long.toString(rs.getLong(1)));
+                    out.write("@ INDI\n1 NAME ");
+                    out.write(escape(nullToEmpty(rs.getString(2))));
+                    out.write(" /");
+                    out.write(nullToEmpty(rs.getString(3)).replace('/', ' '));
+                    out.write("/\n");
+                    long birthDay = rs.getLong(4);
+                    if (!rs.wasNull()) {
+                        out.write("1 BIRT\n2 DATE ");
+                        out.write(formatDate(LocalDate.ofEpochDay(birthDay)));
+                        out.write('\n');
+                    }
+                    long firstParent = rs.getLong(5);
+                    if (!rs.wasNull()) {
+                        out.write("1 FAMC ");
+                        out.write(familyXref(firstParent, rs.getLong(6), rs.wasNull()));
+                        out.write('\n');
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void writeFamilies(Connection connection, Writer out) throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(1000);
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT first_parent, second_parent, group_concat(child_id) FROM (" + PARENT_PAIRS + ") " +
+                    "GROUP BY first_parent, second_parent")) {
+                while (rs.next()) {
+                    long firstParent = rs.getLong(1);
+                    long secondParent = rs.getLong(2);
+                    boolean singleParent = rs.wasNull();
+                    out.write("0 ");
+                    out.write(familyXref(firstParent, secondParent, singleParent));
+                    out.write(" FAM\n1 HUSB @I");
+                    out.write(Long.toString(firstParent));
+                    out.write("@\n");
+                    if (!singleParent) {
+                        out.write("1 WIFE @I");
+                        out.write(Long.toString(secondParent));
+                        out.write("@\n");
+                    }
+                    for (String child : rs.getString(3).split(",")) {
+                        out.write("1 CHIL @I");
+                        out.write(child);
+                        out.write("@\n");
+                    }
+                }
+            }
+        }
+    }
+
+    // The database does not record sex, so HUSB and WIFE only tell the two parents apart
+    private static String familyXref(long firstParent, long secondParent, boolean singleParent) {
+        return singleParent ? "@F" + firstParent + "@" : "@F" + firstParent + "_" + secondParent + "@";
+    }
+
+    static String formatDate(LocalDate date) {
+        return date.getDayOfMonth() + " " + MONTHS[date.getMonthValue() - 1] + " " + date.getYear();
+    }
+
+    // A leading @ would be read as a pointer
+    private static String escape(String value) {
+        return value.startsWith("@") ? "@" + value : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,220 @@
+package ru.grouptable.gedcom;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import ru.grouptable.entity.NameSortKey;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.Normalizer;
+import java.time.LocalDate;
+
+/**
+ * Adds the individuals and parent links of a GEDCOM file to the database in one transaction.
+ * Persons get ids after the current maximum and are written with plain JDBC batches,
+ * since the IDENTITY id of Person rules out batching through Hibernate. GEDCOM
+ * references are resolved by SQL over temporary tables, so memory stays flat.
+ */
+public class GedcomImporter {
+    private static final int BATCH_SIZE = 10_000;
+
+    private final SessionFactory sessionFactory;
+
+    public GedcomImporter(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public static class Result {
+        private final long persons;
+        private final long links;
+
+        Result(long persons, long links) {
+            this.persons = persons;
+            this.links = links;
+        }
+
+        public long getPersons() {
+            return persons;
+        }
+
+        public long getLinks() {
+            return links;
+        }
+    }
+
+    // The character set comes from the header of the file, see GedcomCharset
+    public Result importFile(Path file) throws IOException {
+        GedcomCharset charset = GedcomCharset.of(file);
+        try (Session session = sessionFactory.openSession();
+             BufferedReader reader = new BufferedReader(charset.open(Files.newInputStream(file)))) {
+            return session.doReturningWork(connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    Result result = importRecords(connection, reader);
+                    connection.commit();
+                    return result;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    dropTemporaryTables(connection);
+                    connection.setAutoCommit(autoCommit);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            if (e.getCause() instanceof CharacterCodingException) {
+                throw new IOException("Строка " + charset.findUndecodableLine(file) + " файла GEDCOM не читается в кодировке "
+                    + charset.getName() + ", указанной в его заголовке", e.getCause());
+            }
+            throw e.getCause();
+        }
+    }
+
+    private Result importRecords(Connection connection, BufferedReader reader) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE gedcom_person (xref TEXT PRIMARY KEY, id INTEGER NOT NULL) WITHOUT ROWID");
+            statement.execute("CREATE TEMP TABLE gedcom_family (family TEXT NOT NULL, xref TEXT NOT NULL, child INTEGER NOT NULL)");
+        }
+        long firstId;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM persons")) {
+            rs.next();
+            firstId = rs.getLong(1);
+        }
+
+        try (PreparedStatement insertPerson = connection.prepareStatement(
+                 "INSERT INTO persons (id, first_name, last_name, birth_day, first_name_key, last_name_key) "
+                     + "VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement insertXref = connection.prepareStatement(
+                 "INSERT OR IGNORE INTO gedcom_person (xref, id) VALUES (?, ?)");
+             PreparedStatement insertMember = connection.prepareStatement(
+                 "INSERT INTO gedcom_family (family, xref, child) VALUES (?, ?, ?)")) {
+            BatchHandler handler = new BatchHandler(firstId, insertPerson, insertXref, insertMember);
+            try {
+                new GedcomParser(handler).parse(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (BatchFailure e) {
+                throw e.getCause();
+            }
+            handler.flush();
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX gedcom_family_by_family ON gedcom_family (family, child)");
+                // Every child of a family gets every spouse of the family as a parent
+                long links = statement.executeUpdate(
+                    "INSERT OR IGNORE INTO person_parents (child_id, parent_id) " +
+                    "SELECT c.id, p.id FROM gedcom_family fc " +
+                    "JOIN gedcom_family fp ON fp.family = fc.family AND fp.child = 0 " +
+                    "JOIN gedcom_person c ON c.xref = fc.xref " +
+                    "JOIN gedcom_person p ON p.xref = fp.xref " +
+                    "WHERE fc.child = 1 AND c.id <> p.id");
+                return new Result(handler.persons, links);
+            }
+        }
+    }
+
+    private static void dropTemporaryTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS temp.gedcom_person");
+            statement.execute("DROP TABLE IF EXISTS temp.gedcom_family");
+        }
+    }
+
+    private static final class BatchHandler implements GedcomParser.Handler {
+        private final PreparedStatement insertPerson;
+        private final PreparedStatement insertXref;
+        private final PreparedStatement insertMember;
+        private long nextId;
+        private long persons;
+        private int pendingPersons;
+        private int pendingMembers;
+
+        BatchHandler(long firstId, PreparedStatement insertPerson, PreparedStatement insertXref,
+                     PreparedStatement insertMember) {
+            this.nextId = firstId;
+            this.insertPerson = insertPerson;
+            this.insertXref = insertXref;
+            this.insertMember = insertMember;
+        }
+
+        @Override
+        public void person(String xref, String firstName, String lastName, LocalDate birthDate) {
+            try {
+                long id = nextId++;
+                insertPerson.setLong(1, id);
+                // ANSEL files give letters and accents as separate characters
+                String first = Normalizer.normalize(firstName, Normalizer.Form.NFC);
+                String last = Normalizer.normalize(lastName, Normalizer.Form.NFC);
+                insertPerson.setString(2, first);
+                insertPerson.setString(3, last);
+                insertPerson.setString(5, NameSortKey.of(first));
+                insertPerson.setString(6, NameSortKey.of(last));
+                if (birthDate == null) {
+                    insertPerson.setNull(4, Types.BIGINT);
+                } else {
+                    insertPerson.setLong(4, birthDate.toEpochDay());
+                }
+                insertPerson.addBatch();
+                if (xref != null) {
+                    insertXref.setString(1, xref);
+                    insertXref.setLong(2, id);
+                    insertXref.addBatch();
+                }
+                persons++;
+                if (++pendingPersons == BATCH_SIZE) {
+                    insertPerson.executeBatch();
+                    insertXref.executeBatch();
+                    pendingPersons = 0;
+                }
+            } catch (SQLException e) {
+                throw new BatchFailure(e);
+            }
+        }
+
+        @Override
+        public void familyMember(String familyXref, String personXref, boolean child) {
+            try {
+                insertMember.setString(1, familyXref);
+                insertMember.setString(2, personXref);
+                insertMember.setInt(3, child ? 1 : 0);
+                insertMember.addBatch();
+                if (++pendingMembers == BATCH_SIZE) {
+                    insertMember.executeBatch();
+                    pendingMembers = 0;
+                }
+            } catch (SQLException e) {
+                throw new BatchFailure(e);
+            }
+        }
+
+        void flush() throws SQLException {
+            insertPerson.executeBatch();
+            insertXref.executeBatch();
+            insertMember.executeBatch();
+        }
+    }
+
+    // Carries SQL errors out of the parser callbacks
+    private static final class BatchFailure extends RuntimeException {
+        BatchFailure(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
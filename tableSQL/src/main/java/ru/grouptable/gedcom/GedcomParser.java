@@ -0,0 +1,204 @@
+package ru.grouptable.gedcom;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Reads GEDCOM 5.5.1 and 7 files line by line and reports individuals and family
+ * members as soon as their record ends, so memory does not grow with the file.
+ * Only names, birth dates and family membership are read; everything else is skipped.
+ * A name may go on over CONC and CONT lines, as some programs split long ones.
+ */
+public class GedcomParser {
+    private static final String[] MONTHS = {
+        "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
+    };
+
+    public interface Handler {
+        void person(String xref, String firstName, String lastName, LocalDate birthDate);
+
+        void familyMember(String familyXref, String personXref, boolean child);
+    }
+
+    private final Handler handler;
+
+    // Individual record being read
+    private String personXref;
+    private String firstName;
+    private String lastName;
+    private boolean nameSeen;
+    // First NAME value until the CONC and CONT lines after it are read
+    private StringBuilder pendingName;
+    private LocalDate birthDate;
+    // Family record being read
+    private String familyXref;
+    // Level 1 tag the current level 2 lines belong to
+    private String parentTag;
+
+    public GedcomParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void parse(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            parseLine(line);
+        }
+        endRecord();
+    }
+
+    private void parseLine(String line) {
+        int start = 0;
+        int length = line.length();
+        if (length > 0 && line.charAt(0) == '\uFEFF') {
+            start = 1;
+        }
+        while (start < length && line.charAt(start) == ' ') {
+            start++;
+        }
+        int levelEnd = line.indexOf(' ', start);
+        if (levelEnd < 0) {
+            return;
+        }
+        int level;
+        try {
+            level = Integer.parseInt(line, start, levelEnd, 10);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        int tagStart = levelEnd + 1;
+        String xref = null;
+        if (tagStart < length && line.charAt(tagStart) == '@') {
+            int xrefEnd = line.indexOf(' ', tagStart);
+            if (xrefEnd < 0) {
+                return;
+            }
+            xref = line.substring(tagStart, xrefEnd);
+            tagStart = xrefEnd + 1;
+        }
+        int tagEnd = line.indexOf(' ', tagStart);
+        String tag = tagEnd < 0 ? line.substring(tagStart) : line.substring(tagStart, tagEnd);
+        // Continuations may start or end with a space that belongs to the value
+        String rawValue = tagEnd < 0 ? "" : line.substring(tagEnd + 1);
+        String value = rawValue.trim();
+
+        if (level == 0) {
+            endRecord();
+            if ("INDI".equals(tag)) {
+                personXref = xref;
+            } else if ("FAM".equals(tag)) {
+                familyXref = xref;
+            }
+        } else if (personXref != null) {
+            individualLine(level, tag, value, rawValue);
+        } else if (familyXref != null && level == 1) {
+            familyLine(tag, value);
+        }
+    }
+
+    private void individualLine(int level, String tag, String value, String rawValue) {
+        if (pendingName != null) {
+            if (level == 2 && "CONC".equals(tag)) {
+                pendingName.append(rawValue);
+                return;
+            }
+            if (level == 2 && "CONT".equals(tag)) {
+                // A line break has no place in a name
+                pendingName.append(' ').append(rawValue);
+                return;
+            }
+            endName();
+        }
+        if (level == 1) {
+            parentTag = tag;
+            if ("NAME".equals(tag) && !nameSeen) {
+                nameSeen = true;
+                pendingName = new StringBuilder(rawValue);
+            }
+        } else if (level == 2 && "NAME".equals(parentTag) && firstName != null) {
+            // Only the first NAME is used; its parts override the slashed form
+            if ("GIVN".equals(tag)) {
+                firstName = value;
+            } else if ("SURN".equals(tag)) {
+                lastName = value;
+            }
+        } else if (level == 2 && "BIRT".equals(parentTag) && "DATE".equals(tag) && birthDate == null) {
+            birthDate = parseDate(value);
+        }
+    }
+
+    private void familyLine(String tag, String value) {
+        if (!value.startsWith("@") || "@VOID@".equals(value)) {
+            return;
+        }
+        if ("HUSB".equals(tag) || "WIFE".equals(tag)) {
+            handler.familyMember(familyXref, value, false);
+        } else if ("CHIL".equals(tag)) {
+            handler.familyMember(familyXref, value, true);
+        }
+    }
+
+    private void endRecord() {
+        if (pendingName != null) {
+            endName();
+        }
+        if (personXref != null) {
+            handler.person(personXref, firstName == null ? "" : firstName,
+                lastName == null ? "" : lastName, birthDate);
+        }
+        personXref = null;
+        firstName = null;
+        lastName = null;
+        nameSeen = false;
+        birthDate = null;
+        familyXref = null;
+        parentTag = null;
+    }
+
+    private void endName() {
+        parseName(pendingName.toString().trim());
+        pendingName = null;
+    }
+
+    // "Иван /Иванов/" -> given name and surname
+    private void parseName(String value) {
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            firstName = value;
+            lastName = "";
+            return;
+        }
+        int closing = value.indexOf('/', slash + 1);
+        firstName = value.substring(0, slash).trim();
+        lastName = (closing < 0 ? value.substring(slash + 1) : value.substring(slash + 1, closing)).trim();
+    }
+
+    /**
+     * Exact Gregorian dates such as "12 MAR 1960". Periods, ranges, approximate and
+     * partial dates have no single day and are skipped.
+     */
+    static LocalDate parseDate(String value) {
+        String date = value.startsWith("@#DGREGORIAN@") ? value.substring(13).trim() : value;
+        if (date.startsWith("GREGORIAN ")) {
+            date = date.substring(10).trim();
+        }
+        String[] parts = date.split(" ");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            int day = Integer.parseInt(parts[0]);
+            int year = Integer.parseInt(parts[2]);
+            for (int month = 0; month < MONTHS.length; month++) {
+                if (MONTHS[month].equalsIgnoreCase(parts[1])) {
+                    return LocalDate.of(year, month + 1, day);
+                }
+            }
+        } catch (NumberFormatException | DateTimeException e) {
+            // Not an exact date
+        }
+        return null;
+    }
+}
@@ -0,0 +1,340 @@
+package ru.grouptable.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the persons of a KinshipGraph in an order where every parent comes before their
+ * children, so a new parent can only close a cycle if it comes after the child. Most checks
+ * end there; the rest search only the persons ranked between the two.
+ * Edits are applied incrementally (Pearce and Kelly): a new link that breaks the order
+ * reorders just the persons ranked between its ends. A graph that already holds a cycle,
+ * such as one from an imported file, has no such order; until the cycle is gone checks
+ * fall back to a full search.
+ */
+public class AncestryOrder {
+    // More changed persons than this are cheaper to order from scratch
+    private static final int MAX_INCREMENTAL_CHANGES = 1024;
+
+    private final KinshipGraph graph;
+
+    // Guarded by the graph's lock
+    private int[] rank = new int[16];
+    private int rankedCount;
+    private int nextRank;
+    private boolean cyclic;
+    private long seenVersion;
+    private int[] marks = new int[16];
+    private int markEpoch;
+
+    public AncestryOrder(KinshipGraph graph) {
+        this.graph = graph;
+        synchronized (graph) {
+            seenVersion = graph.version();
+            rebuild();
+        }
+    }
+
+    /**
+     * The first of the parents that is the person or one of their descendants, which would
+     * make the person their own ancestor; null if the parents are fine.
+     */
+    public Long findCycleParent(long personId, long[] parentIds) {
+        synchronized (graph) {
+            refresh();
+            int person = graph.indexOf(personId);
+            if (person < 0) {
+                // Nobody can descend from a person who is not saved yet
+                return null;
+            }
+            int epoch = nextEpoch();
+            int bound = -1;
+            for (long parentId : parentIds) {
+                int parent = graph.indexOf(parentId);
+                if (parent == person) {
+                    return parentId;
+                }
+                if (parent >= 0 && (cyclic || rank[parent] > rank[person])) {
+                    marks[parent] = epoch;
+                    bound = Math.max(bound, rank[parent]);
+                }
+            }
+            if (bound < 0) {
+                return null;
+            }
+            int found = searchDescendants(person, cyclic ? Integer.MAX_VALUE : bound, epoch);
+            return found < 0 ? null : graph.idAt(found);
+        }
+    }
+
+    public boolean hasCycles() {
+        synchronized (graph) {
+            refresh();
+            return cyclic;
+        }
+    }
+
+    // Groups of persons that are each other's ancestors, found with Tarjan's algorithm
+    public List<long[]> findCycles() {
+        synchronized (graph) {
+            refresh();
+            return cyclic ? new CycleSearch().run() : List.of();
+        }
+    }
+
+    // Stops at a person marked with the epoch, which is returned; -1 when none is reached
+    private int searchDescendants(int from, int maxRank, int targetEpoch) {
+        int visitEpoch = nextEpoch();
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = from;
+        marks[from] = visitEpoch;
+        while (size > 0) {
+            int person = stack[--size];
+            for (int child : graph.childIndices(person)) {
+                if (marks[child] == targetEpoch) {
+                    return child;
+                }
+                if (marks[child] != visitEpoch && rank[child] <= maxRank) {
+                    marks[child] = visitEpoch;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = child;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void refresh() {
+        long version = graph.version();
+        if (version == seenVersion) {
+            return;
+        }
+        int[] changed = graph.modifiedSince(seenVersion);
+        seenVersion = version;
+        ensureCapacity(graph.indexCount());
+        // Persons added since have no place yet; their links are checked with the changes
+        while (rankedCount < graph.indexCount()) {
+            rank[rankedCount++] = nextRank++;
+        }
+        if (cyclic || changed.length > MAX_INCREMENTAL_CHANGES) {
+            rebuild();
+            return;
+        }
+        for (int child : changed) {
+            for (int parent : graph.parentIndices(child)) {
+                if (rank[parent] > rank[child] && !reorder(parent, child)) {
+                    cyclic = true;
+                    return;
+                }
+            }
+        }
+        // Each reorder assumes the other links are in order, which several new ones at once may not be
+        for (int child : changed) {
+            for (int parent : graph.parentIndices(child)) {
+                if (rank[parent] > rank[child]) {
+                    rebuild();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the order after a link from parent to child that broke it: the child's descendants
+     * and the parent's ancestors ranked between them swap places. False if the child is
+     * an ancestor of the parent, a cycle.
+     */
+    private boolean reorder(int parent, int child) {
+        int lower = rank[child];
+        int upper = rank[parent];
+
+        int forwardEpoch = nextEpoch();
+        int[] forward = collect(child, forwardEpoch, true, lower, upper);
+        if (marks[parent] == forwardEpoch) {
+            return false;
+        }
+        int[] backward = collect(parent, nextEpoch(), false, lower, upper);
+
+        int[] ranks = new int[forward.length + backward.length];
+        for (int i = 0; i < backward.length; i++) {
+            ranks[i] = rank[backward[i]];
+        }
+        for (int i = 0; i < forward.length; i++) {
+            ranks[backward.length + i] = rank[forward[i]];
+        }
+        Arrays.sort(ranks);
+        sortByRank(backward);
+        sortByRank(forward);
+        int next = 0;
+        for (int person : backward) {
+            rank[person] = ranks[next++];
+        }
+        for (int person : forward) {
+            rank[person] = ranks[next++];
+        }
+        return true;
+    }
+
+    // Descendants (or ancestors) of the person ranked between lower and upper, the person included
+    private int[] collect(int from, int epoch, boolean down, int lower, int upper) {
+        int[] found = new int[16];
+        int count = 0;
+        marks[from] = epoch;
+        found[count++] = from;
+        for (int next = 0; next < count; next++) {
+            int person = found[next];
+            int[] relatives = down ? graph.childIndices(person) : graph.parentIndices(person);
+            for (int relative : relatives) {
+                if (marks[relative] != epoch && rank[relative] >= lower && rank[relative] <= upper) {
+                    marks[relative] = epoch;
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = relative;
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private void sortByRank(int[] persons) {
+        long[] keyed = new long[persons.length];
+        for (int i = 0; i < persons.length; i++) {
+            keyed[i] = (long) rank[persons[i]] << 32 | persons[i];
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < persons.length; i++) {
+            persons[i] = (int) keyed[i];
+        }
+    }
+
+    // Kahn's algorithm over the whole graph; persons on or below a cycle are ranked last
+    private void rebuild() {
+        int count = graph.indexCount();
+        ensureCapacity(count);
+        int[] pendingParents = new int[count];
+        int[] queue = new int[count];
+        int tail = 0;
+        for (int i = 0; i < count; i++) {
+            pendingParents[i] = graph.parentIndices(i).length;
+            if (pendingParents[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        nextRank = 0;
+        for (int head = 0; head < tail; head++) {
+            int person = queue[head];
+            rank[person] = nextRank++;
+            for (int child : graph.childIndices(person)) {
+                if (--pendingParents[child] == 0) {
+                    queue[tail++] = child;
+                }
+            }
+        }
+        cyclic = tail < count;
+        if (cyclic) {
+            for (int i = 0; i < count; i++) {
+                if (pendingParents[i] > 0) {
+                    rank[i] = nextRank++;
+                }
+            }
+        }
+        rankedCount = count;
+    }
+
+    private void ensureCapacity(int indexCount) {
+        if (indexCount > rank.length) {
+            int capacity = Math.max(indexCount, rank.length + (rank.length >> 1));
+            rank = Arrays.copyOf(rank, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+        }
+    }
+
+    private int nextEpoch() {
+        if (++markEpoch == 0) {
+            Arrays.fill(marks, 0);
+            markEpoch = 1;
+        }
+        return markEpoch;
+    }
+
+    // Iterative, so long chains cannot overflow the stack
+    private final class CycleSearch {
+        private final int count = graph.indexCount();
+        private final int[] index = new int[count];
+        private final int[] lowLink = new int[count];
+        private final boolean[] onStack = new boolean[count];
+        private final int[] stack = new int[count];
+        private int stackSize;
+        private int nextIndex = 1;
+        private final List<long[]> cycles = new ArrayList<>();
+
+        List<long[]> run() {
+            int[] callStack = new int[count];
+            int[] childPosition = new int[count];
+            for (int root = 0; root < count; root++) {
+                if (index[root] != 0) {
+                    continue;
+                }
+                int depth = 0;
+                callStack[depth] = root;
+                childPosition[depth] = 0;
+                visit(root);
+                while (depth >= 0) {
+                    int person = callStack[depth];
+                    int[] children = graph.childIndices(person);
+                    if (childPosition[depth] < children.length) {
+                        int child = children[childPosition[depth]++];
+                        if (index[child] == 0) {
+                            visit(child);
+                            callStack[++depth] = child;
+                            childPosition[depth] = 0;
+                        } else if (onStack[child]) {
+                            lowLink[person] = Math.min(lowLink[person], index[child]);
+                        }
+                    } else {
+                        if (lowLink[person] == index[person]) {
+                            popComponent(person);
+                        }
+                        depth--;
+                        if (depth >= 0) {
+                            int caller = callStack[depth];
+                            lowLink[caller] = Math.min(lowLink[caller], lowLink[person]);
+                        }
+                    }
+                }
+            }
+            return cycles;
+        }
+
+        private void visit(int person) {
+            index[person] = nextIndex;
+            lowLink[person] = nextIndex;
+            nextIndex++;
+            stack[stackSize++] = person;
+            onStack[person] = true;
+        }
+
+        private void popComponent(int root) {
+            int start = stackSize;
+            do {
+                start--;
+            } while (stack[start] != root);
+            for (int i = start; i < stackSize; i++) {
+                onStack[stack[i]] = false;
+            }
+            if (stackSize - start > 1) {
+                long[] ids = new long[stackSize - start];
+                for (int i = start; i < stackSize; i++) {
+                    ids[i - start] = graph.idAt(stack[i]);
+                }
+                cycles.add(ids);
+            }
+            stackSize = start;
+        }
+    }
+}
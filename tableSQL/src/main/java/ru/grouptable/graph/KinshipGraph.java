@@ -0,0 +1,384 @@
+package ru.grouptable.graph;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the parent/child relation keyed by dense int indices.
+ * Relatives are answered as index arrays, so no Person entities are touched.
+ */
+public class KinshipGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final LongIntMap indexById;
+    private long[] ids;
+    private String[] names;
+    private int[][] parents;
+    private int[][] children;
+    private int size;
+    private int liveCount;
+
+    // Bumped by every change; modified holds the version of the last change touching each person
+    private long version;
+    private long[] modified;
+
+    // Visit stamps used to deduplicate results without allocating sets
+    private int[] marks;
+    private int markEpoch;
+
+    public KinshipGraph() {
+        this(16);
+    }
+
+    public KinshipGraph(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        indexById = new LongIntMap(capacity);
+        ids = new long[capacity];
+        names = new String[capacity];
+        parents = new int[capacity][];
+        children = new int[capacity][];
+        marks = new int[capacity];
+        modified = new long[capacity];
+    }
+
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    public synchronized int indexOf(long id) {
+        return indexById.get(id);
+    }
+
+    public synchronized long idAt(int index) {
+        return ids[index];
+    }
+
+    public synchronized String nameAt(int index) {
+        return names[index];
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * True if any of the persons was changed, relinked or removed after the given version,
+     * including a child added to or removed from them.
+     */
+    public synchronized boolean changedSince(long[] personIds, long sinceVersion) {
+        if (version == sinceVersion) {
+            return false;
+        }
+        for (long id : personIds) {
+            int index = indexById.get(id);
+            if (index < 0 || modified[index] > sinceVersion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Persons with neither parents nor children
+    public synchronized long[] unlinkedIds() {
+        long[] result = new long[16];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (names[i] != null && parents[i].length == 0 && children[i].length == 0) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Persons changed, relinked or touched by a removal after the given version
+    public synchronized int[] modifiedSince(long sinceVersion) {
+        IntBuffer result = new IntBuffer();
+        if (version != sinceVersion) {
+            for (int i = 0; i < size; i++) {
+                if (modified[i] > sinceVersion) {
+                    result.add(i);
+                }
+            }
+        }
+        return result.toArray();
+    }
+
+    // Indices handed out so far, removed persons included
+    int indexCount() {
+        return size;
+    }
+
+    // Without copying; the caller holds the graph's lock and leaves the array alone
+    int[] parentIndices(int index) {
+        return parents[index];
+    }
+
+    int[] childIndices(int index) {
+        return children[index];
+    }
+
+    public synchronized int[] parentsOf(int index) {
+        return index < 0 ? EMPTY : parents[index].clone();
+    }
+
+    public synchronized int[] childrenOf(int index) {
+        return index < 0 ? EMPTY : children[index].clone();
+    }
+
+    public synchronized int[] siblingsOf(int index) {
+        if (index < 0) return EMPTY;
+        int epoch = nextEpoch();
+        marks[index] = epoch;
+        IntBuffer result = new IntBuffer();
+        collectChildren(parents[index], epoch, result);
+        return result.toArray();
+    }
+
+    public synchronized int[] unclesAndAuntsOf(int index) {
+        if (index < 0) return EMPTY;
+        int epoch = nextEpoch();
+        int[] ownParents = parents[index];
+        for (int parent : ownParents) {
+            marks[parent] = epoch;
+        }
+        IntBuffer result = new IntBuffer();
+        for (int parent : ownParents) {
+            collectChildren(parents[parent], epoch, result);
+        }
+        return result.toArray();
+    }
+
+    public synchronized int[] cousinsOf(int index) {
+        if (index < 0) return EMPTY;
+        int epoch = nextEpoch();
+        marks[index] = epoch;
+        int[] ownParents = parents[index];
+        // Siblings share a parent with us and are not cousins
+        for (int parent : ownParents) {
+            for (int sibling : children[parent]) {
+                marks[sibling] = epoch;
+            }
+        }
+        IntBuffer unclesAndAunts = new IntBuffer();
+        int auntEpoch = nextEpoch();
+        for (int parent : ownParents) {
+            marks[parent] = auntEpoch;
+        }
+        for (int parent : ownParents) {
+            collectChildren(parents[parent], auntEpoch, unclesAndAunts);
+        }
+        IntBuffer result = new IntBuffer();
+        for (int i = 0; i < unclesAndAunts.size; i++) {
+            for (int cousin : children[unclesAndAunts.data[i]]) {
+                if (marks[cousin] != epoch && marks[cousin] != auntEpoch) {
+                    marks[cousin] = epoch;
+                    result.add(cousin);
+                }
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Ancestors in breadth-first order, nearest generation first.
+     * A negative maxDepth means no limit.
+     */
+    public synchronized int[] ancestorsOf(int index, int maxDepth) {
+        if (index < 0) return EMPTY;
+        int epoch = nextEpoch();
+        marks[index] = epoch;
+        IntBuffer result = new IntBuffer();
+        int generationStart = 0;
+        for (int parent : parents[index]) {
+            if (marks[parent] != epoch) {
+                marks[parent] = epoch;
+                result.add(parent);
+            }
+        }
+        int depth = 1;
+        while (generationStart < result.size && (maxDepth < 0 || depth < maxDepth)) {
+            int generationEnd = result.size;
+            for (int i = generationStart; i < generationEnd; i++) {
+                for (int parent : parents[result.data[i]]) {
+                    if (marks[parent] != epoch) {
+                        marks[parent] = epoch;
+                        result.add(parent);
+                    }
+                }
+            }
+            generationStart = generationEnd;
+            depth++;
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Adds a person or replaces the name and parents of an existing one.
+     * Unknown parent ids are ignored.
+     */
+    public synchronized void put(long id, String firstName, String lastName, long[] parentIds) {
+        version++;
+        int index = indexById.get(id);
+        int[] oldParents = EMPTY;
+        if (index < 0) {
+            index = append(id);
+        } else {
+            oldParents = parents[index];
+            detachFromParents(index);
+        }
+        names[index] = formatName(firstName, lastName);
+        modified[index] = version;
+
+        int[] newParents = new int[parentIds.length];
+        int count = 0;
+        for (long parentId : parentIds) {
+            int parent = indexById.get(parentId);
+            if (parent >= 0 && parent != index && !contains(newParents, count, parent)) {
+                newParents[count++] = parent;
+                children[parent] = appendTo(children[parent], index);
+            }
+        }
+        parents[index] = count == newParents.length ? newParents : Arrays.copyOf(newParents, count);
+        // Only parents that gained or lost this child count as changed
+        touchMissing(oldParents, parents[index]);
+        touchMissing(parents[index], oldParents);
+    }
+
+    // Used by bulk loading, where all persons are known before the relations
+    public synchronized void link(long childId, long parentId) {
+        int child = indexById.get(childId);
+        int parent = indexById.get(parentId);
+        if (child < 0 || parent < 0 || child == parent || contains(parents[child], parents[child].length, parent)) {
+            return;
+        }
+        parents[child] = appendTo(parents[child], parent);
+        children[parent] = appendTo(children[parent], child);
+        version++;
+        modified[child] = version;
+        modified[parent] = version;
+    }
+
+    public synchronized void remove(long id) {
+        int index = indexById.get(id);
+        if (index < 0) return;
+        version++;
+        touchAll(parents[index]);
+        touchAll(children[index]);
+        detachFromParents(index);
+        for (int child : children[index]) {
+            parents[child] = without(parents[child], index);
+        }
+        parents[index] = EMPTY;
+        children[index] = EMPTY;
+        names[index] = null;
+        indexById.remove(id);
+        liveCount--;
+    }
+
+    private int append(long id) {
+        if (size == ids.length) {
+            int capacity = size + (size >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            children = Arrays.copyOf(children, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+            modified = Arrays.copyOf(modified, capacity);
+        }
+        int index = size++;
+        ids[index] = id;
+        parents[index] = EMPTY;
+        children[index] = EMPTY;
+        indexById.put(id, index);
+        liveCount++;
+        return index;
+    }
+
+    private void touchMissing(int[] indices, int[] from) {
+        for (int index : indices) {
+            if (!contains(from, from.length, index)) {
+                modified[index] = version;
+            }
+        }
+    }
+
+    private void touchAll(int[] indices) {
+        for (int index : indices) {
+            modified[index] = version;
+        }
+    }
+
+    private void detachFromParents(int index) {
+        for (int parent : parents[index]) {
+            children[parent] = without(children[parent], index);
+        }
+        parents[index] = EMPTY;
+    }
+
+    private void collectChildren(int[] ofParents, int epoch, IntBuffer result) {
+        for (int parent : ofParents) {
+            for (int child : children[parent]) {
+                if (marks[child] != epoch) {
+                    marks[child] = epoch;
+                    result.add(child);
+                }
+            }
+        }
+    }
+
+    private int nextEpoch() {
+        if (++markEpoch == 0) {
+            Arrays.fill(marks, 0);
+            markEpoch = 1;
+        }
+        return markEpoch;
+    }
+
+    private static String formatName(String firstName, String lastName) {
+        return firstName + " " + lastName;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    private static int[] appendTo(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] without(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                if (values.length == 1) return EMPTY;
+                int[] result = new int[values.length - 1];
+                System.arraycopy(values, 0, result, 0, i);
+                System.arraycopy(values, i + 1, result, i, values.length - i - 1);
+                return result;
+            }
+        }
+        return values;
+    }
+
+    private static final class IntBuffer {
+        private int[] data = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return size == 0 ? EMPTY : Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.grouptable.graph;
+
+import java.util.Arrays;
+
+// Open-addressing long -> int map, avoids boxing person ids on every lookup
+class LongIntMap {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final long REMOVED = Long.MIN_VALUE + 1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int used;
+
+    LongIntMap() {
+        this(16);
+    }
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    int get(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void put(long key, int value) {
+        if ((used + 1) * 4 >= keys.length * 3) {
+            rehash(size * 4 >= keys.length ? keys.length * 2 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        int firstRemoved = -1;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                values[slot] = value;
+                return;
+            }
+            if (k == REMOVED && firstRemoved == -1) {
+                firstRemoved = slot;
+            } else if (k == FREE) {
+                if (firstRemoved != -1) {
+                    slot = firstRemoved;
+                } else {
+                    used++;
+                }
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                keys[slot] = REMOVED;
+                size--;
+                return;
+            }
+            if (k == FREE) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE && oldKeys[i] != REMOVED) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
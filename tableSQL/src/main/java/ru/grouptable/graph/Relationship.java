@@ -0,0 +1,64 @@
+package ru.grouptable.graph;
+
+/**
+ * How the second person is related to the first by blood: the nearest common ancestors and
+ * how many generations each of the two is below them. A person is their own ancestor at
+ * generation 0, so direct lines have one side at 0.
+ */
+public class Relationship {
+    private static final long[] NONE = new long[0];
+
+    private final long firstId;
+    private final long secondId;
+    private final long[] commonAncestorIds;
+    private final int firstGenerations;
+    private final int secondGenerations;
+
+    public Relationship(long firstId, long secondId, long[] commonAncestorIds,
+                        int firstGenerations, int secondGenerations) {
+        this.firstId = firstId;
+        this.secondId = secondId;
+        this.commonAncestorIds = commonAncestorIds;
+        this.firstGenerations = firstGenerations;
+        this.secondGenerations = secondGenerations;
+    }
+
+    static Relationship unrelated(long firstId, long secondId) {
+        return new Relationship(firstId, secondId, NONE, -1, -1);
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    public long getSecondId() {
+        return secondId;
+    }
+
+    public boolean isRelated() {
+        return commonAncestorIds.length > 0;
+    }
+
+    // Usually one person or a couple
+    public long[] getCommonAncestorIds() {
+        return commonAncestorIds.clone();
+    }
+
+    public int getFirstGenerations() {
+        return firstGenerations;
+    }
+
+    public int getSecondGenerations() {
+        return secondGenerations;
+    }
+
+    // Who the second person is to the first, e.g. "троюродный брат/троюродная сестра"
+    public String getName() {
+        return isRelated() ? RelationshipNames.of(firstGenerations, secondGenerations) : "нет кровного родства";
+    }
+
+    @Override
+    public String toString() {
+        return secondId + " -> " + firstId + ": " + getName();
+    }
+}
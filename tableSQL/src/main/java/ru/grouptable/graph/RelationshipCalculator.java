@@ -0,0 +1,274 @@
+package ru.grouptable.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Answers how two persons of a KinshipGraph are related. Each person gets an ancestor table:
+ * all of their ancestors, themselves included, with the nearest generation each is found at,
+ * sorted by graph index. The nearest common ancestors of two persons come from one merge of
+ * their tables, without walking the graph.
+ * Tables are built on first use and kept until an edit reaches them: changed persons and all
+ * their descendants lose theirs, everyone else keeps theirs across edits.
+ */
+public class RelationshipCalculator {
+    // Cached table entries kept before all tables are dropped
+    private static final int MAX_CACHED_ENTRIES = 8_000_000;
+
+    private final KinshipGraph graph;
+    private final int maxCachedEntries;
+
+    // Guarded by the graph's lock, which also keeps it still while tables are built
+    private AncestorTable[] tables = new AncestorTable[16];
+    private int cachedEntries;
+    private long seenVersion;
+    private int[] marks = new int[16];
+    private int markEpoch;
+
+    public RelationshipCalculator(KinshipGraph graph) {
+        this(graph, MAX_CACHED_ENTRIES);
+    }
+
+    // A lower limit lets tests reach the point where all tables are dropped
+    RelationshipCalculator(KinshipGraph graph, int maxCachedEntries) {
+        this.graph = graph;
+        this.maxCachedEntries = maxCachedEntries;
+        this.seenVersion = graph.version();
+    }
+
+    public Relationship relationship(long firstId, long secondId) {
+        AncestorTable first;
+        AncestorTable second;
+        synchronized (graph) {
+            refresh();
+            first = tableOf(graph.indexOf(firstId));
+            second = tableOf(graph.indexOf(secondId));
+            if (first == null || second == null) {
+                return Relationship.unrelated(firstId, secondId);
+            }
+            return toRelationship(firstId, secondId, first.nearestCommon(second));
+        }
+    }
+
+    /**
+     * Relationships of every pair of the given persons, (0, 1), (0, 2) ... (1, 2) ... in that
+     * order. Ancestor tables are built first, then the pairs are merged in parallel.
+     */
+    public List<Relationship> relationships(long[] ids) {
+        AncestorTable[] selected = new AncestorTable[ids.length];
+        synchronized (graph) {
+            refresh();
+            for (int i = 0; i < ids.length; i++) {
+                selected[i] = tableOf(graph.indexOf(ids[i]));
+            }
+        }
+
+        CommonAncestors[][] found = IntStream.range(0, ids.length).parallel()
+            .mapToObj(i -> {
+                CommonAncestors[] row = new CommonAncestors[ids.length - i - 1];
+                for (int j = i + 1; j < ids.length; j++) {
+                    if (selected[i] != null && selected[j] != null) {
+                        row[j - i - 1] = selected[i].nearestCommon(selected[j]);
+                    }
+                }
+                return row;
+            })
+            .toArray(CommonAncestors[][]::new);
+
+        List<Relationship> result = new ArrayList<>(ids.length * Math.max(0, ids.length - 1) / 2);
+        synchronized (graph) {
+            for (int i = 0; i < ids.length; i++) {
+                for (int j = i + 1; j < ids.length; j++) {
+                    result.add(toRelationship(ids[i], ids[j], found[i][j - i - 1]));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Relationship toRelationship(long firstId, long secondId, CommonAncestors common) {
+        if (common == null) {
+            return Relationship.unrelated(firstId, secondId);
+        }
+        long[] ancestorIds = new long[common.indices.length];
+        for (int i = 0; i < ancestorIds.length; i++) {
+            ancestorIds[i] = graph.idAt(common.indices[i]);
+        }
+        return new Relationship(firstId, secondId, ancestorIds, common.firstGenerations, common.secondGenerations);
+    }
+
+    // Drops the tables of persons whose ancestry changed since the last call
+    private void refresh() {
+        long version = graph.version();
+        if (version == seenVersion) {
+            return;
+        }
+        if (cachedEntries > 0) {
+            int[] changed = graph.modifiedSince(seenVersion);
+            if (changed.length > 0) {
+                ensureCapacity(graph.indexCount());
+                int epoch = nextEpoch();
+                int[] queue = new int[Math.max(16, changed.length)];
+                int tail = 0;
+                for (int index : changed) {
+                    marks[index] = epoch;
+                    queue[tail++] = index;
+                }
+                for (int head = 0; head < tail; head++) {
+                    int index = queue[head];
+                    if (tables[index] != null) {
+                        cachedEntries -= tables[index].indices.length;
+                        tables[index] = null;
+                    }
+                    for (int child : graph.childIndices(index)) {
+                        if (marks[child] != epoch) {
+                            marks[child] = epoch;
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, tail * 2);
+                            }
+                            queue[tail++] = child;
+                        }
+                    }
+                }
+            }
+        }
+        seenVersion = version;
+    }
+
+    private AncestorTable tableOf(int index) {
+        if (index < 0) {
+            return null;
+        }
+        ensureCapacity(graph.indexCount());
+        AncestorTable table = tables[index];
+        if (table == null) {
+            table = buildTable(index);
+            if (cachedEntries + table.indices.length > maxCachedEntries) {
+                Arrays.fill(tables, null);
+                cachedEntries = 0;
+            }
+            tables[index] = table;
+            cachedEntries += table.indices.length;
+        }
+        return table;
+    }
+
+    // Breadth-first, so each ancestor is first reached at its nearest generation
+    private AncestorTable buildTable(int index) {
+        int epoch = nextEpoch();
+        long[] found = new long[16];
+        int count = 0;
+        marks[index] = epoch;
+        found[count++] = pack(index, 0);
+        for (int head = 0; head < count; head++) {
+            int person = (int) (found[head] >>> 32);
+            int generation = (int) found[head] + 1;
+            for (int parent : graph.parentIndices(person)) {
+                if (marks[parent] != epoch) {
+                    marks[parent] = epoch;
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = pack(parent, generation);
+                }
+            }
+        }
+        // Indices are the high bits, so this sorts by index
+        Arrays.sort(found, 0, count);
+        int[] indices = new int[count];
+        int[] generations = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = (int) (found[i] >>> 32);
+            generations[i] = (int) found[i];
+        }
+        return new AncestorTable(indices, generations);
+    }
+
+    private static long pack(int index, int generation) {
+        return (long) index << 32 | generation;
+    }
+
+    private void ensureCapacity(int indexCount) {
+        if (indexCount > tables.length) {
+            int capacity = Math.max(indexCount, tables.length + (tables.length >> 1));
+            tables = Arrays.copyOf(tables, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+        }
+    }
+
+    private int nextEpoch() {
+        if (++markEpoch == 0) {
+            Arrays.fill(marks, 0);
+            markEpoch = 1;
+        }
+        return markEpoch;
+    }
+
+    private static final class AncestorTable {
+        private final int[] indices;
+        private final int[] generations;
+
+        AncestorTable(int[] indices, int[] generations) {
+            this.indices = indices;
+            this.generations = generations;
+        }
+
+        /**
+         * Common ancestors with the fewest generations to both persons, preferring the most even
+         * split between them; null if there are none. Ancestors of those are farther from both,
+         * so the ones found are always the lowest.
+         */
+        CommonAncestors nearestCommon(AncestorTable other) {
+            int bestFirst = -1;
+            int bestSecond = -1;
+            int[] best = new int[2];
+            int bestCount = 0;
+            int i = 0;
+            int j = 0;
+            while (i < indices.length && j < other.indices.length) {
+                if (indices[i] < other.indices[j]) {
+                    i++;
+                } else if (indices[i] > other.indices[j]) {
+                    j++;
+                } else {
+                    int first = generations[i];
+                    int second = other.generations[j];
+                    if (bestFirst < 0 || isNearer(first, second, bestFirst, bestSecond)) {
+                        bestFirst = first;
+                        bestSecond = second;
+                        bestCount = 0;
+                    }
+                    if (first == bestFirst && second == bestSecond) {
+                        if (bestCount == best.length) {
+                            best = Arrays.copyOf(best, bestCount * 2);
+                        }
+                        best[bestCount++] = indices[i];
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            return bestFirst < 0 ? null : new CommonAncestors(Arrays.copyOf(best, bestCount), bestFirst, bestSecond);
+        }
+
+        private static boolean isNearer(int first, int second, int bestFirst, int bestSecond) {
+            int sum = first + second;
+            int bestSum = bestFirst + bestSecond;
+            return sum < bestSum || sum == bestSum && Math.abs(first - second) < Math.abs(bestFirst - bestSecond);
+        }
+    }
+
+    private static final class CommonAncestors {
+        private final int[] indices;
+        private final int firstGenerations;
+        private final int secondGenerations;
+
+        CommonAncestors(int[] indices, int firstGenerations, int secondGenerations) {
+            this.indices = indices;
+            this.firstGenerations = firstGenerations;
+            this.secondGenerations = secondGenerations;
+        }
+    }
+}
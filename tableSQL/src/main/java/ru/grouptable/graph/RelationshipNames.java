@@ -0,0 +1,72 @@
+package ru.grouptable.graph;
+
+/**
+ * Russian names of blood relationships. Persons have no recorded sex, so every name gives
+ * the male and the female form. Lateral relatives follow the usual counting: children of
+ * siblings are cousins ("двоюродные"), a grandparent's sibling is a "двоюродный дедушка".
+ */
+final class RelationshipNames {
+    private static final String[] DEGREES = {
+        "", "двоюродн", "троюродн", "четвероюродн", "пятиюродн",
+        "шестиюродн", "семиюродн", "восьмиюродн", "девятиюродн", "десятиюродн"
+    };
+
+    private RelationshipNames() {
+    }
+
+    /**
+     * The second person as seen by the first, given how many generations each of them
+     * is below their nearest common ancestor.
+     */
+    static String of(int first, int second) {
+        if (first == 0 && second == 0) {
+            return "тот же человек";
+        }
+        if (first == 0) {
+            return descendant(second);
+        }
+        if (second == 0) {
+            return ancestor(first);
+        }
+        int nearest = Math.min(first, second);
+        int difference = Math.abs(first - second);
+        if (difference == 0) {
+            return both(nearest - 1, "", "брат", "сестра");
+        }
+        if (difference == 1) {
+            return second < first
+                ? both(nearest - 1, "", "дядя", "тётя")
+                : both(nearest - 1, "", "племянник", "племянница");
+        }
+        String great = greats(difference - 2);
+        return second < first
+            ? both(nearest, great, "дедушка", "бабушка")
+            : both(nearest, great, "внук", "внучка");
+    }
+
+    private static String descendant(int generations) {
+        if (generations == 1) {
+            return "сын/дочь";
+        }
+        return both(0, greats(generations - 2), "внук", "внучка");
+    }
+
+    private static String ancestor(int generations) {
+        if (generations == 1) {
+            return "отец/мать";
+        }
+        return both(0, greats(generations - 2), "дедушка", "бабушка");
+    }
+
+    private static String both(int degree, String great, String male, String female) {
+        if (degree == 0) {
+            return great + male + "/" + great + female;
+        }
+        String stem = degree < DEGREES.length ? DEGREES[degree] : (degree + 1) + "-юродн";
+        return stem + "ый " + great + male + "/" + stem + "ая " + great + female;
+    }
+
+    private static String greats(int count) {
+        return "пра".repeat(count);
+    }
+}
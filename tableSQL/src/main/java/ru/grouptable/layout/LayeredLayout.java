@@ -0,0 +1,499 @@
+package ru.grouptable.layout;
+
+import ru.grouptable.entity.Person;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Layered (Sugiyama) layout of the ancestors of one person. A pedigree with shared ancestors
+ * is a DAG rather than a tree, so every ancestor gets exactly one card, in the row of their
+ * longest line to the root: a parent always sits above all of their children. Links that skip
+ * rows pass through placeholder nodes that keep a lane free in each row between.
+ * The order within rows starts from a depth-first walk and is improved by barycenter sweeps
+ * that keep the order with the fewest crossings; reduceCrossings can be called again, from
+ * any one thread at a time, until isConverged. Card centers then follow their parents and
+ * children as closely as the spacing in each row allows.
+ */
+final class LayeredLayout {
+    // Rounds in a row without fewer crossings before the order is taken as final
+    private static final int ROUNDS_TO_CONVERGE = 4;
+    private static final int COORDINATE_PASSES = 4;
+    private static final double UNLINKED_WEIGHT = 0.01;
+    private static final Comparator<Person> BY_ID = Comparator.comparing(Person::getId);
+
+    private final Person[] persons;
+    // Persons first, then placeholders
+    private final int[] layer;
+    private final int[][] up;
+    private final int[][] down;
+    private final int[][] layers;
+    private final int[] position;
+    private int[][] bestLayers;
+    private long bestCrossings;
+    private int rounds;
+    private int roundsWithoutGain;
+    private volatile boolean converged;
+    private double[] centers;
+
+    LayeredLayout(Person root) {
+        Person[] found = new Person[16];
+        int[] depths = new int[16];
+        int[][] parentLists = new int[16][];
+        Map<Person, Integer> indexOf = new HashMap<>();
+        found[0] = root;
+        indexOf.put(root, 0);
+        int personCount = 1;
+        for (int head = 0; head < personCount; head++) {
+            Person[] parents = found[head].getParents().toArray(new Person[0]);
+            Arrays.sort(parents, BY_ID);
+            int[] indices = new int[parents.length];
+            for (int i = 0; i < parents.length; i++) {
+                Integer index = indexOf.get(parents[i]);
+                if (index == null) {
+                    if (personCount == found.length) {
+                        found = Arrays.copyOf(found, personCount * 2);
+                        depths = Arrays.copyOf(depths, personCount * 2);
+                        parentLists = Arrays.copyOf(parentLists, personCount * 2);
+                    }
+                    index = personCount++;
+                    found[index] = parents[i];
+                    depths[index] = depths[head] + 1;
+                    indexOf.put(parents[i], index);
+                }
+                indices[i] = index;
+            }
+            parentLists[head] = indices;
+        }
+        persons = Arrays.copyOf(found, personCount);
+        int[] personLayer = assignLayers(parentLists, depths);
+
+        // Placeholders for links that skip rows
+        int count = personCount;
+        for (int child = 0; child < personCount; child++) {
+            for (int parent : parentLists[child]) {
+                count += Math.max(0, personLayer[parent] - personLayer[child] - 1);
+            }
+        }
+        layer = Arrays.copyOf(personLayer, count);
+        up = new int[count][];
+        down = new int[count][];
+        int[] childLinks = new int[personCount];
+        int next = personCount;
+        for (int child = 0; child < personCount; child++) {
+            int[] parents = parentLists[child];
+            int[] links = new int[parents.length];
+            int kept = 0;
+            for (int parent : parents) {
+                // Links kept out of the rows by a cycle are drawn but not laid out
+                if (personLayer[parent] <= personLayer[child]) {
+                    continue;
+                }
+                int below = child;
+                for (int row = personLayer[child] + 1; row < personLayer[parent]; row++) {
+                    int placeholder = next++;
+                    layer[placeholder] = row;
+                    down[placeholder] = new int[]{below};
+                    if (below == child) {
+                        links[kept] = placeholder;
+                    } else {
+                        up[below] = new int[]{placeholder};
+                    }
+                    below = placeholder;
+                }
+                if (below == child) {
+                    links[kept] = parent;
+                } else {
+                    up[below] = new int[]{parent};
+                }
+                kept++;
+                childLinks[parent]++;
+            }
+            up[child] = kept == links.length ? links : Arrays.copyOf(links, kept);
+        }
+        for (int v = 0; v < personCount; v++) {
+            down[v] = new int[childLinks[v]];
+        }
+        int[] filled = new int[personCount];
+        int maxLayer = 0;
+        for (int v = 0; v < count; v++) {
+            for (int w : up[v]) {
+                if (w < personCount) {
+                    down[w][filled[w]++] = v;
+                }
+            }
+            maxLayer = Math.max(maxLayer, layer[v]);
+        }
+        layers = initialOrder(maxLayer + 1);
+        position = new int[count];
+        updatePositions();
+        bestLayers = copy(layers);
+        bestCrossings = crossings();
+        converged = bestCrossings == 0;
+        assignCoordinates();
+    }
+
+    /**
+     * Longest path from the root, found in an order where children come before parents.
+     * Persons on or above a cycle have no such order and keep their breadth-first depth.
+     */
+    private int[] assignLayers(int[][] parentLists, int[] depths) {
+        int count = persons.length;
+        int[] pendingChildren = new int[count];
+        for (int v = 0; v < count; v++) {
+            for (int parent : parentLists[v]) {
+                pendingChildren[parent]++;
+            }
+        }
+        int[] result = new int[count];
+        boolean[] ordered = new boolean[count];
+        int[] queue = new int[count];
+        int tail = 0;
+        for (int v = 0; v < count; v++) {
+            if (pendingChildren[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int child = queue[head];
+            ordered[child] = true;
+            for (int parent : parentLists[child]) {
+                result[parent] = Math.max(result[parent], result[child] + 1);
+                if (--pendingChildren[parent] == 0) {
+                    queue[tail++] = parent;
+                }
+            }
+        }
+        for (int v = 0; v < count; v++) {
+            if (!ordered[v]) {
+                result[v] = Math.max(result[v], depths[v]);
+            }
+        }
+        return result;
+    }
+
+    // Depth-first from the root with parents by id, which keeps each line of ancestors together
+    private int[][] initialOrder(int layerCount) {
+        int[] sizes = new int[layerCount];
+        for (int v : layer) {
+            sizes[v]++;
+        }
+        int[][] result = new int[layerCount][];
+        for (int l = 0; l < layerCount; l++) {
+            result[l] = new int[sizes[l]];
+        }
+        int[] filled = new int[layerCount];
+        boolean[] visited = new boolean[layer.length];
+        int[] stack = new int[16];
+        for (int start = 0; start < layer.length; start++) {
+            if (visited[start]) {
+                continue;
+            }
+            int size = 0;
+            stack[size++] = start;
+            visited[start] = true;
+            while (size > 0) {
+                int v = stack[--size];
+                result[layer[v]][filled[layer[v]]++] = v;
+                for (int i = up[v].length - 1; i >= 0; i--) {
+                    int next = up[v][i];
+                    if (!visited[next]) {
+                        visited[next] = true;
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, size * 2);
+                        }
+                        stack[size++] = next;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs rounds of barycenter sweeps, each row ordered by the mean position of its links into
+     * the row just done, followed by swaps of neighbours. Returns once a round has improved the
+     * order after returnAfter, or at the deadline or convergence; whether the order got better,
+     * in which case card positions are updated. Stops early when the thread is interrupted.
+     */
+    boolean reduceCrossings(long returnAfter, long deadline) {
+        long before = bestCrossings;
+        while (!converged && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            if (bestCrossings < before && System.nanoTime() >= returnAfter) {
+                break;
+            }
+            boolean finished = true;
+            // The first round only swaps neighbours; upward rounds follow the rows below,
+            // downward ones the rows above
+            int round = rounds;
+            if (round % 2 == 1) {
+                for (int l = 1; l < layers.length && finished; l++) {
+                    sortByBarycenter(l, down);
+                    finished = System.nanoTime() < deadline;
+                }
+            } else if (round > 0) {
+                for (int l = layers.length - 2; l >= 0 && finished; l--) {
+                    sortByBarycenter(l, up);
+                    finished = System.nanoTime() < deadline;
+                }
+            }
+            boolean swapped = true;
+            while (swapped && finished) {
+                swapped = false;
+                for (int l = 0; l < layers.length && finished; l++) {
+                    swapped |= transpose(l);
+                    finished = System.nanoTime() < deadline;
+                }
+            }
+            if (!finished) {
+                break;
+            }
+            rounds++;
+            long crossings = crossings();
+            if (crossings < bestCrossings) {
+                bestCrossings = crossings;
+                bestLayers = copy(layers);
+                roundsWithoutGain = 0;
+            } else {
+                // Sweeps from a worse order tend to drift further off
+                restoreBest();
+                if (++roundsWithoutGain >= ROUNDS_TO_CONVERGE) {
+                    converged = true;
+                }
+            }
+            if (bestCrossings == 0) {
+                converged = true;
+            }
+        }
+        // A round cut short leaves a worse order behind
+        restoreBest();
+        if (bestCrossings < before) {
+            assignCoordinates();
+            return true;
+        }
+        return false;
+    }
+
+    boolean isConverged() {
+        return converged;
+    }
+
+    long getCrossings() {
+        return bestCrossings;
+    }
+
+    int personCount() {
+        return persons.length;
+    }
+
+    Person personAt(int v) {
+        return persons[v];
+    }
+
+    int layerOf(int v) {
+        return layer[v];
+    }
+
+    double centerOf(int v) {
+        return centers[v];
+    }
+
+    // Stable, so nodes with equal barycenters and nodes without links keep their relative order
+    private void sortByBarycenter(int l, int[][] links) {
+        int[] row = layers[l];
+        double[] keys = new double[row.length];
+        Integer[] order = new Integer[row.length];
+        for (int i = 0; i < row.length; i++) {
+            int[] linked = links[row[i]];
+            if (linked.length == 0) {
+                keys[i] = i;
+            } else {
+                double sum = 0;
+                for (int w : linked) {
+                    sum += position[w];
+                }
+                keys[i] = sum / linked.length;
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> keys[i]));
+        int[] sorted = new int[row.length];
+        for (int i = 0; i < row.length; i++) {
+            sorted[i] = row[order[i]];
+        }
+        System.arraycopy(sorted, 0, row, 0, row.length);
+        for (int i = 0; i < row.length; i++) {
+            position[row[i]] = i;
+        }
+    }
+
+    // Swaps neighbours in a row wherever that removes crossings with the rows on both sides
+    private boolean transpose(int l) {
+        int[] row = layers[l];
+        boolean swapped = false;
+        for (int i = 0; i + 1 < row.length; i++) {
+            int left = row[i];
+            int right = row[i + 1];
+            if (pairCrossings(right, left) < pairCrossings(left, right)) {
+                row[i] = right;
+                row[i + 1] = left;
+                position[right] = i;
+                position[left] = i + 1;
+                swapped = true;
+            }
+        }
+        return swapped;
+    }
+
+    // Crossings among the links of two nodes of a row, the first placed left of the second
+    private int pairCrossings(int left, int right) {
+        return inversions(up[left], up[right]) + inversions(down[left], down[right]);
+    }
+
+    private int inversions(int[] left, int[] right) {
+        int count = 0;
+        for (int a : left) {
+            for (int b : right) {
+                if (position[a] > position[b]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Inversions of the links between each pair of rows, counted with a Fenwick tree
+    private long crossings() {
+        long total = 0;
+        for (int l = 0; l + 1 < layers.length; l++) {
+            long[] tree = new long[layers[l + 1].length + 1];
+            long inserted = 0;
+            for (int v : layers[l]) {
+                int[] ends = new int[up[v].length];
+                for (int i = 0; i < ends.length; i++) {
+                    ends[i] = position[up[v][i]];
+                }
+                Arrays.sort(ends);
+                for (int end : ends) {
+                    long notAbove = 0;
+                    for (int i = end + 1; i > 0; i -= i & -i) {
+                        notAbove += tree[i];
+                    }
+                    total += inserted - notAbove;
+                    for (int i = end + 1; i < tree.length; i += i & -i) {
+                        tree[i]++;
+                    }
+                    inserted++;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Pulls parents over their children row by row going up, then children under their parents
+     * going down, so the last pass centers each child under their parents wherever the spacing
+     * allows. Within a row that is a weighted isotonic regression with the order and spacing
+     * fixed, solved by pooling adjacent violators.
+     */
+    private void assignCoordinates() {
+        double[] x = new double[layer.length];
+        for (int[] row : layers) {
+            for (int i = 1; i < row.length; i++) {
+                x[row[i]] = x[row[i - 1]] + separation(row[i - 1], row[i]);
+            }
+        }
+        for (int pass = 0; pass < COORDINATE_PASSES; pass++) {
+            for (int l = 1; l < layers.length; l++) {
+                alignRow(layers[l], down, x);
+            }
+            for (int l = layers.length - 2; l >= 0; l--) {
+                alignRow(layers[l], up, x);
+            }
+        }
+        centers = x;
+    }
+
+    private void alignRow(int[] row, int[][] links, double[] x) {
+        int n = row.length;
+        if (n == 0) {
+            return;
+        }
+        // With offsets taken out, the spacing constraints become a non-decreasing order
+        double[] offset = new double[n];
+        double[] weight = new double[n];
+        double[] target = new double[n];
+        for (int i = 0; i < n; i++) {
+            int v = row[i];
+            if (i > 0) {
+                offset[i] = offset[i - 1] + separation(row[i - 1], v);
+            }
+            double sum = 0;
+            for (int w : links[v]) {
+                sum += x[w];
+            }
+            int count = links[v].length;
+            // Unlinked nodes only keep their place if nothing pushes them
+            weight[i] = count > 0 ? count : UNLINKED_WEIGHT;
+            target[i] = (count > 0 ? sum / count : x[v]) - offset[i];
+        }
+        double[] blockWeight = new double[n];
+        double[] blockSum = new double[n];
+        int[] blockSize = new int[n];
+        int blocks = 0;
+        for (int i = 0; i < n; i++) {
+            blockWeight[blocks] = weight[i];
+            blockSum[blocks] = weight[i] * target[i];
+            blockSize[blocks] = 1;
+            blocks++;
+            while (blocks > 1 && blockSum[blocks - 2] / blockWeight[blocks - 2]
+                > blockSum[blocks - 1] / blockWeight[blocks - 1]) {
+                blockWeight[blocks - 2] += blockWeight[blocks - 1];
+                blockSum[blocks - 2] += blockSum[blocks - 1];
+                blockSize[blocks - 2] += blockSize[blocks - 1];
+                blocks--;
+            }
+        }
+        int i = 0;
+        for (int b = 0; b < blocks; b++) {
+            double value = blockSum[b] / blockWeight[b];
+            for (int k = 0; k < blockSize[b]; k++, i++) {
+                x[row[i]] = value + offset[i];
+            }
+        }
+    }
+
+    // Between centers; placeholders take no width
+    private double separation(int left, int right) {
+        return (width(left) + width(right)) / 2.0 + TreeLayout.HORIZONTAL_GAP;
+    }
+
+    private int width(int v) {
+        return v < persons.length ? TreeLayout.PERSON_WIDTH : 0;
+    }
+
+    private void restoreBest() {
+        for (int l = 0; l < layers.length; l++) {
+            System.arraycopy(bestLayers[l], 0, layers[l], 0, layers[l].length);
+        }
+        updatePositions();
+    }
+
+    private void updatePositions() {
+        for (int[] row : layers) {
+            for (int i = 0; i < row.length; i++) {
+                position[row[i]] = i;
+            }
+        }
+    }
+
+    private static int[][] copy(int[][] rows) {
+        int[][] result = new int[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            result[i] = rows[i].clone();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package ru.grouptable.layout;
+
+import ru.grouptable.entity.Person;
+import ru.grouptable.graph.KinshipGraph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently shown layouts by root and display mode. A layout stays valid until the
+ * kinship graph reports a change to one of the persons it was computed from,
+ * so edits elsewhere in the tree keep it.
+ */
+public class LayoutCache {
+    private static final int MAX_LAYOUTS = 64;
+
+    private KinshipGraph graph;
+    private final Map<Long, TreeLayout> layouts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, TreeLayout> eldest) {
+            return size() > MAX_LAYOUTS;
+        }
+    };
+
+    // Nothing is cached until the graph of the current database is known
+    public void setGraph(KinshipGraph graph) {
+        this.graph = graph;
+        layouts.clear();
+    }
+
+    // Read before loading the persons a layout is computed from
+    public long currentVersion() {
+        return graph == null ? -1 : graph.version();
+    }
+
+    public TreeLayout get(long rootId, TreeView view, boolean siblingsMode, boolean showUnclesAndAunts) {
+        if (graph == null) {
+            return null;
+        }
+        long key = key(rootId, view, siblingsMode, showUnclesAndAunts);
+        TreeLayout layout = layouts.get(key);
+        if (layout == null) {
+            return null;
+        }
+        long version = graph.version();
+        if (graph.changedSince(layout.getDependencyIds(), layout.getGraphVersion())) {
+            layouts.remove(key);
+            return null;
+        }
+        layout.setGraphVersion(version);
+        return layout;
+    }
+
+    public TreeLayout getOrCompute(Person root, TreeView view, boolean siblingsMode, boolean showUnclesAndAunts,
+                                   long graphVersion) {
+        TreeLayout layout = get(root.getId(), view, siblingsMode, showUnclesAndAunts);
+        if (layout != null) {
+            return layout;
+        }
+        layout = TreeLayout.compute(root, view, siblingsMode, showUnclesAndAunts, graphVersion);
+        if (graph != null && graphVersion >= 0) {
+            layouts.put(key(root.getId(), view, siblingsMode, showUnclesAndAunts), layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Swaps in a refined layout for the cached one it shares its rows with, whether or not it
+     * is still shown: the rows have moved on either way. Nothing changes if the cached layout
+     * was dropped or computed again meanwhile.
+     */
+    public void replace(TreeLayout refined) {
+        long key = key(refined);
+        TreeLayout cached = layouts.get(key);
+        if (cached != null && cached.sharesRowsWith(refined)) {
+            refined.setGraphVersion(cached.getGraphVersion());
+            layouts.put(key, refined);
+        }
+    }
+
+    // Only ancestors views are refined, and their key does not depend on uncles and aunts
+    private static long key(TreeLayout layout) {
+        return key(layout.getRoot().getId(), layout.getView(), layout.isSiblingsMode(), false);
+    }
+
+    // Uncles and aunts are only shown together with siblings, which replace the view
+    private static long key(long rootId, TreeView view, boolean siblingsMode, boolean showUnclesAndAunts) {
+        int mode = siblingsMode ? (showUnclesAndAunts ? 2 : 1) : (view == TreeView.ANCESTORS ? 0 : 2 + view.ordinal());
+        return rootId * 5 + mode;
+    }
+}
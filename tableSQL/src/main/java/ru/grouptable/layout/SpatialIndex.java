@@ -0,0 +1,135 @@
+package ru.grouptable.layout;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Items by bounding box, answering which of them may intersect a rectangle.
+ * The plane is cut into horizontal bands; each band keeps its items sorted by
+ * left edge in an implicit interval tree, so edges spanning the whole tree cost
+ * one entry per band instead of one per grid cell.
+ */
+class SpatialIndex {
+    private static final int BAND_HEIGHT = 256;
+
+    private final Map<Integer, Band> bands = new HashMap<>();
+    private int[] marks = new int[0];
+    private int markEpoch;
+
+    void add(int item, int minX, int minY, int maxX, int maxY) {
+        for (int band = Math.floorDiv(minY, BAND_HEIGHT); band <= Math.floorDiv(maxY, BAND_HEIGHT); band++) {
+            bands.computeIfAbsent(band, k -> new Band()).add(item, minX, maxX);
+        }
+        if (item >= marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(item + 1, marks.length * 2));
+        }
+    }
+
+    // Items in ascending order, so callers draw them in a stable order
+    int[] query(Rectangle area) {
+        if (++markEpoch == 0) {
+            Arrays.fill(marks, 0);
+            markEpoch = 1;
+        }
+        Result result = new Result();
+        int lastBand = Math.floorDiv(area.y + area.height, BAND_HEIGHT);
+        for (int band = Math.floorDiv(area.y, BAND_HEIGHT); band <= lastBand; band++) {
+            Band items = bands.get(band);
+            if (items != null) {
+                items.query(area.x, area.x + area.width, 0, items.size, result);
+            }
+        }
+        int[] found = Arrays.copyOf(result.items, result.size);
+        Arrays.sort(found);
+        return found;
+    }
+
+    private final class Band {
+        private int[] items = new int[8];
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        // Largest end in the subtree rooted at each position, filled in by build
+        private int[] maxEnds;
+        private int size;
+
+        void add(int item, int start, int end) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            items[size] = item;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+            maxEnds = null;
+        }
+
+        void query(int low, int high, int from, int to, Result result) {
+            if (maxEnds == null) {
+                build();
+            }
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (maxEnds[mid] < low) {
+                    return;
+                }
+                query(low, high, from, mid, result);
+                if (starts[mid] > high) {
+                    return;
+                }
+                if (ends[mid] >= low && marks[items[mid]] != markEpoch) {
+                    marks[items[mid]] = markEpoch;
+                    result.add(items[mid]);
+                }
+                from = mid + 1;
+            }
+        }
+
+        private void build() {
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) starts[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedItems = new int[size];
+            int[] sortedStarts = new int[size];
+            int[] sortedEnds = new int[size];
+            for (int i = 0; i < size; i++) {
+                int from = (int) order[i];
+                sortedItems[i] = items[from];
+                sortedStarts[i] = starts[from];
+                sortedEnds[i] = ends[from];
+            }
+            items = sortedItems;
+            starts = sortedStarts;
+            ends = sortedEnds;
+            maxEnds = new int[size];
+            buildMaxEnds(0, size);
+        }
+
+        private int buildMaxEnds(int from, int to) {
+            if (from >= to) {
+                return Integer.MIN_VALUE;
+            }
+            int mid = (from + to) >>> 1;
+            int maxEnd = Math.max(ends[mid], Math.max(buildMaxEnds(from, mid), buildMaxEnds(mid + 1, to)));
+            maxEnds[mid] = maxEnd;
+            return maxEnd;
+        }
+    }
+
+    private static final class Result {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.grouptable.layout;
+
+import java.util.Arrays;
+
+/**
+ * Linear-time tidy tree layout (Walker's algorithm as corrected by Buchheim, Jünger and
+ * Leipert): parents centered over their children, equal subtrees drawn alike, and each
+ * subtree pushed only as far from its left neighbours as their contours require.
+ * Nodes are 0..n-1 with 0 the root; x comes out in slots of one card and gap, root at 0.
+ */
+final class TidyTree {
+    private static final double DISTANCE = 1;
+
+    private final int[][] children;
+    private final int[] parent;
+    // 1-based position among siblings
+    private final int[] number;
+    private final double[] prelim;
+    private final double[] mod;
+    private final double[] shift;
+    private final double[] change;
+    private final int[] thread;
+    private final int[] ancestor;
+
+    private TidyTree(int[][] children) {
+        int count = children.length;
+        this.children = children;
+        parent = new int[count];
+        number = new int[count];
+        prelim = new double[count];
+        mod = new double[count];
+        shift = new double[count];
+        change = new double[count];
+        thread = new int[count];
+        ancestor = new int[count];
+        Arrays.fill(parent, -1);
+        Arrays.fill(thread, -1);
+        for (int v = 0; v < count; v++) {
+            ancestor[v] = v;
+            for (int i = 0; i < children[v].length; i++) {
+                parent[children[v][i]] = v;
+                number[children[v][i]] = i + 1;
+            }
+        }
+    }
+
+    // Children lists must form a tree rooted at node 0
+    static double[] layout(int[][] children) {
+        TidyTree tree = new TidyTree(children);
+        tree.firstWalk(0);
+        double[] x = new double[children.length];
+        tree.secondWalk(0, -tree.prelim[0], x);
+        return x;
+    }
+
+    private void firstWalk(int v) {
+        int leftSibling = leftSibling(v);
+        if (children[v].length == 0) {
+            prelim[v] = leftSibling >= 0 ? prelim[leftSibling] + DISTANCE : 0;
+            return;
+        }
+        int defaultAncestor = children[v][0];
+        for (int w : children[v]) {
+            firstWalk(w);
+            defaultAncestor = apportion(w, defaultAncestor);
+        }
+        executeShifts(v);
+        double midpoint = (prelim[children[v][0]] + prelim[children[v][children[v].length - 1]]) / 2;
+        if (leftSibling >= 0) {
+            prelim[v] = prelim[leftSibling] + DISTANCE;
+            mod[v] = prelim[v] - midpoint;
+        } else {
+            prelim[v] = midpoint;
+        }
+    }
+
+    // Moves the subtree of v right until its left contour clears the subtrees left of it
+    private int apportion(int v, int defaultAncestor) {
+        int leftSibling = leftSibling(v);
+        if (leftSibling < 0) {
+            return defaultAncestor;
+        }
+        int insideRight = v;
+        int outsideRight = v;
+        int insideLeft = leftSibling;
+        int outsideLeft = children[parent[v]][0];
+        double insideRightMod = mod[insideRight];
+        double outsideRightMod = mod[outsideRight];
+        double insideLeftMod = mod[insideLeft];
+        double outsideLeftMod = mod[outsideLeft];
+        while (nextRight(insideLeft) >= 0 && nextLeft(insideRight) >= 0) {
+            insideLeft = nextRight(insideLeft);
+            insideRight = nextLeft(insideRight);
+            outsideLeft = nextLeft(outsideLeft);
+            outsideRight = nextRight(outsideRight);
+            ancestor[outsideRight] = v;
+            double distance = prelim[insideLeft] + insideLeftMod - (prelim[insideRight] + insideRightMod) + DISTANCE;
+            if (distance > 0) {
+                moveSubtree(ancestorOf(insideLeft, v, defaultAncestor), v, distance);
+                insideRightMod += distance;
+                outsideRightMod += distance;
+            }
+            insideLeftMod += mod[insideLeft];
+            insideRightMod += mod[insideRight];
+            outsideLeftMod += mod[outsideLeft];
+            outsideRightMod += mod[outsideRight];
+        }
+        if (nextRight(insideLeft) >= 0 && nextRight(outsideRight) < 0) {
+            thread[outsideRight] = nextRight(insideLeft);
+            mod[outsideRight] += insideLeftMod - outsideRightMod;
+        }
+        if (nextLeft(insideRight) >= 0 && nextLeft(outsideLeft) < 0) {
+            thread[outsideLeft] = nextLeft(insideRight);
+            mod[outsideLeft] += insideRightMod - outsideLeftMod;
+            defaultAncestor = v;
+        }
+        return defaultAncestor;
+    }
+
+    // Spreads the shift of a subtree over the smaller subtrees between the two
+    private void moveSubtree(int left, int right, double distance) {
+        int subtrees = number[right] - number[left];
+        change[right] -= distance / subtrees;
+        shift[right] += distance;
+        change[left] += distance / subtrees;
+        prelim[right] += distance;
+        mod[right] += distance;
+    }
+
+    private void executeShifts(int v) {
+        double totalShift = 0;
+        double totalChange = 0;
+        for (int i = children[v].length - 1; i >= 0; i--) {
+            int w = children[v][i];
+            prelim[w] += totalShift;
+            mod[w] += totalShift;
+            totalChange += change[w];
+            totalShift += shift[w] + totalChange;
+        }
+    }
+
+    private int ancestorOf(int insideLeft, int v, int defaultAncestor) {
+        return parent[ancestor[insideLeft]] == parent[v] ? ancestor[insideLeft] : defaultAncestor;
+    }
+
+    private void secondWalk(int v, double m, double[] x) {
+        x[v] = prelim[v] + m;
+        for (int w : children[v]) {
+            secondWalk(w, m + mod[v], x);
+        }
+    }
+
+    private int leftSibling(int v) {
+        return number[v] > 1 ? children[parent[v]][number[v] - 2] : -1;
+    }
+
+    private int nextLeft(int v) {
+        return children[v].length > 0 ? children[v][0] : thread[v];
+    }
+
+    private int nextRight(int v) {
+        return children[v].length > 0 ? children[v][children[v].length - 1] : thread[v];
+    }
+}
@@ -0,0 +1,456 @@
+package ru.grouptable.layout;
+
+import ru.grouptable.entity.Person;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Card positions of one family tree, computed once per root and display mode.
+ * Positions are normalized so the whole tree starts at MARGIN and does not
+ * depend on the size of the panel showing it.
+ */
+public class TreeLayout {
+    public static final int PERSON_WIDTH = 150;
+    public static final int PERSON_HEIGHT = 60;
+    public static final int VERTICAL_GAP = 50;
+    public static final int HORIZONTAL_GAP = 40;
+    public static final int MARGIN = 50;
+    // Crossing reduction done before the first layout of an ancestors view is shown
+    private static final long DRAFT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(15);
+    // Least time between two refined layouts passed on
+    private static final long PUBLISH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Person root;
+    private final TreeView view;
+    private final boolean siblingsMode;
+    private final Map<Person, Point> positions;
+    // Everyone whose relatives were looked at, so an edit to any of them invalidates the layout
+    private final long[] dependencyIds;
+    private final int width;
+    private final int height;
+    // Graph version the layout is known to be current for; read by refine off the EDT
+    private volatile long graphVersion;
+
+    // Cards and parent edges by index, with spatial indexes built on the first area query
+    private Person[] persons;
+    private Point[] points;
+    private int[] edgeChildren;
+    private int[] edgeParents;
+    private SpatialIndex cardIndex;
+    private SpatialIndex edgeIndex;
+    // Rows and order of an ancestors view that can still be refined
+    private LayeredLayout layered;
+    // Summaries for drawing from far away by cell size, built on first use
+    private Map<Integer, TreeSummary> summaries;
+
+    private TreeLayout(Person root, TreeView view, boolean siblingsMode, Map<Person, Point> positions,
+                       long[] dependencyIds, int width, int height, long graphVersion) {
+        this.root = root;
+        this.view = view;
+        this.siblingsMode = siblingsMode;
+        this.positions = positions;
+        this.dependencyIds = dependencyIds;
+        this.width = width;
+        this.height = height;
+        this.graphVersion = graphVersion;
+    }
+
+    public static TreeLayout compute(Person root, boolean siblingsMode, boolean showUnclesAndAunts, long graphVersion) {
+        return compute(root, TreeView.ANCESTORS, siblingsMode, showUnclesAndAunts, graphVersion);
+    }
+
+    // Descendants are only laid out as far as the root's children were loaded
+    public static TreeLayout compute(Person root, TreeView view, boolean siblingsMode, boolean showUnclesAndAunts,
+                                     long graphVersion) {
+        Builder builder = new Builder(showUnclesAndAunts);
+        if (siblingsMode) {
+            builder.calculateSiblingsView(root, 0, 0);
+        } else if (view == TreeView.DESCENDANTS) {
+            builder.placeTidyTree(root, Person::getChildren, 1);
+        } else if (view == TreeView.HOURGLASS) {
+            builder.placeTidyTree(root, Person::getParents, -1);
+            builder.placeTidyTree(root, Person::getChildren, 1);
+        } else {
+            LayeredLayout layered = new LayeredLayout(root);
+            long deadline = System.nanoTime() + DRAFT_BUDGET_NANOS;
+            layered.reduceCrossings(deadline, deadline);
+            return fromLayers(layered, graphVersion);
+        }
+        return builder.build(root, view, siblingsMode, graphVersion);
+    }
+
+    private static TreeLayout fromLayers(LayeredLayout layered, long graphVersion) {
+        Builder builder = new Builder(false);
+        builder.placeLayers(layered);
+        TreeLayout layout = builder.build(layered.personAt(0), TreeView.ANCESTORS, false, graphVersion);
+        layout.layered = layered;
+        return layout;
+    }
+
+    // Whether both layouts come from the same rows, so the later one supersedes the other
+    public boolean sharesRowsWith(TreeLayout other) {
+        return layered != null && layered == other.layered;
+    }
+
+    // Whether refine may still find an order with fewer crossings
+    public boolean isRefinable() {
+        return layered != null && !layered.isConverged();
+    }
+
+    /**
+     * Goes on reducing edge crossings for up to the budget, handing each better layout to
+     * publish together with the one it replaces, at most every PUBLISH_INTERVAL_NANOS.
+     * Meant for a background thread: it only reads the persons, and stops when interrupted.
+     * Layouts share their rows, so only one of them may be refined at a time.
+     */
+    public void refine(long budgetMillis, BiConsumer<TreeLayout, TreeLayout> publish) {
+        if (layered == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        TreeLayout previous = this;
+        while (!layered.isConverged() && !Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                return;
+            }
+            if (layered.reduceCrossings(now + PUBLISH_INTERVAL_NANOS, deadline)) {
+                TreeLayout refined = fromLayers(layered, previous.graphVersion);
+                publish.accept(previous, refined);
+                previous = refined;
+            }
+        }
+    }
+
+    public Person getRoot() {
+        return root;
+    }
+
+    public TreeView getView() {
+        return view;
+    }
+
+    public boolean isSiblingsMode() {
+        return siblingsMode;
+    }
+
+    public Map<Person, Point> getPositions() {
+        return positions;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int cardCount() {
+        indexCards();
+        return persons.length;
+    }
+
+    public Person personAt(int card) {
+        return persons[card];
+    }
+
+    public Point pointAt(int card) {
+        return points[card];
+    }
+
+    // Cards whose rectangles may intersect the area
+    public int[] cardsIn(Rectangle area) {
+        indexCards();
+        if (cardIndex == null) {
+            cardIndex = new SpatialIndex();
+            for (int i = 0; i < points.length; i++) {
+                cardIndex.add(i, points[i].x, points[i].y, points[i].x + PERSON_WIDTH, points[i].y + PERSON_HEIGHT);
+            }
+        }
+        return cardIndex.query(area);
+    }
+
+    // Child-to-parent edges whose bounding boxes may intersect the area
+    public int[] edgesIn(Rectangle area) {
+        indexCards();
+        if (edgeIndex == null) {
+            edgeIndex = new SpatialIndex();
+            for (int i = 0; i < edgeChildren.length; i++) {
+                Point from = edgeStart(i);
+                Point to = edgeEnd(i);
+                edgeIndex.add(i, Math.min(from.x, to.x), Math.min(from.y, to.y),
+                    Math.max(from.x, to.x), Math.max(from.y, to.y));
+            }
+        }
+        return edgeIndex.query(area);
+    }
+
+    public TreeSummary summary(int cellSize) {
+        if (summaries == null) {
+            summaries = new HashMap<>();
+        }
+        return summaries.computeIfAbsent(cellSize, size -> new TreeSummary(this, size));
+    }
+
+    public int edgeCount() {
+        indexCards();
+        return edgeChildren.length;
+    }
+
+    int edgeChild(int edge) {
+        return edgeChildren[edge];
+    }
+
+    int edgeParent(int edge) {
+        return edgeParents[edge];
+    }
+
+    // Top middle of the child card
+    public Point edgeStart(int edge) {
+        Point child = points[edgeChildren[edge]];
+        return new Point(child.x + PERSON_WIDTH / 2, child.y);
+    }
+
+    // Bottom middle of the parent card
+    public Point edgeEnd(int edge) {
+        Point parent = points[edgeParents[edge]];
+        return new Point(parent.x + PERSON_WIDTH / 2, parent.y + PERSON_HEIGHT);
+    }
+
+    private void indexCards() {
+        if (persons != null) {
+            return;
+        }
+        Person[] cardPersons = positions.keySet().toArray(new Person[0]);
+        Point[] cardPoints = new Point[cardPersons.length];
+        Map<Person, Integer> cardOf = new IdentityHashMap<>();
+        for (int i = 0; i < cardPersons.length; i++) {
+            cardPoints[i] = positions.get(cardPersons[i]);
+            cardOf.put(cardPersons[i], i);
+        }
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < cardPersons.length; i++) {
+            for (Person parent : cardPersons[i].getParents()) {
+                Integer parentCard = cardOf.get(parent);
+                if (parentCard != null) {
+                    edges.add(new int[]{i, parentCard});
+                }
+            }
+        }
+        edgeChildren = new int[edges.size()];
+        edgeParents = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            edgeChildren[i] = edges.get(i)[0];
+            edgeParents[i] = edges.get(i)[1];
+        }
+        points = cardPoints;
+        persons = cardPersons;
+    }
+
+    long[] getDependencyIds() {
+        return dependencyIds;
+    }
+
+    public long getGraphVersion() {
+        return graphVersion;
+    }
+
+    void setGraphVersion(long graphVersion) {
+        this.graphVersion = graphVersion;
+    }
+
+    private static final class Builder {
+        private final boolean showUnclesAndAunts;
+        private final Map<Person, Point> personPositions = new LinkedHashMap<>();
+        private final Set<Long> dependencyIds = new HashSet<>();
+        private int minX;
+        private int maxX;
+        private int minY;
+        private int maxY;
+
+        Builder(boolean showUnclesAndAunts) {
+            this.showUnclesAndAunts = showUnclesAndAunts;
+        }
+
+        TreeLayout build(Person root, TreeView view, boolean siblingsMode, long graphVersion) {
+            // Shift in place so the leftmost and topmost cards sit at the margin
+            int shiftX = MARGIN - minX;
+            int shiftY = MARGIN - minY;
+            for (Point point : personPositions.values()) {
+                point.translate(shiftX, shiftY);
+            }
+            for (Person person : personPositions.keySet()) {
+                dependencyIds.add(person.getId());
+            }
+            long[] ids = dependencyIds.stream().mapToLong(Long::longValue).toArray();
+            int width = maxX - minX + PERSON_WIDTH + 2 * MARGIN;
+            int height = maxY - minY + PERSON_HEIGHT + 2 * MARGIN;
+            return new TreeLayout(root, view, siblingsMode, personPositions, ids, width, height, graphVersion);
+        }
+
+        private void place(Person person, int x, int y) {
+            personPositions.put(person, new Point(x, y));
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        void placeLayers(LayeredLayout layered) {
+            for (int v = 0; v < layered.personCount(); v++) {
+                int x = (int) Math.round(layered.centerOf(v) - PERSON_WIDTH / 2.0);
+                place(layered.personAt(v), x, -layered.layerOf(v) * (PERSON_HEIGHT + VERTICAL_GAP));
+            }
+        }
+
+        /**
+         * Lays out the relatives reached from the root through next as a tidy tree, one row per
+         * generation going down (direction 1) or up (-1). Someone reached along several lines,
+         * such as a child of two descendants, is placed under the first relative found on the
+         * shortest one; the other parent edges are still drawn.
+         */
+        void placeTidyTree(Person rootPerson, Function<Person, Set<Person>> next, int direction) {
+            List<Person> nodes = new ArrayList<>();
+            List<int[]> childLists = new ArrayList<>();
+            int[] depths = new int[16];
+            Map<Person, Integer> indexOf = new HashMap<>();
+            nodes.add(rootPerson);
+            indexOf.put(rootPerson, 0);
+            for (int head = 0; head < nodes.size(); head++) {
+                List<Person> relatives = new ArrayList<>(next.apply(nodes.get(head)));
+                relatives.sort(Comparator.comparing(Person::getId));
+                int[] children = new int[relatives.size()];
+                int count = 0;
+                for (Person relative : relatives) {
+                    if (indexOf.containsKey(relative) || personPositions.containsKey(relative)) {
+                        continue;
+                    }
+                    int index = nodes.size();
+                    nodes.add(relative);
+                    indexOf.put(relative, index);
+                    if (index == depths.length) {
+                        depths = Arrays.copyOf(depths, index * 2);
+                    }
+                    depths[index] = depths[head] + 1;
+                    children[count++] = index;
+                }
+                childLists.add(Arrays.copyOf(children, count));
+            }
+
+            double[] slots = TidyTree.layout(childLists.toArray(new int[0][]));
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!personPositions.containsKey(nodes.get(i))) {
+                    int x = (int) Math.round(slots[i] * (PERSON_WIDTH + HORIZONTAL_GAP));
+                    place(nodes.get(i), x, direction * depths[i] * (PERSON_HEIGHT + VERTICAL_GAP));
+                }
+            }
+        }
+
+        void calculateSiblingsView(Person rootPerson, int startX, int startY) {
+            place(rootPerson, startX, startY);
+
+            Set<Person> siblings = new HashSet<>();
+            Set<Person> rootParents = rootPerson.getParents();
+
+            if (!rootParents.isEmpty()) {
+                for (Person parent : rootParents) {
+                    siblings.addAll(parent.getChildren());
+                }
+                siblings.remove(rootPerson);
+
+                if (!siblings.isEmpty()) {
+                    List<Person> sortedSiblings = new ArrayList<>(siblings);
+                    sortedSiblings.sort(Comparator.comparing(Person::getId));
+
+                    int leftCount = sortedSiblings.size() / 2;
+                    int rightCount = sortedSiblings.size() - leftCount;
+
+                    for (int i = 0; i < leftCount; i++) {
+                        int siblingX = startX - (leftCount - i) * (PERSON_WIDTH + HORIZONTAL_GAP);
+                        place(sortedSiblings.get(i), siblingX, startY);
+                    }
+
+                    for (int i = 0; i < rightCount; i++) {
+                        int siblingX = startX + (i + 1) * (PERSON_WIDTH + HORIZONTAL_GAP);
+                        place(sortedSiblings.get(leftCount + i), siblingX, startY);
+                    }
+                }
+
+                int parentY = startY - PERSON_HEIGHT - VERTICAL_GAP;
+                List<Person> sortedParents = new ArrayList<>(rootParents);
+                sortedParents.sort(Comparator.comparing(Person::getId));
+
+                int totalParentWidth = sortedParents.size() * PERSON_WIDTH + (sortedParents.size() - 1) * HORIZONTAL_GAP;
+                int parentStartX = startX - totalParentWidth / 2;
+
+                for (int i = 0; i < sortedParents.size(); i++) {
+                    Person parent = sortedParents.get(i);
+                    int parentX = parentStartX + i * (PERSON_WIDTH + HORIZONTAL_GAP);
+                    place(parent, parentX, parentY);
+
+                    if (showUnclesAndAunts) {
+                        addUnclesAndAunts(parent, parentX, parentY);
+                    }
+                }
+            }
+        }
+
+        private void addUnclesAndAunts(Person parent, int parentX, int parentY) {
+            Set<Person> parentSiblings = new HashSet<>();
+            Set<Person> grandParents = parent.getParents();
+
+            for (Person grandParent : grandParents) {
+                dependencyIds.add(grandParent.getId());
+                parentSiblings.addAll(grandParent.getChildren());
+            }
+            parentSiblings.remove(parent);
+
+            if (!parentSiblings.isEmpty()) {
+                List<Person> sortedUnclesAunts = new ArrayList<>(parentSiblings);
+                sortedUnclesAunts.sort(Comparator.comparing(Person::getId));
+
+                int leftCount = sortedUnclesAunts.size() / 2;
+                int rightCount = sortedUnclesAunts.size() - leftCount;
+
+                for (int i = 0; i < leftCount; i++) {
+                    if (!personPositions.containsKey(sortedUnclesAunts.get(i))) {
+                        int uncleX = parentX - (leftCount - i) * (PERSON_WIDTH + HORIZONTAL_GAP);
+                        place(sortedUnclesAunts.get(i), uncleX, parentY);
+                    }
+                }
+
+                for (int i = 0; i < rightCount; i++) {
+                    Person uncleAunt = sortedUnclesAunts.get(leftCount + i);
+                    if (!personPositions.containsKey(uncleAunt)) {
+                        int uncleX = parentX + (i + 1) * (PERSON_WIDTH + HORIZONTAL_GAP);
+                        place(uncleAunt, uncleX, parentY);
+                    }
+                }
+
+                if (!grandParents.isEmpty()) {
+                    int grandParentY = parentY - PERSON_HEIGHT - VERTICAL_GAP;
+                    List<Person> sortedGrandParents = new ArrayList<>(grandParents);
+                    sortedGrandParents.sort(Comparator.comparing(Person::getId));
+
+                    int totalWidth = sortedGrandParents.size() * PERSON_WIDTH + (sortedGrandParents.size() - 1) * HORIZONTAL_GAP;
+                    int startX = parentX - totalWidth / 2;
+
+                    for (int i = 0; i < sortedGrandParents.size(); i++) {
+                        Person grandParent = sortedGrandParents.get(i);
+                        if (!personPositions.containsKey(grandParent)) {
+                            int x = startX + i * (PERSON_WIDTH + HORIZONTAL_GAP);
+                            place(grandParent, x, grandParentY);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.grouptable.layout;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A layout reduced to a grid, for drawing it from far away: one dot per cell holding cards,
+ * at the mean of their centers, and one bundle per pair of cells with parent edges between
+ * them. Drawing it costs at most one dot per cell however many cards the cells hold.
+ */
+public class TreeSummary {
+    private final int[] dotX;
+    private final int[] dotY;
+    private final int[] dotWeights;
+    private final int rootDot;
+    private final int[] bundleFrom;
+    private final int[] bundleTo;
+    private final int[] bundleWeights;
+    private final SpatialIndex dotIndex = new SpatialIndex();
+    private final SpatialIndex bundleIndex = new SpatialIndex();
+
+    TreeSummary(TreeLayout layout, int cellSize) {
+        int cards = layout.cardCount();
+        Map<Long, Integer> dotOf = new HashMap<>();
+        int[] cardDots = new int[cards];
+        long[] sumX = new long[16];
+        long[] sumY = new long[16];
+        int[] weights = new int[16];
+        int root = -1;
+        for (int card = 0; card < cards; card++) {
+            Point point = layout.pointAt(card);
+            int centerX = point.x + TreeLayout.PERSON_WIDTH / 2;
+            int centerY = point.y + TreeLayout.PERSON_HEIGHT / 2;
+            long cell = (long) Math.floorDiv(centerX, cellSize) << 32 | Math.floorDiv(centerY, cellSize) & 0xFFFFFFFFL;
+            int dot = dotOf.computeIfAbsent(cell, k -> dotOf.size());
+            if (dot == weights.length) {
+                sumX = Arrays.copyOf(sumX, dot * 2);
+                sumY = Arrays.copyOf(sumY, dot * 2);
+                weights = Arrays.copyOf(weights, dot * 2);
+            }
+            sumX[dot] += centerX;
+            sumY[dot] += centerY;
+            weights[dot]++;
+            cardDots[card] = dot;
+            if (layout.personAt(card) == layout.getRoot()) {
+                root = dot;
+            }
+        }
+        int dots = dotOf.size();
+        dotX = new int[dots];
+        dotY = new int[dots];
+        dotWeights = Arrays.copyOf(weights, dots);
+        for (int dot = 0; dot < dots; dot++) {
+            dotX[dot] = (int) (sumX[dot] / weights[dot]);
+            dotY[dot] = (int) (sumY[dot] / weights[dot]);
+            dotIndex.add(dot, dotX[dot], dotY[dot], dotX[dot], dotY[dot]);
+        }
+        rootDot = root;
+
+        Map<Long, Integer> bundleOf = new HashMap<>();
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int[] counts = new int[16];
+        for (int edge = 0; edge < layout.edgeCount(); edge++) {
+            int childDot = cardDots[layout.edgeChild(edge)];
+            int parentDot = cardDots[layout.edgeParent(edge)];
+            if (childDot == parentDot) {
+                continue;
+            }
+            int bundle = bundleOf.computeIfAbsent((long) childDot << 32 | parentDot, k -> bundleOf.size());
+            if (bundle == counts.length) {
+                from = Arrays.copyOf(from, bundle * 2);
+                to = Arrays.copyOf(to, bundle * 2);
+                counts = Arrays.copyOf(counts, bundle * 2);
+            }
+            from[bundle] = childDot;
+            to[bundle] = parentDot;
+            counts[bundle]++;
+        }
+        int bundles = bundleOf.size();
+        bundleFrom = Arrays.copyOf(from, bundles);
+        bundleTo = Arrays.copyOf(to, bundles);
+        bundleWeights = Arrays.copyOf(counts, bundles);
+        for (int bundle = 0; bundle < bundles; bundle++) {
+            int a = bundleFrom[bundle];
+            int b = bundleTo[bundle];
+            bundleIndex.add(bundle, Math.min(dotX[a], dotX[b]), Math.min(dotY[a], dotY[b]),
+                Math.max(dotX[a], dotX[b]), Math.max(dotY[a], dotY[b]));
+        }
+    }
+
+    public int[] dotsIn(Rectangle area) {
+        return dotIndex.query(area);
+    }
+
+    public Point dotAt(int dot) {
+        return new Point(dotX[dot], dotY[dot]);
+    }
+
+    // Cards gathered into the dot
+    public int dotWeight(int dot) {
+        return dotWeights[dot];
+    }
+
+    public boolean isRootDot(int dot) {
+        return dot == rootDot;
+    }
+
+    // Bundles whose bounding boxes may intersect the area
+    public int[] bundlesIn(Rectangle area) {
+        return bundleIndex.query(area);
+    }
+
+    public Point bundleStart(int bundle) {
+        return dotAt(bundleFrom[bundle]);
+    }
+
+    public Point bundleEnd(int bundle) {
+        return dotAt(bundleTo[bundle]);
+    }
+
+    // Edges gathered into the bundle
+    public int bundleWeight(int bundle) {
+        return bundleWeights[bundle];
+    }
+}
@@ -0,0 +1,24 @@
+package ru.grouptable.layout;
+
+// Which relatives of the root a tree shows; the siblings mode replaces all of them
+public enum TreeView {
+    ANCESTORS("Предки"),
+    DESCENDANTS("Потомки"),
+    // Ancestors above the root, descendants below
+    HOURGLASS("Предки и потомки");
+
+    private final String title;
+
+    TreeView(String title) {
+        this.title = title;
+    }
+
+    public boolean showsDescendants() {
+        return this != ANCESTORS;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,97 @@
+package ru.grouptable.metrics;
+
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Posts a heartbeat to the event queue every 100 ms and logs where the event dispatch
+ * thread is stuck once a heartbeat waits longer than the threshold, one warning per stall.
+ * The threshold comes from -Dheritage.edtStallMillis (300 ms by default, 0 turns it off).
+ */
+public final class EdtWatchdog {
+    public static final String THRESHOLD_PROPERTY = "heritage.edtStallMillis";
+    public static final String STALL_TIMER = "EDT.stall";
+    public static final String DELAY_TIMER = "EDT.queueDelay";
+
+    private static final long DEFAULT_THRESHOLD_MILLIS = 300;
+    private static final long HEARTBEAT_MILLIS = 100;
+    private static final Logger LOG = Logger.getLogger(EdtWatchdog.class.getName());
+
+    private static volatile long thresholdMillis = Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD_MILLIS);
+    private static volatile Thread eventDispatchThread;
+    private static Thread watchdog;
+
+    private EdtWatchdog() {
+    }
+
+    // Does nothing when headless or turned off; the threshold can still turn it on later
+    public static synchronized void start() {
+        if (watchdog != null || thresholdMillis <= 0 || GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        watchdog = new Thread(EdtWatchdog::watch, "edt-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    public static long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    public static void setThresholdMillis(long millis) {
+        thresholdMillis = Math.max(0, millis);
+        start();
+    }
+
+    static LatencyHistogram stalls() {
+        return Metrics.histogram(STALL_TIMER);
+    }
+
+    private static void watch() {
+        LatencyHistogram delays = Metrics.histogram(DELAY_TIMER);
+        try {
+            while (true) {
+                long threshold = thresholdMillis;
+                if (threshold > 0) {
+                    long posted = System.nanoTime();
+                    CountDownLatch heartbeat = new CountDownLatch(1);
+                    EventQueue.invokeLater(() -> {
+                        // The EDT is replaced after an uncaught exception
+                        eventDispatchThread = Thread.currentThread();
+                        heartbeat.countDown();
+                    });
+                    if (!heartbeat.await(threshold, TimeUnit.MILLISECONDS)) {
+                        reportStall(threshold);
+                        heartbeat.await();
+                        long stall = System.nanoTime() - posted;
+                        stalls().record(stall);
+                        LOG.info(String.format("Поток EDT освободился через %d мс", TimeUnit.NANOSECONDS.toMillis(stall)));
+                    }
+                    delays.record(System.nanoTime() - posted);
+                }
+                Thread.sleep(HEARTBEAT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reportStall(long threshold) {
+        if (!LOG.isLoggable(Level.WARNING)) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("Поток EDT занят дольше ").append(threshold).append(" мс");
+        Thread thread = eventDispatchThread;
+        if (thread != null) {
+            message.append(", ").append(thread.getName()).append(" (").append(thread.getState()).append("):");
+            for (StackTraceElement frame : thread.getStackTrace()) {
+                message.append(System.lineSeparator()).append("\tat ").append(frame);
+            }
+        }
+        LOG.warning(message.toString());
+    }
+}
@@ -0,0 +1,82 @@
+package ru.grouptable.metrics;
+
+import org.hibernate.stat.Statistics;
+import ru.grouptable.dto.LatencyStatistics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Named latency timers of the whole application and the Hibernate statistics of the open
+ * database, read by the diagnostics dialog and published over JMX as ru.grouptable:type=Metrics.
+ */
+public final class Metrics {
+    public static final String OBJECT_NAME = "ru.grouptable:type=Metrics";
+
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final MetricsMXBean bean = new MetricsBean();
+    private static volatile Statistics statistics;
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public static <T> T time(String name, Supplier<T> action) {
+        return histogram(name).time(action);
+    }
+
+    // Sorted by name, so timers of one class stay together
+    public static List<LatencyStatistics> latencies() {
+        List<LatencyStatistics> latencies = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            latencies.add(entry.getValue().statistics(entry.getKey()));
+        }
+        latencies.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return latencies;
+    }
+
+    public static void bindStatistics(Statistics hibernateStatistics) {
+        statistics = hibernateStatistics;
+    }
+
+    // Null until a database has been opened
+    public static Statistics getStatistics() {
+        return statistics;
+    }
+
+    public static MetricsMXBean getBean() {
+        return bean;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        Statistics current = statistics;
+        if (current != null) {
+            current.clear();
+        }
+    }
+
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(bean, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать " + OBJECT_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.grouptable.metrics;
+
+import org.hibernate.stat.Statistics;
+import ru.grouptable.dto.LatencyStatistics;
+
+import java.util.List;
+
+// Hibernate counters read as zero until a database has been opened
+class MetricsBean implements MetricsMXBean {
+    @Override
+    public List<LatencyStatistics> getLatencies() {
+        return Metrics.latencies();
+    }
+
+    @Override
+    public long getQueryExecutionCount() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getQueryExecutionCount();
+    }
+
+    @Override
+    public long getQueryExecutionMaxTimeMillis() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getSlowestQuery() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? null : statistics.getQueryExecutionMaxTimeQueryString();
+    }
+
+    @Override
+    public long getEntityLoadCount() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getEntityLoadCount();
+    }
+
+    @Override
+    public long getEntityFetchCount() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getEntityFetchCount();
+    }
+
+    @Override
+    public long getCollectionLoadCount() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getCollectionLoadCount();
+    }
+
+    @Override
+    public long getPrepareStatementCount() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : statistics.getPrepareStatementCount();
+    }
+
+    @Override
+    public double getSecondLevelCacheHitRatio() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0
+            : ratio(statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount());
+    }
+
+    @Override
+    public double getQueryCacheHitRatio() {
+        Statistics statistics = Metrics.getStatistics();
+        return statistics == null ? 0 : ratio(statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount());
+    }
+
+    @Override
+    public long getEdtStallCount() {
+        return EdtWatchdog.stalls().statistics(EdtWatchdog.STALL_TIMER).getCount();
+    }
+
+    @Override
+    public double getLongestEdtStallMillis() {
+        return EdtWatchdog.stalls().statistics(EdtWatchdog.STALL_TIMER).getMaxMillis();
+    }
+
+    @Override
+    public long getEdtStallThresholdMillis() {
+        return EdtWatchdog.getThresholdMillis();
+    }
+
+    @Override
+    public void setEdtStallThresholdMillis(long millis) {
+        EdtWatchdog.setThresholdMillis(millis);
+    }
+
+    @Override
+    public void resetStatistics() {
+        Metrics.reset();
+    }
+
+    private static double ratio(long hits, long misses) {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.grouptable.metrics;
+
+import ru.grouptable.dto.LatencyStatistics;
+
+import java.util.List;
+
+// What jconsole and other JMX clients see of the running application
+public interface MetricsMXBean {
+    List<LatencyStatistics> getLatencies();
+
+    long getQueryExecutionCount();
+
+    long getQueryExecutionMaxTimeMillis();
+
+    String getSlowestQuery();
+
+    long getEntityLoadCount();
+
+    long getEntityFetchCount();
+
+    long getCollectionLoadCount();
+
+    long getPrepareStatementCount();
+
+    double getSecondLevelCacheHitRatio();
+
+    double getQueryCacheHitRatio();
+
+    long getEdtStallCount();
+
+    double getLongestEdtStallMillis();
+
+    long getEdtStallThresholdMillis();
+
+    void setEdtStallThresholdMillis(long millis);
+
+    void resetStatistics();
+}
@@ -0,0 +1,86 @@
+package ru.grouptable.render;
+
+import ru.grouptable.layout.TreeLayout;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Writes a tree layout to a file without a window, as a PNG image or as SVG or PDF
+ * drawings. All formats are written as they are drawn, so charts far larger than the
+ * heap can hold as one image still fit.
+ */
+public class ChartExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Format {
+        PNG, SVG, PDF;
+
+        public String getExtension() {
+            return "." + name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Format fromName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Format format;
+    private final double scale;
+
+    // Scale is image pixels (or 1/96 inch for drawings) per layout pixel
+    public ChartExporter(Format format, double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        this.format = format;
+        this.scale = scale;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void exportFile(TreeLayout layout, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE)) {
+            export(layout, out);
+        }
+    }
+
+    public void export(TreeLayout layout, OutputStream out) throws IOException {
+        switch (format) {
+            case PNG:
+                PngChartWriter.write(layout, scale, out);
+                break;
+            case SVG:
+                SvgChartWriter.write(layout, scale, out);
+                break;
+            case PDF:
+                PdfChartWriter.write(layout, scale, out);
+                break;
+        }
+    }
+
+    // Rounded to hundredths, without exponent or trailing zeros, as SVG and PDF expect numbers
+    static String number(double value) {
+        long hundredths = Math.round(value * 100);
+        StringBuilder text = new StringBuilder(12);
+        if (hundredths < 0) {
+            text.append('-');
+            hundredths = -hundredths;
+        }
+        text.append(hundredths / 100);
+        long fraction = hundredths % 100;
+        if (fraction != 0) {
+            text.append('.').append(fraction / 10);
+            if (fraction % 10 != 0) {
+                text.append(fraction % 10);
+            }
+        }
+        return text.toString();
+    }
+}
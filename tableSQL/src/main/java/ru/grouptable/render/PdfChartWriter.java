@@ -0,0 +1,289 @@
+package ru.grouptable.render;
+
+import ru.grouptable.BirthDateFormat;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams a layout as a one-page PDF with a compressed content stream. Names are drawn from
+ * glyph outlines rather than as text, so any alphabet prints without embedding a font; each
+ * glyph is written once as a form that the page places wherever it is used.
+ * Pages larger than PDF viewers accept are scaled with UserUnit.
+ */
+final class PdfChartWriter {
+    // Points per layout pixel at scale 1, taking layout pixels as 1/96 inch
+    private static final double POINTS_PER_PIXEL = 0.75;
+    private static final double MAX_PAGE_SIDE = 14400;
+    // Edges per stroked path
+    private static final int EDGES_PER_PATH = 1000;
+    private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+
+    private final CountingStream out;
+    private final List<Long> offsets = new ArrayList<>();
+    // Form number of each glyph code, -1 for glyphs with nothing to draw such as spaces
+    private final Map<Integer, Integer> glyphForms = new HashMap<>();
+    private final List<Shape> glyphOutlines = new ArrayList<>();
+
+    private PdfChartWriter(OutputStream out) {
+        this.out = new CountingStream(out);
+    }
+
+    static void write(TreeLayout layout, double scale, OutputStream out) throws IOException {
+        new PdfChartWriter(out).write(layout, scale);
+    }
+
+    private void write(TreeLayout layout, double scale) throws IOException {
+        double pageWidth = layout.getWidth() * scale * POINTS_PER_PIXEL;
+        double pageHeight = layout.getHeight() * scale * POINTS_PER_PIXEL;
+        double userUnit = Math.max(1, Math.ceil(Math.max(pageWidth, pageHeight) / MAX_PAGE_SIDE));
+        pageWidth /= userUnit;
+        pageHeight /= userUnit;
+
+        ascii("%PDF-1.6\n%âãÏÓ\n");
+        startObject(1);
+        ascii("<< /Type /Catalog /Pages 2 0 R >>\n");
+        endObject();
+        startObject(2);
+        ascii("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\n");
+        endObject();
+        startObject(3);
+        ascii("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + ChartExporter.number(pageWidth) + " "
+            + ChartExporter.number(pageHeight) + "]" + (userUnit > 1 ? " /UserUnit " + (long) userUnit : "")
+            + " /Resources 6 0 R /Contents 4 0 R >>\n");
+        endObject();
+
+        startObject(4);
+        ascii("<< /Length 5 0 R /Filter /FlateDecode >>\nstream\n");
+        long start = out.count;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, 1 << 16);
+        Writer content = new BufferedWriter(new OutputStreamWriter(compressed, StandardCharsets.US_ASCII), 1 << 16);
+        // Layout pixels with y pointing down, as in the panel
+        double unit = scale * POINTS_PER_PIXEL / userUnit;
+        String unitText = BigDecimal.valueOf(unit).setScale(6, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString();
+        content.write("q " + unitText + " 0 0 -" + unitText + " 0 " + ChartExporter.number(pageHeight) + " cm\n");
+        writeEdges(content, layout);
+        writeCards(content, layout);
+        content.write("Q\n");
+        content.flush();
+        compressed.finish();
+        deflater.end();
+        long length = out.count - start;
+        ascii("\nendstream\n");
+        endObject();
+        startObject(5);
+        ascii(length + "\n");
+        endObject();
+        writeGlyphForms();
+
+        long xref = out.count;
+        ascii("xref\n0 " + (offsets.size() + 1) + "\n0000000000 65535 f \n");
+        for (long offset : offsets) {
+            ascii(String.format("%010d 00000 n \n", offset));
+        }
+        ascii("trailer\n<< /Size " + (offsets.size() + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        out.flush();
+    }
+
+    private static void writeEdges(Writer content, TreeLayout layout) throws IOException {
+        content.write(color(TreeRenderer.EDGE_COLOR, "RG") + " 2 w\n");
+        int edges = layout.edgeCount();
+        for (int edge = 0; edge < edges; edge++) {
+            Point from = layout.edgeStart(edge);
+            Point to = layout.edgeEnd(edge);
+            content.write(from.x + " " + from.y + " m " + to.x + " " + to.y + " l\n");
+            if ((edge + 1) % EDGES_PER_PATH == 0 || edge == edges - 1) {
+                content.write("S\n");
+            }
+        }
+    }
+
+    private void writeCards(Writer content, TreeLayout layout) throws IOException {
+        float lineHeight = TreeRenderer.FONT.getLineMetrics("Ag", FONT_CONTEXT).getHeight();
+        content.write("1 w\n");
+        for (int card = 0; card < layout.cardCount(); card++) {
+            Point point = layout.pointAt(card);
+            Person person = layout.personAt(card);
+            boolean isRoot = person == layout.getRoot();
+            // The panel's vertical gradient, flattened to its middle color
+            Color fill = mix(isRoot ? TreeRenderer.ROOT_START_COLOR : TreeRenderer.START_COLOR,
+                isRoot ? TreeRenderer.ROOT_END_COLOR : TreeRenderer.END_COLOR);
+            content.write(color(fill, "rg") + " "
+                + color(isRoot ? TreeRenderer.ROOT_BORDER_COLOR : TreeRenderer.BORDER_COLOR, "RG") + "\n");
+            writePath(content, new RoundRectangle2D.Double(point.x, point.y, TreeLayout.PERSON_WIDTH,
+                TreeLayout.PERSON_HEIGHT, TreeRenderer.CORNER_ARC, TreeRenderer.CORNER_ARC));
+            content.write("B\n0 g\n");
+            float middle = point.x + TreeLayout.PERSON_WIDTH / 2f;
+            float baseline = point.y + TreeLayout.PERSON_HEIGHT / 2f;
+            writeText(content, TreeRenderer.nameOf(person), middle, baseline);
+            writeText(content, BirthDateFormat.format(person.getBirthDate()), middle, baseline + lineHeight);
+        }
+    }
+
+    private void writeText(Writer content, String text, float middle, float baseline) throws IOException {
+        GlyphVector glyphs = TreeRenderer.FONT.createGlyphVector(FONT_CONTEXT, text);
+        float left = middle - (float) glyphs.getLogicalBounds().getWidth() / 2;
+        for (int i = 0; i < glyphs.getNumGlyphs(); i++) {
+            int form = glyphForm(glyphs.getGlyphCode(i));
+            if (form >= 0) {
+                Point2D position = glyphs.getGlyphPosition(i);
+                content.write("q 1 0 0 1 " + ChartExporter.number(left + position.getX()) + " "
+                    + ChartExporter.number(baseline + position.getY()) + " cm /G" + form + " Do Q\n");
+            }
+        }
+    }
+
+    private int glyphForm(int code) {
+        Integer form = glyphForms.get(code);
+        if (form == null) {
+            Shape outline = TreeRenderer.FONT.createGlyphVector(FONT_CONTEXT, new int[]{code}).getGlyphOutline(0);
+            if (outline.getBounds2D().isEmpty()) {
+                form = -1;
+            } else {
+                form = glyphOutlines.size();
+                glyphOutlines.add(outline);
+            }
+            glyphForms.put(code, form);
+        }
+        return form;
+    }
+
+    // The resources of the page, then the glyph forms it refers to
+    private void writeGlyphForms() throws IOException {
+        int firstForm = offsets.size() + 2;
+        startObject(offsets.size() + 1);
+        StringBuilder forms = new StringBuilder("<< /XObject <<");
+        for (int form = 0; form < glyphOutlines.size(); form++) {
+            forms.append(" /G").append(form).append(' ').append(firstForm + form).append(" 0 R");
+        }
+        ascii(forms.append(" >> >>\n").toString());
+        endObject();
+        for (Shape outline : glyphOutlines) {
+            StringWriter path = new StringWriter();
+            writePath(path, outline);
+            path.write(outline.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD ? "f*\n" : "f\n");
+            Rectangle2D bounds = outline.getBounds2D();
+            startObject(offsets.size() + 1);
+            ascii("<< /Type /XObject /Subtype /Form /BBox [" + ChartExporter.number(Math.floor(bounds.getMinX())) + " "
+                + ChartExporter.number(Math.floor(bounds.getMinY())) + " " + ChartExporter.number(Math.ceil(bounds.getMaxX()))
+                + " " + ChartExporter.number(Math.ceil(bounds.getMaxY())) + "] /Length " + path.getBuffer().length()
+                + " >>\nstream\n" + path + "\nendstream\n");
+            endObject();
+        }
+    }
+
+    // Quadratic segments, which TrueType outlines are made of, become cubic ones
+    private static void writePath(Writer content, Shape shape) throws IOException {
+        double[] coords = new double[6];
+        double x = 0;
+        double y = 0;
+        StringBuilder path = new StringBuilder();
+        for (PathIterator segments = shape.getPathIterator(null); !segments.isDone(); segments.next()) {
+            switch (segments.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    path.append(ChartExporter.number(coords[0])).append(' ').append(ChartExporter.number(coords[1])).append(" m\n");
+                    x = coords[0];
+                    y = coords[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    path.append(ChartExporter.number(coords[0])).append(' ').append(ChartExporter.number(coords[1])).append(" l\n");
+                    x = coords[0];
+                    y = coords[1];
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    appendCurve(path, x + 2 * (coords[0] - x) / 3, y + 2 * (coords[1] - y) / 3,
+                        coords[2] + 2 * (coords[0] - coords[2]) / 3, coords[3] + 2 * (coords[1] - coords[3]) / 3,
+                        coords[2], coords[3]);
+                    x = coords[2];
+                    y = coords[3];
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    appendCurve(path, coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    x = coords[4];
+                    y = coords[5];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    path.append("h\n");
+                    break;
+            }
+        }
+        content.append(path);
+    }
+
+    private static void appendCurve(StringBuilder path, double x1, double y1, double x2, double y2, double x3, double y3) {
+        path.append(ChartExporter.number(x1)).append(' ').append(ChartExporter.number(y1)).append(' ')
+            .append(ChartExporter.number(x2)).append(' ').append(ChartExporter.number(y2)).append(' ')
+            .append(ChartExporter.number(x3)).append(' ').append(ChartExporter.number(y3)).append(" c\n");
+    }
+
+    private static Color mix(Color first, Color second) {
+        return new Color((first.getRed() + second.getRed()) / 2, (first.getGreen() + second.getGreen()) / 2,
+            (first.getBlue() + second.getBlue()) / 2);
+    }
+
+    private static String color(Color color, String operator) {
+        return ChartExporter.number(color.getRed() / 255.0) + " " + ChartExporter.number(color.getGreen() / 255.0)
+            + " " + ChartExporter.number(color.getBlue() / 255.0) + " " + operator;
+    }
+
+    private void startObject(int number) throws IOException {
+        offsets.add(out.count);
+        ascii(number + " 0 obj\n");
+    }
+
+    private void endObject() throws IOException {
+        ascii("endobj\n");
+    }
+
+    // Latin-1, so the binary marker in the header comes out as single bytes
+    private void ascii(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    // Byte offsets of the objects go into the cross-reference table
+    private static final class CountingStream extends FilterOutputStream {
+        private long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
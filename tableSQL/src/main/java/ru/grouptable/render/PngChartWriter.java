@@ -0,0 +1,252 @@
+package ru.grouptable.render;
+
+import ru.grouptable.BirthDateFormat;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams a layout as an RGB PNG, one strip of rows at a time. Strips are cut into tiles
+ * rendered and compressed in parallel, each strip into its own run of the deflate stream
+ * (as pigz does), and written in order; only a few strips are in memory at any time.
+ */
+final class PngChartWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // Uncompressed bytes per strip, and pixels per tile across
+    private static final int STRIP_BYTES = 4 << 20;
+    private static final int TILE_WIDTH = 1024;
+    private static final int MAX_SIDE = Integer.MAX_VALUE / 4;
+    private static final int FILTER_SUB = 1;
+    private static final int ADLER_BASE = 65521;
+
+    private final TreeLayout layout;
+    private final double scale;
+    private final int width;
+    private final int height;
+    private final int stripRows;
+
+    private PngChartWriter(TreeLayout layout, double scale, int width, int height) {
+        this.layout = layout;
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        long rowBytes = 1 + 3L * width;
+        this.stripRows = (int) Math.max(1, Math.min(height, STRIP_BYTES / rowBytes));
+    }
+
+    static void write(TreeLayout layout, double scale, OutputStream out) throws IOException {
+        long width = (long) Math.ceil(layout.getWidth() * scale);
+        long height = (long) Math.ceil(layout.getHeight() * scale);
+        if (width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IOException("Chart of " + width + "x" + height + " pixels is too large for PNG");
+        }
+        PngChartWriter writer = new PngChartWriter(layout, scale, (int) width, (int) height);
+        writer.write(out);
+    }
+
+    private void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        // 8 bits per channel, RGB, deflate, adaptive filtering, no interlace
+        headerData.write(new byte[]{8, 2, 0, 0, 0});
+        writeChunk(data, "IHDR", header.toByteArray(), 0, header.size());
+        // zlib header for the default compression level
+        writeChunk(data, "IDAT", new byte[]{0x78, (byte) 0x9C}, 0, 2);
+
+        int strips = (height + stripRows - 1) / stripRows;
+        int window = 2 * Runtime.getRuntime().availableProcessors();
+        Deque<CompletableFuture<Strip>> pending = new ArrayDeque<>();
+        int next = 0;
+        long adler = 1;
+        try {
+            while (next < strips || !pending.isEmpty()) {
+                while (next < strips && pending.size() < window) {
+                    int strip = next++;
+                    pending.add(submit(strip, strip == strips - 1));
+                }
+                Strip strip = pending.remove().join();
+                adler = combineAdler(adler, strip.adler, strip.rawLength);
+                writeChunk(data, "IDAT", strip.compressed, 0, strip.compressed.length);
+            }
+        } catch (CompletionException e) {
+            pending.forEach(future -> future.cancel(false));
+            throw e;
+        }
+        writeChunk(data, "IDAT", new byte[]{(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler}, 0, 4);
+        writeChunk(data, "IEND", new byte[0], 0, 0);
+        data.flush();
+    }
+
+    // The layout's indexes are not thread-safe, so tiles are looked up here and only drawn in parallel
+    private CompletableFuture<Strip> submit(int strip, boolean last) {
+        int top = strip * stripRows;
+        int rows = Math.min(stripRows, height - top);
+        int columns = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+        int[][] cards = new int[columns][];
+        int[][] edges = new int[columns][];
+        for (int column = 0; column < columns; column++) {
+            Rectangle area = layoutArea(column * TILE_WIDTH, top, Math.min(TILE_WIDTH, width - column * TILE_WIDTH), rows);
+            cards[column] = layout.cardsIn(area);
+            area.grow(2, 2);
+            edges[column] = layout.edgesIn(area);
+        }
+        return CompletableFuture.supplyAsync(() -> renderStrip(top, rows, cards, edges, last));
+    }
+
+    private Rectangle layoutArea(int x, int y, int pixelWidth, int pixelHeight) {
+        int left = (int) Math.floor(x / scale);
+        int topEdge = (int) Math.floor(y / scale);
+        return new Rectangle(left, topEdge, (int) Math.ceil((x + pixelWidth) / scale) - left + 1,
+            (int) Math.ceil((y + pixelHeight) / scale) - topEdge + 1);
+    }
+
+    private Strip renderStrip(int top, int rows, int[][] cards, int[][] edges, boolean last) {
+        int rowBytes = 1 + 3 * width;
+        byte[] raw = new byte[rowBytes * rows];
+        BufferedImage tile = new BufferedImage(Math.min(TILE_WIDTH, width), rows, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        // Rows are stored with the Sub filter, each byte less the one a pixel to its left
+        int[] leftPixels = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            raw[row * rowBytes] = FILTER_SUB;
+        }
+        for (int column = 0; column < cards.length; column++) {
+            int left = column * TILE_WIDTH;
+            int tileWidth = Math.min(TILE_WIDTH, width - left);
+            drawTile(tile, left, top, cards[column], edges[column]);
+            for (int row = 0; row < rows; row++) {
+                int offset = row * rowBytes + 1 + 3 * left;
+                int pixel = row * tile.getWidth();
+                int previous = column == 0 ? 0 : leftPixels[row];
+                for (int x = 0; x < tileWidth; x++) {
+                    int rgb = pixels[pixel++];
+                    raw[offset++] = (byte) ((rgb >> 16) - (previous >> 16));
+                    raw[offset++] = (byte) ((rgb >> 8) - (previous >> 8));
+                    raw[offset++] = (byte) (rgb - previous);
+                    previous = rgb;
+                }
+                leftPixels[row] = previous;
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw);
+        if (last) {
+            deflater.finish();
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 8 + 64);
+        byte[] buffer = new byte[1 << 16];
+        // A sync flush ends the run on a byte boundary, so the next strip's run can follow it
+        int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+        while (true) {
+            int length = deflater.deflate(buffer, 0, buffer.length, flush);
+            compressed.write(buffer, 0, length);
+            if (last ? deflater.finished() : length < buffer.length && deflater.needsInput()) {
+                break;
+            }
+        }
+        deflater.end();
+        return new Strip(compressed.toByteArray(), (int) adler.getValue(), raw.length);
+    }
+
+    private void drawTile(BufferedImage tile, int left, int top, int[] cards, int[] edges) {
+        Graphics2D g2d = tile.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2d.translate(-left, -top);
+            g2d.scale(scale, scale);
+            Rectangle reach = layoutArea(left, top, tile.getWidth(), tile.getHeight());
+            reach.grow(2, 2);
+            g2d.setStroke(TreeRenderer.EDGE_STROKE);
+            g2d.setColor(TreeRenderer.EDGE_COLOR);
+            for (int edge : edges) {
+                TreeRenderer.drawClipped(g2d, layout.edgeStart(edge), layout.edgeEnd(edge), reach);
+            }
+            for (int card : cards) {
+                Point point = layout.pointAt(card);
+                Person person = layout.personAt(card);
+                Graphics2D cardGraphics = (Graphics2D) g2d.create();
+                cardGraphics.translate(point.x, point.y);
+                TreeRenderer.drawCard(cardGraphics, TreeRenderer.nameOf(person),
+                    BirthDateFormat.format(person.getBirthDate()), person == layout.getRoot());
+                cardGraphics.dispose();
+            }
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Checksum of two runs from the checksums of each, as zlib's adler32_combine
+    static long combineAdler(long first, long second, long secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += (first >>> 16 & 0xFFFF) + (second >>> 16 & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | sum2 << 16;
+    }
+
+    private static final class Strip {
+        private final byte[] compressed;
+        private final long adler;
+        private final int rawLength;
+
+        Strip(byte[] compressed, int adler, int rawLength) {
+            this.compressed = compressed;
+            this.adler = adler & 0xFFFFFFFFL;
+            this.rawLength = rawLength;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.grouptable.render;
+
+import ru.grouptable.BirthDateFormat;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.font.FontRenderContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Streams a layout as SVG, element by element; the viewer scales it, so it is written in layout pixels
+final class SvgChartWriter {
+    private static final int PERSON_WIDTH = TreeLayout.PERSON_WIDTH;
+    private static final int PERSON_HEIGHT = TreeLayout.PERSON_HEIGHT;
+
+    private SvgChartWriter() {
+    }
+
+    static void write(TreeLayout layout, double scale, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        // Same distance between the lines as the panel's font metrics give
+        double lineHeight = TreeRenderer.FONT.getLineMetrics("Ag", new FontRenderContext(null, true, true)).getHeight();
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + ChartExporter.number(width * scale)
+            + "\" height=\"" + ChartExporter.number(height * scale) + "\" viewBox=\"0 0 " + width + " " + height
+            + "\" font-family=\"" + TreeRenderer.FONT.getName() + ", sans-serif\" font-size=\"" + TreeRenderer.FONT.getSize() + "\">\n");
+        writer.write("<defs>\n");
+        writeGradient(writer, "card", TreeRenderer.START_COLOR, TreeRenderer.END_COLOR);
+        writeGradient(writer, "root", TreeRenderer.ROOT_START_COLOR, TreeRenderer.ROOT_END_COLOR);
+        writer.write("</defs>\n");
+        writer.write("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+
+        writer.write("<g stroke=\"" + color(TreeRenderer.EDGE_COLOR) + "\" stroke-width=\"2\">\n");
+        for (int edge = 0; edge < layout.edgeCount(); edge++) {
+            Point from = layout.edgeStart(edge);
+            Point to = layout.edgeEnd(edge);
+            writer.write("<line x1=\"" + from.x + "\" y1=\"" + from.y + "\" x2=\"" + to.x + "\" y2=\"" + to.y + "\"/>\n");
+        }
+        writer.write("</g>\n");
+
+        int arc = TreeRenderer.CORNER_ARC / 2;
+        writer.write("<g text-anchor=\"middle\">\n");
+        for (int card = 0; card < layout.cardCount(); card++) {
+            Point point = layout.pointAt(card);
+            Person person = layout.personAt(card);
+            boolean isRoot = person == layout.getRoot();
+            int center = point.x + PERSON_WIDTH / 2;
+            writer.write("<rect x=\"" + point.x + "\" y=\"" + point.y + "\" width=\"" + PERSON_WIDTH
+                + "\" height=\"" + PERSON_HEIGHT + "\" rx=\"" + arc + "\" fill=\"url(#" + (isRoot ? "root" : "card")
+                + ")\" stroke=\"" + color(isRoot ? TreeRenderer.ROOT_BORDER_COLOR : TreeRenderer.BORDER_COLOR) + "\"/>\n");
+            writer.write("<text x=\"" + center + "\" y=\"" + (point.y + PERSON_HEIGHT / 2) + "\">"
+                + escape(TreeRenderer.nameOf(person)) + "</text>\n");
+            String birthDate = BirthDateFormat.format(person.getBirthDate());
+            if (!birthDate.isEmpty()) {
+                writer.write("<text x=\"" + center + "\" y=\"" + ChartExporter.number(point.y + PERSON_HEIGHT / 2 + lineHeight) + "\">"
+                    + birthDate + "</text>\n");
+            }
+        }
+        writer.write("</g>\n");
+        writer.write("</svg>\n");
+        writer.flush();
+    }
+
+    private static void writeGradient(Writer writer, String id, Color start, Color end) throws IOException {
+        writer.write("<linearGradient id=\"" + id + "\" x1=\"0\" y1=\"0\" x2=\"0\" y2=\"1\">"
+            + "<stop offset=\"0\" stop-color=\"" + color(start) + "\"/>"
+            + "<stop offset=\"1\" stop-color=\"" + color(end) + "\"/></linearGradient>\n");
+    }
+
+    private static String color(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xFFFFFF);
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c >= 0x20 || c == '\t') {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,287 @@
+package ru.grouptable.render;
+
+import ru.grouptable.BirthDateFormat;
+import ru.grouptable.entity.Person;
+import ru.grouptable.layout.TreeLayout;
+import ru.grouptable.layout.TreeSummary;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Paints a tree layout from pre-rendered tiles. Tiles are rendered on first use from
+ * the cards and edges that intersect them, and each card is drawn once into an
+ * image that is reused by every tile and layout showing the same person.
+ * Tiles are rendered for zoom levels a power of two apart and scaled down by less than
+ * two when drawn, so zooming only renders new tiles when it crosses a level. How much
+ * each tile shows depends on the zoom: whole cards up close, plain rectangles further
+ * out, and from far away a summary with a dot per few pixels and bundled edges, so a
+ * tile never costs more than its pixels whatever the number of cards under it.
+ */
+public class TreeRenderer {
+    public static final int TILE_SIZE = 256;
+    private static final int MAX_TILES = 128;
+    private static final int MAX_CARDS = 512;
+    private static final int MIN_LEVEL = -10;
+    private static final int MAX_LEVEL = 3;
+    // Zoom from which cards show their text, and from which they are drawn at all
+    private static final double CARD_ZOOM = 0.5;
+    private static final double BOX_ZOOM = 0.1;
+    // Screen pixels per cell of the summary drawn below BOX_ZOOM
+    private static final int DOT_CELL_PIXELS = 6;
+
+    private static final int PERSON_WIDTH = TreeLayout.PERSON_WIDTH;
+    private static final int PERSON_HEIGHT = TreeLayout.PERSON_HEIGHT;
+    // Shared with the chart writers, so exported charts look like the panel
+    static final int CORNER_ARC = 10;
+    static final Color ROOT_START_COLOR = new Color(255, 240, 240);
+    static final Color ROOT_END_COLOR = new Color(240, 220, 220);
+    static final Color ROOT_BORDER_COLOR = new Color(200, 180, 180);
+    static final Color START_COLOR = new Color(240, 240, 255);
+    static final Color END_COLOR = new Color(220, 220, 240);
+    static final Color BORDER_COLOR = new Color(180, 180, 200);
+    static final Color EDGE_COLOR = Color.GRAY;
+    static final Stroke EDGE_STROKE = new BasicStroke(2);
+    static final Font FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Color BUNDLE_COLOR = new Color(128, 128, 128, 160);
+    private static final Color DOT_COLOR = new Color(110, 110, 160);
+    private static final Color ROOT_DOT_COLOR = new Color(200, 80, 80);
+
+    private enum Detail { CARDS, BOXES, DOTS }
+
+    private TreeLayout layout;
+    // Device pixels per layout pixel the cached cards were rendered for
+    private double cardScale = 1;
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+    private final Map<Long, Card> cards = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Card> eldest) {
+            return size() > MAX_CARDS;
+        }
+    };
+
+    public TreeLayout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(TreeLayout layout) {
+        if (this.layout != layout) {
+            this.layout = layout;
+            tiles.clear();
+        }
+    }
+
+    /**
+     * Paints the tiles covering area, given in layout coordinates. The graphics must
+     * already be transformed so that layout coordinates map to the right place; zoom is
+     * the part of that transform chosen by the user, which sets the detail shown.
+     */
+    public void paint(Graphics2D g2d, Rectangle area, double zoom) {
+        if (layout == null) {
+            return;
+        }
+        // Tiles are rendered at least as sharp as they are shown
+        double deviceScale = g2d.getTransform().getScaleX();
+        int level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, (int) Math.ceil(Math.log(deviceScale) / Math.log(2) - 1e-9)));
+        double levelScale = Math.scalb(1.0, level);
+        Detail detail = zoom >= CARD_ZOOM ? Detail.CARDS : zoom >= BOX_ZOOM ? Detail.BOXES : Detail.DOTS;
+        if (levelScale != cardScale) {
+            cardScale = levelScale;
+            cards.clear();
+        }
+        double span = TILE_SIZE / levelScale;
+        int firstColumn = Math.max(0, (int) Math.floor(area.x / span));
+        int firstRow = Math.max(0, (int) Math.floor(area.y / span));
+        int lastColumn = (int) Math.min(Math.floor((layout.getWidth() - 1) / span), Math.floor((area.x + area.width) / span));
+        int lastRow = (int) Math.min(Math.floor((layout.getHeight() - 1) / span), Math.floor((area.y + area.height) / span));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                BufferedImage tile = tile(level, detail, column, row);
+                if (tile != null) {
+                    AffineTransform placement = AffineTransform.getTranslateInstance(column * span, row * span);
+                    placement.scale(1 / levelScale, 1 / levelScale);
+                    g2d.drawImage(tile, placement, null);
+                }
+            }
+        }
+    }
+
+    // Null for tiles with nothing on them
+    private BufferedImage tile(int level, Detail detail, int column, int row) {
+        long key = (long) (level - MIN_LEVEL) << 58 | (long) detail.ordinal() << 56 | (long) column << 28 | row;
+        if (tiles.containsKey(key)) {
+            return tiles.get(key);
+        }
+        double levelScale = Math.scalb(1.0, level);
+        double span = TILE_SIZE / levelScale;
+        Rectangle bounds = new Rectangle((int) Math.floor(column * span), (int) Math.floor(row * span),
+            (int) Math.ceil(span) + 1, (int) Math.ceil(span) + 1);
+        // Edges and dots are a few pixels wide and may reach in from just outside the tile
+        Rectangle reach = new Rectangle(bounds);
+        int margin = (int) Math.ceil(Math.max(2, 4 / levelScale));
+        reach.grow(margin, margin);
+
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = tile.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.scale(levelScale, levelScale);
+        g2d.translate(-column * span, -row * span);
+        boolean painted;
+        if (detail == Detail.DOTS) {
+            painted = paintSummary(g2d, layout.summary((int) Math.ceil(DOT_CELL_PIXELS / levelScale)), reach, levelScale);
+        } else {
+            painted = paintCards(g2d, detail, bounds, reach, levelScale);
+        }
+        g2d.dispose();
+        if (!painted) {
+            tile = null;
+        }
+        tiles.put(key, tile);
+        return tile;
+    }
+
+    private boolean paintCards(Graphics2D g2d, Detail detail, Rectangle bounds, Rectangle reach, double levelScale) {
+        int[] edges = layout.edgesIn(reach);
+        int[] cardsInTile = layout.cardsIn(bounds);
+        g2d.setStroke(detail == Detail.CARDS ? EDGE_STROKE : new BasicStroke((float) (1 / levelScale)));
+        g2d.setColor(EDGE_COLOR);
+        for (int edge : edges) {
+            drawClipped(g2d, layout.edgeStart(edge), layout.edgeEnd(edge), reach);
+        }
+        for (int card : cardsInTile) {
+            Point point = layout.pointAt(card);
+            Person person = layout.personAt(card);
+            boolean isRoot = person == layout.getRoot();
+            if (detail == Detail.CARDS) {
+                g2d.drawImage(card(person, isRoot), point.x, point.y, PERSON_WIDTH + 1, PERSON_HEIGHT + 1, null);
+            } else {
+                g2d.setColor(isRoot ? ROOT_END_COLOR : END_COLOR);
+                g2d.fillRect(point.x, point.y, PERSON_WIDTH, PERSON_HEIGHT);
+                g2d.setColor(isRoot ? ROOT_BORDER_COLOR : BORDER_COLOR);
+                g2d.drawRect(point.x, point.y, PERSON_WIDTH, PERSON_HEIGHT);
+            }
+        }
+        return edges.length > 0 || cardsInTile.length > 0;
+    }
+
+    // Bundles get wider and dots larger with the number of edges and cards they stand for
+    private static boolean paintSummary(Graphics2D g2d, TreeSummary summary, Rectangle reach, double levelScale) {
+        int[] bundles = summary.bundlesIn(reach);
+        int[] dots = summary.dotsIn(reach);
+        g2d.setColor(BUNDLE_COLOR);
+        for (int bundle : bundles) {
+            double pixels = Math.min(4, 1 + Math.log(summary.bundleWeight(bundle)) / Math.log(2));
+            g2d.setStroke(new BasicStroke((float) (pixels / levelScale)));
+            drawClipped(g2d, summary.bundleStart(bundle), summary.bundleEnd(bundle), reach);
+        }
+        for (int dot : dots) {
+            double radius = Math.min(3, 1.5 + Math.log(summary.dotWeight(dot)) / Math.log(4)) / levelScale;
+            Point center = summary.dotAt(dot);
+            g2d.setColor(summary.isRootDot(dot) ? ROOT_DOT_COLOR : DOT_COLOR);
+            g2d.fill(new Ellipse2D.Double(center.x - radius, center.y - radius, 2 * radius, 2 * radius));
+        }
+        return bundles.length > 0 || dots.length > 0;
+    }
+
+    /**
+     * Draws only the part of the line inside the area (Liang-Barsky). Antialiased lines cost
+     * their whole length however little of them a tile shows, and edges to shared ancestors
+     * may cross the whole tree.
+     */
+    static void drawClipped(Graphics2D g2d, Point from, Point to, Rectangle area) {
+        double dx = to.x - from.x;
+        double dy = to.y - from.y;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {from.x - area.x, area.x + area.width - from.x, from.y - area.y, area.y + area.height - from.y};
+        double start = 0;
+        double end = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    start = Math.max(start, t);
+                } else {
+                    end = Math.min(end, t);
+                }
+            }
+        }
+        if (start <= end) {
+            g2d.draw(new Line2D.Double(from.x + start * dx, from.y + start * dy, from.x + end * dx, from.y + end * dy));
+        }
+    }
+
+    // Rendered again only when the text shown on the card has changed
+    private BufferedImage card(Person person, boolean isRoot) {
+        String name = nameOf(person);
+        String birthDate = BirthDateFormat.format(person.getBirthDate());
+        long key = person.getId() * 2 + (isRoot ? 1 : 0);
+        Card card = cards.get(key);
+        if (card == null || !card.name.equals(name) || !card.birthDate.equals(birthDate)) {
+            card = new Card(name, birthDate, renderCard(name, birthDate, isRoot));
+            cards.put(key, card);
+        }
+        return card.image;
+    }
+
+    private BufferedImage renderCard(String name, String birthDate, boolean isRoot) {
+        BufferedImage image = new BufferedImage((int) Math.ceil((PERSON_WIDTH + 1) * cardScale),
+            (int) Math.ceil((PERSON_HEIGHT + 1) * cardScale), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2d.scale(cardScale, cardScale);
+        drawCard(g2d, name, birthDate, isRoot);
+        g2d.dispose();
+        return image;
+    }
+
+    static String nameOf(Person person) {
+        return person.getFirstName() + " " + person.getLastName();
+    }
+
+    // At the origin of the graphics, one layout pixel per unit
+    static void drawCard(Graphics2D g2d, String name, String birthDate, boolean isRoot) {
+        g2d.setPaint(new GradientPaint(
+            0, 0, isRoot ? ROOT_START_COLOR : START_COLOR,
+            0, PERSON_HEIGHT, isRoot ? ROOT_END_COLOR : END_COLOR
+        ));
+        g2d.fillRoundRect(0, 0, PERSON_WIDTH, PERSON_HEIGHT, CORNER_ARC, CORNER_ARC);
+        g2d.setColor(isRoot ? ROOT_BORDER_COLOR : BORDER_COLOR);
+        g2d.drawRoundRect(0, 0, PERSON_WIDTH, PERSON_HEIGHT, CORNER_ARC, CORNER_ARC);
+
+        g2d.setColor(Color.BLACK);
+        g2d.setFont(FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int nameWidth = fm.stringWidth(name);
+        int dateWidth = fm.stringWidth(birthDate);
+
+        g2d.drawString(name, (PERSON_WIDTH - nameWidth)/2, PERSON_HEIGHT/2);
+        g2d.drawString(birthDate, (PERSON_WIDTH - dateWidth)/2, PERSON_HEIGHT/2 + fm.getHeight());
+    }
+
+    private static final class Card {
+        private final String name;
+        private final String birthDate;
+        private final BufferedImage image;
+
+        Card(String name, String birthDate, BufferedImage image) {
+            this.name = name;
+            this.birthDate = birthDate;
+            this.image = image;
+        }
+    }
+}
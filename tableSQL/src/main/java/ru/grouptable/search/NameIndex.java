@@ -0,0 +1,221 @@
+package ru.grouptable.search;
+
+import ru.grouptable.dto.NameMatches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory trigram (and bigram, for two-letter words) index over first and
+ * last names for search-as-you-type.
+ * Every whitespace-separated word of the query must occur somewhere in the
+ * first or last name, case-insensitively.
+ */
+public class NameIndex {
+    // Separates first and last name so no match can span both
+    private static final char SEPARATOR = '\n';
+
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private long[] ids = new long[1024];
+    private String[] names = new String[1024];
+    private int size;
+    private int deadSlots;
+
+    public synchronized int size() {
+        return slotById.size();
+    }
+
+    public synchronized void put(long id, String firstName, String lastName) {
+        String name = normalize(firstName) + SEPARATOR + normalize(lastName);
+        Integer slot = slotById.get(id);
+        if (slot != null) {
+            if (name.equals(names[slot])) {
+                return;
+            }
+            kill(slot);
+        }
+        slotById.put(id, append(id, name));
+        if (deadSlots > 1024 && deadSlots > size / 2) {
+            compact();
+        }
+    }
+
+    public synchronized void remove(long id) {
+        Integer slot = slotById.remove(id);
+        if (slot != null) {
+            kill(slot);
+        }
+    }
+
+    /**
+     * Ids of persons whose names contain every word of the text, in insertion order,
+     * at most limit of them, with the number of all such persons.
+     */
+    public synchronized NameMatches search(String text, int limit) {
+        NameMatches none = new NameMatches(new long[0], 0);
+        String[] words = normalize(text).trim().split("\\s+");
+        if (words.length == 0 || words[0].isEmpty()) {
+            return none;
+        }
+
+        List<IntList> lists = new ArrayList<>();
+        for (String word : words) {
+            if (word.length() == 2) {
+                IntList posting = postings.get(bigram(word, 0));
+                if (posting == null) {
+                    return none;
+                }
+                lists.add(posting);
+            }
+            for (int i = 0; i + 3 <= word.length(); i++) {
+                IntList posting = postings.get(trigram(word, i));
+                if (posting == null) {
+                    return none;
+                }
+                lists.add(posting);
+            }
+        }
+
+        // Intersect starting from the rarest trigram
+        int[] candidates = null;
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        for (IntList posting : lists) {
+            candidates = candidates == null ? posting.toArray() : intersect(candidates, posting);
+            if (candidates.length == 0) {
+                return none;
+            }
+        }
+
+        long[] result = new long[Math.min(limit, 64)];
+        int found = 0;
+        int total = 0;
+        int candidateCount = candidates == null ? size : candidates.length;
+        // Single letters have no postings and are checked directly; matches past the limit are only counted
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates == null ? i : candidates[i];
+            String name = names[slot];
+            if (name != null && containsAll(name, words)) {
+                total++;
+                if (found == limit) {
+                    continue;
+                }
+                if (found == result.length) {
+                    result = Arrays.copyOf(result, Math.min(limit, found * 2));
+                }
+                result[found++] = ids[slot];
+            }
+        }
+        return new NameMatches(Arrays.copyOf(result, found), total);
+    }
+
+    private int append(long id, String name) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int slot = size++;
+        ids[slot] = id;
+        names[slot] = name;
+        // Slots only grow, so every posting list stays sorted
+        for (int i = 0; i + 2 <= name.length(); i++) {
+            if (name.charAt(i) == SEPARATOR || name.charAt(i + 1) == SEPARATOR) {
+                continue;
+            }
+            addPosting(bigram(name, i), slot);
+            if (i + 3 <= name.length() && name.charAt(i + 2) != SEPARATOR) {
+                addPosting(trigram(name, i), slot);
+            }
+        }
+        return slot;
+    }
+
+    private void addPosting(long key, int slot) {
+        IntList posting = postings.computeIfAbsent(key, k -> new IntList());
+        if (posting.size == 0 || posting.data[posting.size - 1] != slot) {
+            posting.add(slot);
+        }
+    }
+
+    // Dead slots stay in the posting lists and are skipped until the next compaction
+    private void kill(int slot) {
+        names[slot] = null;
+        deadSlots++;
+    }
+
+    private void compact() {
+        long[] oldIds = ids;
+        String[] oldNames = names;
+        int oldSize = size;
+        ids = new long[Math.max(1024, slotById.size() * 2)];
+        names = new String[ids.length];
+        size = 0;
+        deadSlots = 0;
+        postings.clear();
+        for (int slot = 0; slot < oldSize; slot++) {
+            if (oldNames[slot] != null) {
+                slotById.put(oldIds[slot], append(oldIds[slot], oldNames[slot]));
+            }
+        }
+    }
+
+    private static boolean containsAll(String name, String[] words) {
+        for (String word : words) {
+            if (!name.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] intersect(int[] sorted, IntList posting) {
+        int[] result = new int[Math.min(sorted.length, posting.size)];
+        int count = 0;
+        int j = 0;
+        for (int value : sorted) {
+            while (j < posting.size && posting.data[j] < value) {
+                j++;
+            }
+            if (j == posting.size) {
+                break;
+            }
+            if (posting.data[j] == value) {
+                result[count++] = value;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Bigram keys are tagged above the 48 bits a trigram key can use
+    private static long bigram(String text, int offset) {
+        return (1L << 48) | ((long) text.charAt(offset) << 16) | text.charAt(offset + 1);
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+    }
+
+    private static final class IntList {
+        private int[] data = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.grouptable.gedcom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Small GEDCOM files, under src/test/resources, read through GedcomCharset and GedcomParser
+ * the way GedcomImporter reads them. Each person comes out as "xref given /surname/ date".
+ */
+class GedcomParserTest {
+    @TempDir
+    Path directory;
+
+    // Accents come before their letter in ANSEL and after it once decoded
+    @Test
+    void decodesAnselWithCombiningDiacritics() throws Exception {
+        Parsed parsed = parse("ansel.ged");
+        assertEquals("ANSEL", parsed.charset);
+        assertEquals("@I1@ Jose\u0301 /Mun\u0303oz/ 1901-02-03", parsed.persons.get(0));
+        List<String> composed = new ArrayList<>();
+        for (String person : parsed.persons) {
+            composed.add(Normalizer.normalize(person, Normalizer.Form.NFC));
+        }
+        assertEquals(List.of(
+            "@I1@ José /Muñoz/ 1901-02-03",
+            "@I2@ Łódź /Nguyến/ -",
+            "@I3@ Der /Große/ -"), composed);
+        assertEquals(List.of("@F1@ @I1@", "@F1@ @I2@", "@F1@ child @I3@"), parsed.familyMembers);
+    }
+
+    @Test
+    void byteOrderMarkWinsOverTheDeclaredCharset() throws Exception {
+        Parsed parsed = parse("utf8-bom.ged");
+        assertEquals("UTF-8", parsed.charset);
+        assertEquals(List.of("@I1@ Иван /Петров/ 1960-03-12"), parsed.persons);
+    }
+
+    @Test
+    void readsTheCharsetDeclaredInTheHeader() throws Exception {
+        List<String> expected = List.of("@I1@ Пётр Ильич /Чайковский/ 1840-05-07");
+        assertEquals(expected, parse("windows-1251.ged").persons);
+        assertEquals(expected, parse("koi8-r.ged").persons);
+        assertEquals("KOI8-R", parse("koi8-r.ged").charset);
+        // Russian programs declare ANSEL for files in windows-1251
+        Parsed declaredAnsel = parse("windows-1251-declared-ansel.ged");
+        assertEquals("ANSEL", declaredAnsel.charset);
+        assertEquals(expected, declaredAnsel.persons);
+    }
+
+    @Test
+    void joinsNamesContinuedOverConcAndContLines() throws Exception {
+        Parsed parsed = parse("continuation.ged");
+        assertEquals("UTF-8", parsed.charset);
+        assertEquals(List.of(
+            "@I1@ Александр /Пушкин/ 1799-06-06",
+            "@I2@ Наталья /Гончарова/ -",
+            "@I3@ Мария /Пушкина/ -",
+            "@I4@ Григорий /Пушкин/ -"), parsed.persons);
+    }
+
+    @Test
+    void reportsTheFirstLineThatDoesNotDecode() throws Exception {
+        Path file = directory.resolve("broken.ged");
+        Files.write(file, concat("0 HEAD\n1 CHAR UTF-8\n0 @I1@ INDI\n".getBytes(StandardCharsets.UTF_8),
+            new byte[]{'1', ' ', 'N', 'A', 'M', 'E', ' ', (byte) 0xC0, '\n'}));
+        GedcomCharset charset = GedcomCharset.of(file);
+        IOException error = assertThrows(IOException.class, () -> parse(charset, file));
+        assertTrue(error instanceof CharacterCodingException, error.toString());
+        assertEquals(4, charset.findUndecodableLine(file));
+    }
+
+    @Test
+    void rejectsAnUnknownCharset() throws IOException {
+        Path file = directory.resolve("unknown.ged");
+        Files.writeString(file, "0 HEAD\n1 CHAR MACINTOSH-CYRILLIC-1987\n0 TRLR\n");
+        IOException error = assertThrows(IOException.class, () -> GedcomCharset.of(file));
+        assertTrue(error.getMessage().contains("MACINTOSH-CYRILLIC-1987"), error.getMessage());
+    }
+
+    private static Parsed parse(String fixture) throws IOException, URISyntaxException {
+        Path file = Paths.get(GedcomParserTest.class.getResource(fixture).toURI());
+        return parse(GedcomCharset.of(file), file);
+    }
+
+    private static Parsed parse(GedcomCharset charset, Path file) throws IOException {
+        Parsed parsed = new Parsed(charset.getName());
+        try (InputStream in = Files.newInputStream(file);
+             BufferedReader reader = new BufferedReader(charset.open(in))) {
+            new GedcomParser(parsed).parse(reader);
+        }
+        return parsed;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static final class Parsed implements GedcomParser.Handler {
+        private final String charset;
+        private final List<String> persons = new ArrayList<>();
+        private final List<String> familyMembers = new ArrayList<>();
+
+        Parsed(String charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        public void person(String xref, String firstName, String lastName, LocalDate birthDate) {
+            persons.add(xref + " " + firstName + " /" + lastName + "/ " + (birthDate == null ? "-" : birthDate));
+        }
+
+        @Override
+        public void familyMember(String familyXref, String personXref, boolean child) {
+            familyMembers.add(familyXref + (child ? " child " : " ") + personXref);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ru.grouptable.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Random edits of a KinshipGraph, each followed by checks of AncestryOrder against a plain
+ * depth-first search over a separate copy of the links.
+ */
+class AncestryOrderTest {
+    private static final int SEEDS = 50;
+    private static final int STEPS = 200;
+
+    @Test
+    void findsCycleParentsWhileTheGraphStaysAcyclic() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            new RandomEdits(seed, 0).run();
+        }
+    }
+
+    // Links that close a cycle, as an imported file may hold, and edits that later break it
+    @Test
+    void fallsBackToFullSearchWhileTheGraphHasCycles() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            new RandomEdits(seed, 0.1).run();
+        }
+    }
+
+    @Test
+    void importWithCycleIsReportedAndForgottenOnceBroken() {
+        KinshipGraph graph = new KinshipGraph();
+        for (long id = 1; id <= 4; id++) {
+            graph.put(id, "", "", new long[0]);
+        }
+        AncestryOrder order = new AncestryOrder(graph);
+        graph.link(2, 1);
+        graph.link(3, 2);
+        graph.link(4, 3);
+        graph.link(1, 3);
+        assertTrue(order.hasCycles());
+        assertEquals(Set.of(Set.of(1L, 2L, 3L)), idSets(order.findCycles()));
+        assertEquals(4L, order.findCycleParent(1, new long[]{4}));
+        assertNull(order.findCycleParent(4, new long[]{1}));
+
+        graph.put(1, "", "", new long[0]);
+        assertFalse(order.hasCycles());
+        assertEquals(List.of(), order.findCycles());
+        assertEquals(4L, order.findCycleParent(1, new long[]{4}));
+        assertNull(order.findCycleParent(4, new long[]{1}));
+    }
+
+    // More changes than are worth applying one by one, made before the order looks at them
+    @Test
+    void largeImportIsOrderedFromScratch() {
+        new RandomEdits(7, 0).runImport(3000);
+        new RandomEdits(8, 0.001).runImport(3000);
+    }
+
+    private static Set<Set<Long>> idSets(List<long[]> groups) {
+        Set<Set<Long>> sets = new HashSet<>();
+        for (long[] group : groups) {
+            Set<Long> set = new TreeSet<>();
+            for (long id : group) {
+                set.add(id);
+            }
+            assertEquals(group.length, set.size());
+            sets.add(set);
+        }
+        assertEquals(groups.size(), sets.size());
+        return sets;
+    }
+
+    private static final class RandomEdits {
+        private final long seed;
+        private final Random random;
+        // Chance that a link closing a cycle is made anyway
+        private final double cycleChance;
+        private final KinshipGraph graph = new KinshipGraph();
+        private final AncestryOrder order = new AncestryOrder(graph);
+        // The links as the test made them: parents of every person in the graph
+        private final Map<Long, Set<Long>> parents = new LinkedHashMap<>();
+        private long nextId = 1;
+
+        RandomEdits(long seed, double cycleChance) {
+            this.seed = seed;
+            this.random = new Random(seed);
+            this.cycleChance = cycleChance;
+        }
+
+        void run() {
+            for (int step = 0; step < STEPS; step++) {
+                // Several edits between checks, so one refresh sees several new links
+                int edits = 1 + random.nextInt(random.nextInt(10) == 0 ? 20 : 3);
+                for (int i = 0; i < edits; i++) {
+                    edit();
+                }
+                check();
+            }
+        }
+
+        void runImport(int persons) {
+            for (int i = 0; i < persons; i++) {
+                add(new long[0]);
+            }
+            List<Long> ids = new ArrayList<>(parents.keySet());
+            for (int i = 0; i < persons; i++) {
+                long child = ids.get(random.nextInt(ids.size()));
+                long parent = ids.get(random.nextInt(ids.size()));
+                if (child != parent && (random.nextDouble() < cycleChance || !descendants(child).contains(parent))) {
+                    link(child, parent);
+                }
+            }
+            check();
+            for (int step = 0; step < 10; step++) {
+                edit();
+                check();
+            }
+        }
+
+        private void edit() {
+            int kind = parents.size() < 5 ? 0 : random.nextInt(10);
+            if (kind < 3) {
+                add(randomParents(-1));
+            } else if (kind < 6) {
+                long child = randomPerson();
+                long parent = randomPerson();
+                if (child != parent && allowed(child, parent)) {
+                    link(child, parent);
+                }
+            } else if (kind < 9) {
+                // New parents, which unlinks the old ones that are not among them
+                long person = randomPerson();
+                long[] newParents = randomParents(person);
+                graph.put(person, "", "", newParents);
+                Set<Long> set = parents.get(person);
+                set.clear();
+                for (long parent : newParents) {
+                    if (parent != person) {
+                        set.add(parent);
+                    }
+                }
+            } else {
+                long person = randomPerson();
+                graph.remove(person);
+                parents.remove(person);
+                for (Set<Long> set : parents.values()) {
+                    set.remove(person);
+                }
+            }
+        }
+
+        private void add(long[] parentIds) {
+            long id = nextId++;
+            graph.put(id, "", "", parentIds);
+            parents.put(id, new LinkedHashSet<>());
+            for (long parent : parentIds) {
+                parents.get(id).add(parent);
+            }
+        }
+
+        private void link(long child, long parent) {
+            graph.link(child, parent);
+            parents.get(child).add(parent);
+        }
+
+        // Up to two persons, never a descendant of the child unless a cycle is wanted
+        private long[] randomParents(long child) {
+            int count = random.nextInt(3);
+            long[] result = new long[count];
+            int found = 0;
+            for (int i = 0; i < count && !parents.isEmpty(); i++) {
+                long parent = randomPerson();
+                if (parent != child && (child < 0 || allowed(child, parent))) {
+                    result[found++] = parent;
+                }
+            }
+            return Arrays.copyOf(result, found);
+        }
+
+        private boolean allowed(long child, long parent) {
+            return random.nextDouble() < cycleChance || !descendants(child).contains(parent);
+        }
+
+        private void check() {
+            Set<Set<Long>> cycles = cycles();
+            assertEquals(!cycles.isEmpty(), order.hasCycles(), this::describe);
+            assertEquals(cycles, idSets(order.findCycles()), this::describe);
+            // Every child, and one more descendant, would make a person their own ancestor
+            Map<Long, List<Long>> children = children();
+            for (long person : parents.keySet()) {
+                for (long child : children.getOrDefault(person, List.of())) {
+                    assertEquals(child, order.findCycleParent(person, new long[]{child}), this::describe);
+                }
+                List<Long> descendants = new ArrayList<>(descendants(person, children));
+                if (!descendants.isEmpty()) {
+                    long descendant = descendants.get(random.nextInt(descendants.size()));
+                    assertEquals(descendant, order.findCycleParent(person, new long[]{descendant}), this::describe);
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                long person = random.nextInt(5) == 0 ? nextId + 1 : randomPerson();
+                long[] candidates = new long[1 + random.nextInt(3)];
+                for (int j = 0; j < candidates.length; j++) {
+                    int pick = random.nextInt(10);
+                    // Now and then the person themselves, or someone removed or never saved
+                    candidates[j] = pick == 0 ? person : pick == 1 ? 1 + random.nextInt((int) nextId) : randomPerson();
+                }
+                Set<Long> bad = new HashSet<>();
+                if (parents.containsKey(person)) {
+                    Set<Long> descendants = descendants(person, children);
+                    for (long candidate : candidates) {
+                        if (candidate == person || descendants.contains(candidate)) {
+                            bad.add(candidate);
+                        }
+                    }
+                }
+                Long found = order.findCycleParent(person, candidates);
+                String query = describe() + ", person " + person + ", parents " + Arrays.toString(candidates);
+                if (bad.isEmpty()) {
+                    assertNull(found, query);
+                } else {
+                    assertTrue(found != null && bad.contains(found), query + ", found " + found + ", expected one of " + bad);
+                }
+            }
+        }
+
+        // Everyone below the person, reached by a plain depth-first search
+        private Set<Long> descendants(long person) {
+            return descendants(person, children());
+        }
+
+        private Set<Long> descendants(long person, Map<Long, List<Long>> children) {
+            Set<Long> seen = new HashSet<>();
+            Deque<Long> stack = new ArrayDeque<>();
+            stack.push(person);
+            while (!stack.isEmpty()) {
+                for (long child : children.getOrDefault(stack.pop(), List.of())) {
+                    if (seen.add(child)) {
+                        stack.push(child);
+                    }
+                }
+            }
+            return seen;
+        }
+
+        private Map<Long, List<Long>> children() {
+            Map<Long, List<Long>> children = new LinkedHashMap<>();
+            for (Map.Entry<Long, Set<Long>> entry : parents.entrySet()) {
+                for (long parent : entry.getValue()) {
+                    children.computeIfAbsent(parent, key -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            return children;
+        }
+
+        // Groups of two or more persons who all descend from each other
+        private Set<Set<Long>> cycles() {
+            Map<Long, List<Long>> children = children();
+            Map<Long, Set<Long>> below = new LinkedHashMap<>();
+            for (long person : parents.keySet()) {
+                below.put(person, descendants(person, children));
+            }
+            Set<Set<Long>> groups = new HashSet<>();
+            for (long person : parents.keySet()) {
+                if (!below.get(person).contains(person)) {
+                    continue;
+                }
+                Set<Long> group = new TreeSet<>();
+                for (long other : below.get(person)) {
+                    if (below.get(other).contains(person)) {
+                        group.add(other);
+                    }
+                }
+                groups.add(group);
+            }
+            return groups;
+        }
+
+        private long randomPerson() {
+            int skip = random.nextInt(parents.size());
+            return parents.keySet().stream().skip(skip).findFirst().orElseThrow();
+        }
+
+        private String describe() {
+            return "seed " + seed + ", cycle chance " + cycleChance + ", links " + parents;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package ru.grouptable.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Random edits of a KinshipGraph, each followed by checks of RelationshipCalculator against
+ * a plain breadth-first search over a separate copy of the links, and the names of
+ * relationships in a small family.
+ */
+class RelationshipCalculatorTest {
+    private static final int SEEDS = 30;
+    private static final int STEPS = 100;
+
+    // Tables cached across edits are only dropped for changed persons and their descendants
+    @Test
+    void matchesPlainSearchAcrossEdits() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            new RandomEdits(seed, Integer.MAX_VALUE).run();
+        }
+    }
+
+    // Limits below the size of one table drop every table on each new one
+    @Test
+    void matchesPlainSearchWhenTablesAreDropped() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            new RandomEdits(seed, 1).run();
+            new RandomEdits(seed, 40).run();
+        }
+    }
+
+    @Test
+    void namesRelationshipsInAFamily() {
+        // 1 and 2 are a couple with children 3 and 4; each line then goes down one child
+        // per generation: 3 - 5 - 7 - 9 and 4 - 6 - 8 - 10. 11 is no relative
+        KinshipGraph graph = new KinshipGraph();
+        graph.put(1, "", "", new long[0]);
+        graph.put(2, "", "", new long[0]);
+        graph.put(3, "", "", new long[]{1, 2});
+        graph.put(4, "", "", new long[]{1, 2});
+        graph.put(5, "", "", new long[]{3});
+        graph.put(6, "", "", new long[]{4});
+        graph.put(7, "", "", new long[]{5});
+        graph.put(8, "", "", new long[]{6});
+        graph.put(9, "", "", new long[]{7});
+        graph.put(10, "", "", new long[]{8});
+        graph.put(11, "", "", new long[0]);
+        RelationshipCalculator calculator = new RelationshipCalculator(graph);
+
+        assertEquals("тот же человек", calculator.relationship(5, 5).getName());
+        assertEquals("отец/мать", calculator.relationship(5, 3).getName());
+        assertEquals("сын/дочь", calculator.relationship(3, 5).getName());
+        assertEquals("прадедушка/прабабушка", calculator.relationship(7, 1).getName());
+        assertEquals("праправнук/праправнучка", calculator.relationship(1, 9).getName());
+        assertEquals("брат/сестра", calculator.relationship(3, 4).getName());
+        assertEquals("дядя/тётя", calculator.relationship(5, 4).getName());
+        assertEquals("племянник/племянница", calculator.relationship(4, 5).getName());
+        assertEquals("двоюродный брат/двоюродная сестра", calculator.relationship(5, 6).getName());
+        assertEquals("двоюродный дедушка/двоюродная бабушка", calculator.relationship(7, 4).getName());
+        assertEquals("двоюродный внук/двоюродная внучка", calculator.relationship(4, 7).getName());
+        assertEquals("двоюродный дядя/двоюродная тётя", calculator.relationship(7, 6).getName());
+        assertEquals("троюродный брат/троюродная сестра", calculator.relationship(7, 8).getName());
+        assertEquals("четвероюродный брат/четвероюродная сестра", calculator.relationship(9, 10).getName());
+        assertEquals("нет кровного родства", calculator.relationship(5, 11).getName());
+        assertEquals("нет кровного родства", calculator.relationship(5, 12).getName());
+
+        Relationship siblings = calculator.relationship(3, 4);
+        assertArrayEquals(new long[]{1, 2}, sorted(siblings.getCommonAncestorIds()));
+        assertEquals(1, siblings.getFirstGenerations());
+        assertEquals(1, siblings.getSecondGenerations());
+
+        // A second marriage: 12 shares only their father 3 with 5, and a half-sibling is named
+        // the same, with one common ancestor instead of two
+        graph.put(12, "", "", new long[]{3});
+        Relationship halfSiblings = calculator.relationship(5, 12);
+        assertEquals("брат/сестра", halfSiblings.getName());
+        assertArrayEquals(new long[]{3}, halfSiblings.getCommonAncestorIds());
+
+        // Cousins who are also related through the other parent count the nearer line
+        graph.put(13, "", "", new long[]{5, 6});
+        assertEquals("сын/дочь", calculator.relationship(6, 13).getName());
+        assertEquals("племянник/племянница", calculator.relationship(12, 13).getName());
+
+        List<Relationship> pairs = calculator.relationships(new long[]{3, 4, 11});
+        assertEquals(3, pairs.size());
+        assertEquals("брат/сестра", pairs.get(0).getName());
+        assertFalse(pairs.get(1).isRelated());
+        assertFalse(pairs.get(2).isRelated());
+        assertEquals(4, pairs.get(2).getFirstId());
+        assertEquals(11, pairs.get(2).getSecondId());
+    }
+
+    @Test
+    void namesDistantRelationships() {
+        assertEquals("прапрапрадедушка/прапрапрабабушка", RelationshipNames.of(5, 0));
+        assertEquals("правнук/правнучка", RelationshipNames.of(0, 3));
+        assertEquals("троюродный прапрадедушка/троюродная прапрабабушка", RelationshipNames.of(6, 2));
+        assertEquals("двоюродный правнук/двоюродная правнучка", RelationshipNames.of(1, 4));
+        assertEquals("троюродный дядя/троюродная тётя", RelationshipNames.of(4, 3));
+        assertEquals("десятиюродный брат/десятиюродная сестра", RelationshipNames.of(10, 10));
+        assertEquals("11-юродный брат/11-юродная сестра", RelationshipNames.of(11, 11));
+    }
+
+    private static long[] sorted(long[] values) {
+        long[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static final class RandomEdits {
+        private final long seed;
+        private final Random random;
+        private final KinshipGraph graph = new KinshipGraph();
+        private final RelationshipCalculator calculator;
+        // The links as the test made them: parents of every person in the graph
+        private final Map<Long, Set<Long>> parents = new LinkedHashMap<>();
+        private long nextId = 1;
+
+        RandomEdits(long seed, int maxCachedEntries) {
+            this.seed = seed;
+            this.random = new Random(seed);
+            this.calculator = new RelationshipCalculator(graph, maxCachedEntries);
+        }
+
+        void run() {
+            for (int i = 0; i < 30; i++) {
+                add();
+            }
+            check();
+            for (int step = 0; step < STEPS; step++) {
+                // Several edits between checks, so one refresh sees several changes
+                int edits = 1 + random.nextInt(random.nextInt(10) == 0 ? 10 : 2);
+                for (int i = 0; i < edits; i++) {
+                    edit();
+                }
+                check();
+            }
+        }
+
+        private void edit() {
+            int kind = parents.size() < 10 ? 0 : random.nextInt(10);
+            if (kind < 3) {
+                add();
+            } else if (kind < 5) {
+                long child = randomPerson();
+                long parent = randomPerson();
+                graph.link(child, parent);
+                if (child != parent) {
+                    parents.get(child).add(parent);
+                }
+            } else if (kind < 8) {
+                // New parents, which unlinks the old ones that are not among them
+                long person = randomPerson();
+                long[] newParents = randomParents();
+                graph.put(person, "", "", newParents);
+                Set<Long> set = parents.get(person);
+                set.clear();
+                for (long parent : newParents) {
+                    if (parent != person) {
+                        set.add(parent);
+                    }
+                }
+            } else if (kind < 9) {
+                // A new name only
+                long person = randomPerson();
+                long[] same = parents.get(person).stream().mapToLong(Long::longValue).toArray();
+                graph.put(person, "", "", same);
+            } else {
+                long person = randomPerson();
+                graph.remove(person);
+                parents.remove(person);
+                for (Set<Long> set : parents.values()) {
+                    set.remove(person);
+                }
+            }
+        }
+
+        private void add() {
+            long id = nextId++;
+            long[] parentIds = randomParents();
+            graph.put(id, "", "", parentIds);
+            parents.put(id, new LinkedHashSet<>());
+            for (long parent : parentIds) {
+                parents.get(id).add(parent);
+            }
+        }
+
+        // Up to two persons, any of them; links may close a cycle, as an imported file may hold
+        private long[] randomParents() {
+            int count = parents.isEmpty() ? 0 : random.nextInt(3);
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = randomPerson();
+            }
+            return Arrays.stream(result).distinct().toArray();
+        }
+
+        private void check() {
+            Map<Long, Map<Long, Integer>> ancestors = new HashMap<>();
+            for (long person : parents.keySet()) {
+                ancestors.put(person, ancestors(person));
+            }
+            for (int i = 0; i < 20; i++) {
+                long first = randomQueryId();
+                long second = random.nextInt(10) == 0 ? first : randomQueryId();
+                checkRelationship(ancestors, first, second, calculator.relationship(first, second));
+            }
+            List<Long> ids = new ArrayList<>(parents.keySet());
+            Collections.shuffle(ids, random);
+            long[] selection = ids.stream().limit(15).mapToLong(Long::longValue).toArray();
+            if (random.nextInt(5) == 0) {
+                selection = Arrays.copyOf(selection, selection.length + 1);
+                selection[selection.length - 1] = nextId + 1;
+            }
+            List<Relationship> found = calculator.relationships(selection);
+            assertEquals(selection.length * (selection.length - 1) / 2, found.size(), this::describe);
+            int pair = 0;
+            for (int i = 0; i < selection.length; i++) {
+                for (int j = i + 1; j < selection.length; j++) {
+                    checkRelationship(ancestors, selection[i], selection[j], found.get(pair++));
+                }
+            }
+        }
+
+        /**
+         * The nearest common ancestors have the smallest sum of generations to both persons,
+         * and among those the most even split; when both splits of an uneven pair occur, the
+         * calculator may pick either, and then names all ancestors with that split.
+         */
+        private void checkRelationship(Map<Long, Map<Long, Integer>> ancestors, long first, long second,
+                                       Relationship found) {
+            String query = describe() + ", persons " + first + " and " + second + ", found " + found;
+            assertEquals(first, found.getFirstId(), query);
+            assertEquals(second, found.getSecondId(), query);
+            Map<Long, Integer> firstAncestors = ancestors.getOrDefault(first, Map.of());
+            Map<Long, Integer> secondAncestors = ancestors.getOrDefault(second, Map.of());
+            int bestSum = Integer.MAX_VALUE;
+            int bestDifference = Integer.MAX_VALUE;
+            for (Map.Entry<Long, Integer> entry : firstAncestors.entrySet()) {
+                Integer other = secondAncestors.get(entry.getKey());
+                if (other != null) {
+                    int sum = entry.getValue() + other;
+                    int difference = Math.abs(entry.getValue() - other);
+                    if (sum < bestSum || sum == bestSum && difference < bestDifference) {
+                        bestSum = sum;
+                        bestDifference = difference;
+                    }
+                }
+            }
+            if (bestSum == Integer.MAX_VALUE) {
+                assertFalse(found.isRelated(), query);
+                assertEquals("нет кровного родства", found.getName(), query);
+                return;
+            }
+            assertTrue(found.isRelated(), query);
+            int firstGenerations = found.getFirstGenerations();
+            int secondGenerations = found.getSecondGenerations();
+            assertEquals(bestSum, firstGenerations + secondGenerations, query);
+            assertEquals(bestDifference, Math.abs(firstGenerations - secondGenerations), query);
+            Set<Long> expected = new TreeSet<>();
+            for (Map.Entry<Long, Integer> entry : firstAncestors.entrySet()) {
+                if (entry.getValue() == firstGenerations
+                    && Integer.valueOf(secondGenerations).equals(secondAncestors.get(entry.getKey()))) {
+                    expected.add(entry.getKey());
+                }
+            }
+            Set<Long> actual = new TreeSet<>();
+            for (long id : found.getCommonAncestorIds()) {
+                actual.add(id);
+            }
+            assertEquals(expected, actual, query);
+            assertEquals(RelationshipNames.of(firstGenerations, secondGenerations), found.getName(), query);
+        }
+
+        // The person and everyone above them, at the nearest generation they are found at
+        private Map<Long, Integer> ancestors(long person) {
+            Map<Long, Integer> generations = new HashMap<>();
+            Deque<Long> queue = new ArrayDeque<>();
+            generations.put(person, 0);
+            queue.add(person);
+            while (!queue.isEmpty()) {
+                long next = queue.poll();
+                for (long parent : parents.get(next)) {
+                    if (!generations.containsKey(parent)) {
+                        generations.put(parent, generations.get(next) + 1);
+                        queue.add(parent);
+                    }
+                }
+            }
+            return generations;
+        }
+
+        // Now and then someone removed or never saved
+        private long randomQueryId() {
+            return random.nextInt(10) == 0 ? 1 + random.nextInt((int) nextId + 1) : randomPerson();
+        }
+
+        private long randomPerson() {
+            int skip = random.nextInt(parents.size());
+            return parents.keySet().stream().skip(skip).findFirst().orElseThrow();
+        }
+
+        private String describe() {
+            return "seed " + seed + ", links " + parents;
+        }
+    }
+}